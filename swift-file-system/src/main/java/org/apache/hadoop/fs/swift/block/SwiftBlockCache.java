@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.block;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.swift.http.SwiftProtocolConstants;
+import org.apache.hadoop.fs.swift.util.LocalDiskCache;
+import org.apache.hadoop.fs.swift.util.SwiftUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of the blocks of the block filesystem, in two tiers: an
+ * in-memory one shared by all filesystems of the process, and a
+ * {@link LocalDiskCache} which may also be shared by other processes
+ * on the host. Both evict the least recently used blocks to stay
+ * within their capacity.
+ *
+ * Blocks are never changed once written, and a new block gets an ID
+ * from a range claimed by its writer alone (see
+ * {@link SwiftBlockIdGenerator}), so a cached block needs no validation.
+ */
+public class SwiftBlockCache {
+  private static final Log LOG = LogFactory.getLog(SwiftBlockCache.class);
+
+  private static final long DEFAULT_DISK_CAPACITY = 10L * 1024 * 1024 * 1024;
+
+  /**
+   * caches, by their configuration
+   */
+  private static final Map<String, SwiftBlockCache> CACHES =
+    new HashMap<String, SwiftBlockCache>();
+
+  /**
+   * disk tier; null if there is none
+   */
+  private final LocalDiskCache disk;
+
+  private final long memoryCapacity;
+  private long memoryUsage;
+
+  /**
+   * memory tier, in order of use
+   */
+  private final LinkedHashMap<String, byte[]> memory =
+    new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+  private final AtomicLong memoryHits = new AtomicLong();
+
+  /**
+   * Create a cache
+   * @param disk disk tier; null for none
+   * @param memoryCapacity maximum number of bytes to keep in memory;
+   * 0 for no memory tier
+   */
+  public SwiftBlockCache(LocalDiskCache disk, long memoryCapacity) {
+    this.disk = disk;
+    this.memoryCapacity = memoryCapacity;
+  }
+
+  /**
+   * Get the block cache for a configuration
+   * @param conf configuration
+   * @return the cache shared by every filesystem configured alike;
+   * null if neither tier is enabled
+   * @throws IOException on a bad configuration, or if the cache
+   * directory cannot be created
+   */
+  public static SwiftBlockCache getInstance(Configuration conf)
+    throws IOException {
+    String dir = conf.get(SwiftProtocolConstants.SWIFT_BLOCK_CACHE_DIR);
+    if (dir != null) {
+      dir = dir.trim();
+      if (dir.isEmpty()) {
+        dir = null;
+      }
+    }
+    long capacity = SwiftUtils.getLongOption(conf,
+            SwiftProtocolConstants.SWIFT_BLOCK_CACHE_CAPACITY,
+            DEFAULT_DISK_CAPACITY, 1);
+    long memoryCapacity = SwiftUtils.getLongOption(conf,
+            SwiftProtocolConstants.SWIFT_BLOCK_CACHE_MEMORY, 0, 0);
+    if (dir == null && memoryCapacity == 0) {
+      return null;
+    }
+    String key = dir + ":" + capacity + ":" + memoryCapacity;
+    synchronized (CACHES) {
+      SwiftBlockCache cache = CACHES.get(key);
+      if (cache == null) {
+        cache = new SwiftBlockCache(
+                dir == null ? null : new LocalDiskCache(new File(dir), capacity),
+                memoryCapacity);
+        CACHES.put(key, cache);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Caching blocks with " + cache);
+        }
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * Build the key of a block
+   * @param fsName name of the filesystem holding the block
+   * @param blockId block ID
+   * @return the key
+   */
+  public static String toKey(String fsName, long blockId) {
+    return LocalDiskCache.toKey(fsName, "block", Long.toString(blockId));
+  }
+
+  /**
+   * Open a cached block. A block found on disk is also added
+   * to the memory tier.
+   * @param key block key
+   * @return a stream of the block, or null if it is not cached
+   * @throws IOException on a failure to read a block that exists
+   */
+  public InputStream open(String key) throws IOException {
+    synchronized (memory) {
+      byte[] data = memory.get(key);
+      if (data != null) {
+        memoryHits.incrementAndGet();
+        return new ByteArrayInputStream(data);
+      }
+    }
+    if (disk == null) {
+      return null;
+    }
+    if (memoryCapacity > 0
+        && new File(disk.getDir(), key).length() <= memoryCapacity) {
+      byte[] data = disk.get(key);
+      if (data == null) {
+        return null;
+      }
+      putInMemory(key, data);
+      return new ByteArrayInputStream(data);
+    }
+    return disk.open(key);
+  }
+
+  /**
+   * Add a block
+   * @param key block key
+   * @param file local file holding the data of the block
+   * @throws IOException on a failure to read the file or write the entry
+   */
+  public void put(String key, File file) throws IOException {
+    if (disk != null) {
+      InputStream in = new FileInputStream(file);
+      try {
+        disk.put(key, in);
+      } finally {
+        in.close();
+      }
+    }
+    if (memoryCapacity > 0 && file.length() <= memoryCapacity) {
+      byte[] data = new byte[(int) file.length()];
+      InputStream in = new FileInputStream(file);
+      try {
+        int read = 0;
+        while (read < data.length) {
+          int count = in.read(data, read, data.length - read);
+          if (count < 0) {
+            throw new IOException("Block file " + file + " truncated");
+          }
+          read += count;
+        }
+      } finally {
+        in.close();
+      }
+      putInMemory(key, data);
+    }
+  }
+
+  private void putInMemory(String key, byte[] data) {
+    synchronized (memory) {
+      byte[] old = memory.put(key, data);
+      if (old != null) {
+        memoryUsage -= old.length;
+      }
+      memoryUsage += data.length;
+      Iterator<byte[]> it = memory.values().iterator();
+      while (memoryUsage > memoryCapacity && it.hasNext()) {
+        memoryUsage -= it.next().length;
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Remove a block from both tiers
+   * @param key block key
+   */
+  public void remove(String key) {
+    synchronized (memory) {
+      byte[] old = memory.remove(key);
+      if (old != null) {
+        memoryUsage -= old.length;
+      }
+    }
+    if (disk != null) {
+      disk.remove(key);
+    }
+  }
+
+  /**
+   * @return the number of bytes held in memory
+   */
+  public long getMemoryUsage() {
+    synchronized (memory) {
+      return memoryUsage;
+    }
+  }
+
+  public long getMemoryHits() {
+    return memoryHits.get();
+  }
+
+  public LocalDiskCache getDisk() {
+    return disk;
+  }
+
+  @Override
+  public String toString() {
+    return "SwiftBlockCache memory capacity=" + memoryCapacity
+           + " usage=" + getMemoryUsage()
+           + " hits=" + getMemoryHits()
+           + "; disk: " + disk;
+  }
+}
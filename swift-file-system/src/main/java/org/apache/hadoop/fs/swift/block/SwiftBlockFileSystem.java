@@ -25,7 +25,9 @@ import org.apache.hadoop.fs.*;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.fs.s3.Block;
 import org.apache.hadoop.fs.s3.INode;
+import org.apache.hadoop.fs.swift.http.SwiftProtocolConstants;
 import org.apache.hadoop.fs.swift.util.SwiftObjectPath;
+import org.apache.hadoop.fs.swift.util.SwiftUtils;
 import org.apache.hadoop.util.Progressable;
 
 import java.io.FileNotFoundException;
@@ -35,6 +37,8 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Implementation storing data in Swift as array ob blocks.
@@ -42,6 +46,17 @@ import java.util.List;
  */
 public class SwiftBlockFileSystem extends FileSystem {
   private static final Log LOG = LogFactory.getLog(SwiftBlockFileSystem.class);
+
+  /**
+   * Default number of threads uploading blocks
+   */
+  private static final int DEFAULT_UPLOAD_THREADS = 8;
+
+  /**
+   * Default number of threads prefetching blocks
+   */
+  private static final int DEFAULT_READ_THREADS = 8;
+
   /**
    * fs URI
    */
@@ -57,6 +72,16 @@ public class SwiftBlockFileSystem extends FileSystem {
    */
   private Path workingDir;
 
+  /**
+   * pool uploading the blocks of all output streams
+   */
+  private ExecutorService uploadPool;
+
+  /**
+   * pool prefetching the blocks of all input streams
+   */
+  private ExecutorService readPool;
+
   /**
    * class initialization
    *
@@ -71,12 +96,44 @@ public class SwiftBlockFileSystem extends FileSystem {
 
     if (store == null) {
       store = new SwiftBlockFileSystemStore();
-      store.initialize(uri, conf);
     }
     store.initialize(uri, conf);
     this.uri = URI.create(String.format("bswift://%s:%d", uri.getHost(), uri.getPort()));
     this.workingDir = new Path("/user", System.getProperty("user.name")).
             makeQualified(uri, new Path(System.getProperty("user.name")));
+    if (uploadPool == null) {
+      uploadPool = SwiftUtils.newDaemonThreadPool("swift-block-upload",
+              SwiftUtils.getIntOption(conf,
+                      SwiftProtocolConstants.SWIFT_OUTPUT_UPLOAD_THREADS,
+                      DEFAULT_UPLOAD_THREADS, 1));
+    }
+    if (readPool == null) {
+      readPool = SwiftUtils.newDaemonThreadPool("swift-block-read",
+              SwiftUtils.getIntOption(conf,
+                      SwiftProtocolConstants.SWIFT_READ_THREADS,
+                      DEFAULT_READ_THREADS, 1));
+    }
+  }
+
+  /**
+   * Close the filesystem and the connections to the object store
+   * @throws IOException on a failure in the superclass
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      if (uploadPool != null) {
+        uploadPool.shutdown();
+      }
+      if (readPool != null) {
+        readPool.shutdownNow();
+      }
+      if (store != null) {
+        store.close();
+      }
+    }
   }
 
   /**
@@ -144,9 +201,23 @@ public class SwiftBlockFileSystem extends FileSystem {
       return new FileStatus[]{getFileStatus(f.makeQualified(uri, workingDir), inode)
       };
     }
-    ArrayList<FileStatus> ret = new ArrayList<FileStatus>();
+    List<Path> children = new ArrayList<Path>();
     for (Path p : store.listSubPaths(absolutePath)) {
-      ret.add(getFileStatus(p.makeQualified(uri, workingDir)));
+      children.add(makeAbsolute(p.makeQualified(uri, workingDir)));
+    }
+    //fetch the INodes of all the children at once
+    Map<Path, INode> inodes = store.retrieveINodes(children, readPool);
+    ArrayList<FileStatus> ret = new ArrayList<FileStatus>();
+    for (Path child : children) {
+      INode childINode = inodes.get(child);
+      if (childINode == null) {
+        throw new FileNotFoundException(child + ": No such file or directory.");
+      }
+      try {
+        ret.add(getFileStatus(getCorrectSwiftPath(child), childINode));
+      } catch (URISyntaxException e) {
+        throw new IOException("path " + child + " is incorrect", e);
+      }
     }
     return ret.toArray(new FileStatus[ret.size()]);
   }
@@ -215,14 +286,15 @@ public class SwiftBlockFileSystem extends FileSystem {
     }
     return new FSDataOutputStream
             (new SwiftBlockOutputStream(getConf(), store, makeAbsolute(file),
-                    blockSize, bufferSize),
+                    blockSize, bufferSize, uploadPool),
                     statistics);
   }
 
   @Override
   public FSDataInputStream open(Path path, int bufferSize) throws IOException {
     INode inode = checkFile(path);
-    return new FSDataInputStream(new SwiftBlockInputStream(store, inode, statistics));
+    return new FSDataInputStream(new SwiftBlockInputStream(getConf(), store,
+            inode, statistics, readPool));
   }
 
   @Override
@@ -283,8 +355,11 @@ public class SwiftBlockFileSystem extends FileSystem {
     }
     if (inode.isFile()) {
       store.deleteINode(absolutePath);
-      for (Block block : inode.getBlocks()) {
-        store.deleteBlock(block);
+      //the data of an inline INode went with it
+      if (!(inode instanceof SwiftInlineINode)) {
+        for (Block block : inode.getBlocks()) {
+          store.deleteBlock(block);
+        }
       }
     } else {
       FileStatus[] contents = listStatus(absolutePath);
@@ -327,6 +402,15 @@ public class SwiftBlockFileSystem extends FileSystem {
     }
   }
 
+  /**
+   * Get the MD5 checksum of a file, as recorded when it was written.
+   * @return the checksum, or null if it is not known
+   */
+  @Override
+  public FileChecksum getFileChecksum(Path f) throws IOException {
+    return store.getFileChecksum(makeAbsolute(f));
+  }
+
   @Override
   public BlockLocation[] getFileBlockLocations(FileStatus file, long start, long len) throws IOException {
     final INode iNode = store.retrieveINode(file.getPath());
@@ -335,8 +419,10 @@ public class SwiftBlockFileSystem extends FileSystem {
     int idx = 0;
     long offset = 0l;
     for (Block block : iNode.getBlocks()) {
-      final List<URI> locations =
-              store.getObjectLocation(new Path(new SwiftObjectPath(uri.getHost(), String.valueOf(block.getId())).toString()));
+      //the data of an inline INode is in the INode object
+      final List<URI> locations = iNode instanceof SwiftInlineINode
+              ? store.getObjectLocation(makeAbsolute(file.getPath()))
+              : store.getObjectLocation(new Path(new SwiftObjectPath(uri.getHost(), String.valueOf(block.getId())).toString()));
       final String[] names = new String[locations.size()];
       final String[] hosts = new String[locations.size()];
       int i = 0;
@@ -18,20 +18,31 @@
 
 package org.apache.hadoop.fs.swift.block;
 
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.s3.Block;
 import org.apache.hadoop.fs.s3.FileSystemStore;
 import org.apache.hadoop.fs.s3.INode;
+import org.apache.hadoop.fs.swift.exceptions.SwiftChecksumMismatchException;
 import org.apache.hadoop.fs.swift.exceptions.SwiftException;
+import org.apache.hadoop.fs.swift.http.SwiftProtocolConstants;
 import org.apache.hadoop.fs.swift.http.SwiftRestClient;
+import org.apache.hadoop.fs.swift.snative.SwiftFileChecksum;
 import org.apache.hadoop.fs.swift.snative.SwiftNativeFileSystemStore;
+import org.apache.hadoop.fs.swift.util.LocalBufferDirAllocator;
 import org.apache.hadoop.fs.swift.util.SwiftObjectPath;
+import org.apache.hadoop.fs.swift.util.SwiftUtils;
 
 import java.io.*;
 import java.net.URI;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Block store for Swift. Implements Hadoop S3 FileSystemStore interface.
@@ -40,6 +51,8 @@ public class SwiftBlockFileSystemStore implements FileSystemStore {
   private static final String FILE_SYSTEM_VERSION_VALUE = "1";
   private static final int DEFAULT_BUFFER_SIZE = 67108864;    //64 mb
   private static final String BLOCK_PREFIX = "block_";
+  private static final int DEFAULT_INODE_CACHE_SIZE = 0;
+  private static final long DEFAULT_INODE_CACHE_TTL = 30 * 1000;
   public static final String IO_FILE_BUFFER_SIZE = "io.file.buffer.size";
 
   private Configuration conf;
@@ -48,11 +61,43 @@ public class SwiftBlockFileSystemStore implements FileSystemStore {
 
   private int bufferSize;
 
+  /**
+   * cache of blocks; null if caching is disabled
+   */
+  private SwiftBlockCache blockCache;
+
+  /**
+   * cache of INodes; null if caching is disabled
+   */
+  private SwiftINodeCache inodeCache;
+
+  /**
+   * generator of block IDs, from ranges claimed in this container
+   */
+  private final SwiftBlockIdGenerator blockIdGenerator =
+    new SwiftBlockIdGenerator(new SecureRandom(),
+      new SwiftBlockIdGenerator.RangeClaimer() {
+        @Override
+        public boolean claim(long firstId) throws IOException {
+          return claimBlockIdRange(firstId);
+        }
+      });
+
   public void initialize(URI uri, Configuration conf) throws IOException {
     this.conf = conf;
     this.uri = uri;
     this.swiftRestClient = SwiftRestClient.getInstance(uri, conf);
     this.bufferSize = conf.getInt(IO_FILE_BUFFER_SIZE, DEFAULT_BUFFER_SIZE);
+    this.blockCache = SwiftBlockCache.getInstance(conf);
+    int inodeCacheSize = SwiftUtils.getIntOption(conf,
+            SwiftProtocolConstants.SWIFT_BLOCK_INODE_CACHE_SIZE,
+            DEFAULT_INODE_CACHE_SIZE, 0);
+    if (inodeCacheSize > 0) {
+      this.inodeCache = new SwiftINodeCache(inodeCacheSize,
+              SwiftUtils.getLongOption(conf,
+                      SwiftProtocolConstants.SWIFT_BLOCK_INODE_CACHE_TTL,
+                      DEFAULT_INODE_CACHE_TTL, 0));
+    }
   }
 
   public String getVersion() throws IOException {
@@ -65,14 +110,24 @@ public class SwiftBlockFileSystemStore implements FileSystemStore {
   }
 
   public void deleteINode(Path path) throws IOException {
-    delete(pathToKey(path));
+    String key = pathToKey(path);
+    if (inodeCache != null) {
+      inodeCache.remove(key);
+    }
+    delete(key);
   }
 
   public void deleteBlock(Block block) throws IOException {
+    if (blockCache != null) {
+      blockCache.remove(cacheKey(block));
+    }
     delete(blockToKey(block));
   }
 
   public boolean inodeExists(Path path) throws IOException {
+    if (inodeCache != null && inodeCache.get(pathToKey(path)) != null) {
+      return true;
+    }
     InputStream in = get(pathToKey(path));
     if (in == null) {
       return false;
@@ -81,6 +136,30 @@ public class SwiftBlockFileSystemStore implements FileSystemStore {
     return true;
   }
 
+  /**
+   * Get the ID of a new block
+   * @return an ID no other writer uses
+   * @throws IOException on a failure to claim a range of IDs
+   */
+  public long newBlockId() throws IOException {
+    return blockIdGenerator.next();
+  }
+
+  /**
+   * Claim a range of block IDs by writing an empty block at its
+   * first ID, unless a block is there already
+   * @param firstId first ID of the range
+   * @return true if the range was claimed
+   * @throws IOException on a failure
+   */
+  private boolean claimBlockIdRange(long firstId) throws IOException {
+    if (blockExists(firstId)) {
+      return false;
+    }
+    put(blockToKey(firstId), new ByteArrayInputStream(new byte[0]), 0);
+    return true;
+  }
+
   public boolean blockExists(long blockId) throws IOException {
     InputStream in = get(blockToKey(blockId));
     if (in == null) {
@@ -131,7 +210,83 @@ public class SwiftBlockFileSystemStore implements FileSystemStore {
   }
 
   public INode retrieveINode(Path path) throws IOException {
-    return INode.deserialize(get(pathToKey(path)));
+    String key = pathToKey(path);
+    if (inodeCache != null) {
+      INode inode = inodeCache.get(key);
+      if (inode != null) {
+        return inode;
+      }
+    }
+    InputStream in = get(key);
+    INode inode;
+    try {
+      inode = SwiftInlineINode.deserialize(in);
+    } finally {
+      closeQuietly(in);
+    }
+    if (inode != null && inodeCache != null) {
+      inodeCache.put(key, inode);
+    }
+    return inode;
+  }
+
+  /**
+   * Retrieve the INodes of many paths, fetching those which are not
+   * cached in parallel
+   *
+   * @param paths absolute paths
+   * @param executor executor for the fetches; null to fetch them in turn
+   * @return the INodes by path; paths which do not exist are left out
+   * @throws IOException the first failure of a fetch
+   */
+  public Map<Path, INode> retrieveINodes(Collection<Path> paths,
+                                         ExecutorService executor)
+          throws IOException {
+    Map<Path, INode> inodes = new HashMap<Path, INode>();
+    if (executor == null || paths.size() <= 1) {
+      for (Path path : paths) {
+        INode inode = retrieveINode(path);
+        if (inode != null) {
+          inodes.put(path, inode);
+        }
+      }
+      return inodes;
+    }
+    Map<Path, Future<INode>> fetches = new HashMap<Path, Future<INode>>();
+    try {
+      for (final Path path : paths) {
+        INode inode = inodeCache == null ? null : inodeCache.get(pathToKey(path));
+        if (inode != null) {
+          inodes.put(path, inode);
+        } else {
+          fetches.put(path, executor.submit(new Callable<INode>() {
+            @Override
+            public INode call() throws IOException {
+              return retrieveINode(path);
+            }
+          }));
+        }
+      }
+      for (Map.Entry<Path, Future<INode>> fetch : fetches.entrySet()) {
+        INode inode = fetch.getValue().get();
+        if (inode != null) {
+          inodes.put(fetch.getKey(), inode);
+        }
+      }
+      return inodes;
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted fetching INodes");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new SwiftException("Failed to fetch an INode: " + cause, cause);
+    } finally {
+      for (Future<INode> fetch : fetches.values()) {
+        fetch.cancel(false);
+      }
+    }
   }
 
   public File retrieveBlock(Block block, long byteRangeStart)
@@ -140,7 +295,7 @@ public class SwiftBlockFileSystemStore implements FileSystemStore {
     InputStream in = null;
     OutputStream out = null;
     try {
-      fileBlock = newBackupFile();
+      fileBlock = newBackupFile(block.getLength() - byteRangeStart);
       in = get(blockToKey(block), byteRangeStart, block.getLength() - byteRangeStart);
       out = new BufferedOutputStream(new FileOutputStream(fileBlock));
       byte[] buf = new byte[bufferSize];
@@ -162,14 +317,72 @@ public class SwiftBlockFileSystemStore implements FileSystemStore {
     }
   }
 
-  private File newBackupFile() throws IOException {
-    File dir = new File(conf.get("hadoop.tmp.dir"));
-    if (!dir.exists() && !dir.mkdirs()) {
-      throw new IOException("Cannot create Swift buffer directory: " + dir);
+  /**
+   * Open a block for reading, streaming it from Swift. If blocks are
+   * cached, a cached block is read locally; a block read from its start
+   * is copied into the cache as it is streamed, while a block read from
+   * an offset is streamed from there, uncached.
+   *
+   * @param block block
+   * @param byteRangeStart offset into the block
+   * @return the stream of the data from the offset to the end of the block
+   * @throws IOException IO problems
+   */
+  public InputStream retrieveBlockStream(Block block, long byteRangeStart)
+          throws IOException {
+    if (blockCache == null) {
+      return get(blockToKey(block), byteRangeStart,
+                 block.getLength() - byteRangeStart);
+    }
+    String key = cacheKey(block);
+    InputStream in = blockCache.open(key);
+    if (in == null) {
+      in = get(blockToKey(block), byteRangeStart,
+               block.getLength() - byteRangeStart);
+      if (in == null || byteRangeStart > 0) {
+        return in;
+      }
+      try {
+        return new SwiftCachingBlockStream(in, blockCache, key,
+                newBackupFile(block.getLength()), block.getLength());
+      } catch (IOException e) {
+        closeQuietly(in);
+        throw e;
+      }
+    }
+    try {
+      long remaining = byteRangeStart;
+      while (remaining > 0) {
+        long skipped = in.skip(remaining);
+        if (skipped <= 0) {
+          throw new EOFException("Cached block " + block.getId()
+                                 + " is shorter than " + byteRangeStart);
+        }
+        remaining -= skipped;
+      }
+      return in;
+    } catch (IOException e) {
+      closeQuietly(in);
+      throw e;
     }
-    File result = File.createTempFile("input-", ".tmp", dir);
-    result.deleteOnExit();
-    return result;
+  }
+
+  /**
+   * @return true if blocks are cached, and so are best read
+   * with {@link #retrieveBlockStream(Block, long)}
+   */
+  public boolean isCaching() {
+    return blockCache != null;
+  }
+
+  private String cacheKey(Block block) {
+    return SwiftBlockCache.toKey(uri.getScheme() + "://" + uri.getAuthority(),
+                                 block.getId());
+  }
+
+  private File newBackupFile(long size) throws IOException {
+    return LocalBufferDirAllocator.getInstance(conf)
+      .createTempFile("input-", ".tmp", size);
   }
 
   public Set<Path> listSubPaths(Path path) throws IOException {
@@ -228,26 +441,99 @@ public class SwiftBlockFileSystemStore implements FileSystemStore {
     return paths;
   }
 
-  private void put(String key, InputStream in, long length)
+  private String put(String key, InputStream in, long length,
+                     Header... headers)
           throws IOException {
 
-    swiftRestClient.upload(SwiftObjectPath.fromPath(uri, keyToPath(key)), in, length);
+    return swiftRestClient.upload(SwiftObjectPath.fromPath(uri, keyToPath(key)),
+                                  in, length, headers);
   }
 
   public void storeINode(Path path, INode inode) throws IOException {
-    put(pathToKey(path), inode.serialize(), inode.getSerializedLength());
+    storeINode(path, inode, null);
+  }
+
+  /**
+   * Store the INode of a file, recording the MD5 checksum of the
+   * whole file in its metadata
+   * @param path path of the file
+   * @param inode INode
+   * @param md5 MD5 checksum of the file in hex; may be null
+   * @throws IOException on a problem
+   */
+  public void storeINode(Path path, INode inode, String md5)
+          throws IOException {
+    Header[] headers = md5 == null
+                       ? new Header[0]
+                       : new Header[] {
+                         new Header(SwiftProtocolConstants.X_OBJECT_META_MD5,
+                                    md5)
+                       };
+    String key = pathToKey(path);
+    if (inodeCache != null) {
+      //no stale entry survives a failed write
+      inodeCache.remove(key);
+    }
+    put(key, inode.serialize(), inode.getSerializedLength(), headers);
+    if (inodeCache != null) {
+      inodeCache.put(key, inode);
+    }
   }
 
   public void storeBlock(Block block, File file) throws IOException {
+    storeBlock(block, file, null);
+  }
+
+  /**
+   * Store a block, sending the MD5 checksum of its data as the
+   * ETag of the upload and verifying the ETag Swift returns
+   * @param block block
+   * @param file local file holding the data of the block
+   * @param md5 MD5 checksum of the data in hex; may be null
+   * @throws SwiftChecksumMismatchException if the data was corrupted
+   * @throws IOException on a problem
+   */
+  public void storeBlock(Block block, File file, String md5)
+          throws IOException {
+    Header[] headers = md5 == null
+                       ? new Header[0]
+                       : new Header[] {
+                         new Header(SwiftProtocolConstants.HEADER_ETAG, md5)
+                       };
     BufferedInputStream in = null;
     try {
       in = new BufferedInputStream(new FileInputStream(file));
-      put(blockToKey(block), in, block.getLength());
+      String etag = put(blockToKey(block), in, block.getLength(), headers);
+      SwiftUtils.verifyETag(blockToKey(block), etag, md5);
     } finally {
       closeQuietly(in);
     }
   }
 
+  /**
+   * Get the checksum of a file: the MD5 checksum recorded in the
+   * metadata of its INode when it was written
+   * @param path path of the file
+   * @return the checksum, or null if it is not known
+   * @throws IOException on a problem
+   * @throws FileNotFoundException if there is no such file
+   */
+  public SwiftFileChecksum getFileChecksum(Path path) throws IOException {
+    Header[] headers = swiftRestClient.headRequest(
+      SwiftObjectPath.fromPath(uri, keyToPath(pathToKey(path))),
+      SwiftRestClient.NEWEST);
+    if (headers.length == 0) {
+      throw new FileNotFoundException("Not Found " + path.toUri());
+    }
+    for (Header header : headers) {
+      if (header.getName().equalsIgnoreCase(
+            SwiftProtocolConstants.X_OBJECT_META_MD5)) {
+        return SwiftFileChecksum.fromHex(header.getValue());
+      }
+    }
+    return null;
+  }
+
   public List<URI> getObjectLocation(Path path) throws IOException {
     final byte[] objectLocation;
     try {
@@ -258,6 +544,16 @@ public class SwiftBlockFileSystemStore implements FileSystemStore {
     return SwiftNativeFileSystemStore.extractUris(new String(objectLocation));
   }
 
+  /**
+   * Close the store, releasing the pooled HTTP connections of the
+   * REST client.
+   */
+  public void close() {
+    if (swiftRestClient != null) {
+      swiftRestClient.close();
+    }
+  }
+
   private void closeQuietly(Closeable closeable) {
     if (closeable != null) {
       try {
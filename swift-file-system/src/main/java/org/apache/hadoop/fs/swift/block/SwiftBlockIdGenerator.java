@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.block;
+
+import org.apache.hadoop.fs.swift.exceptions.SwiftException;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+
+/**
+ * Generates the IDs of new blocks, asking the store only once per
+ * range of IDs, rather than once per block, whether they are in use.
+ *
+ * An ID is a 40-bit range prefix followed by a 24-bit sequence number.
+ * A generator draws a random prefix from a {@link SecureRandom} and
+ * claims its range through a {@link RangeClaimer}: the first ID of the
+ * range is checked for, then written as a marker, so no other writer
+ * claims the range afterwards. The rest of the range -over sixteen
+ * million blocks- is then handed out without any request. Should the
+ * prefix be taken, another is drawn.
+ *
+ * IDs are still longs, so blocks keep their
+ * <code>block_&lt;id&gt;</code> keys, and blocks written by older
+ * versions remain readable.
+ */
+public class SwiftBlockIdGenerator {
+
+  /**
+   * Number of low bits of an ID holding its sequence number in its range
+   */
+  static final int SEQUENCE_BITS = 24;
+
+  private static final long RANGE_SIZE = 1L << SEQUENCE_BITS;
+
+  /**
+   * Number of prefixes tried before giving up
+   */
+  private static final int CLAIM_ATTEMPTS = 10;
+
+  /**
+   * Claims a range of IDs for one generator
+   */
+  public interface RangeClaimer {
+
+    /**
+     * Claim a range, by writing a marker at its first ID unless
+     * there is something there already
+     * @param firstId the first ID of the range, which is never used
+     * for a block
+     * @return true if the range was claimed; false if it is in use
+     * @throws IOException on a failure
+     */
+    boolean claim(long firstId) throws IOException;
+  }
+
+  private final SecureRandom random;
+  private final RangeClaimer claimer;
+
+  /**
+   * first ID of the claimed range
+   */
+  private long rangeStart;
+
+  /**
+   * sequence number of the next ID in the range
+   */
+  private long sequence = RANGE_SIZE;
+
+  /**
+   * @param random source of the range prefixes
+   * @param claimer claimer of the ranges
+   */
+  public SwiftBlockIdGenerator(SecureRandom random, RangeClaimer claimer) {
+    this.random = random;
+    this.claimer = claimer;
+  }
+
+  /**
+   * Generate the next ID, claiming a new range first if the
+   * current one is used up
+   *
+   * @return a block ID
+   * @throws IOException if no range could be claimed
+   */
+  public synchronized long next() throws IOException {
+    if (sequence >= RANGE_SIZE) {
+      claimRange();
+    }
+    return rangeStart | sequence++;
+  }
+
+  private void claimRange() throws IOException {
+    for (int attempt = 0; attempt < CLAIM_ATTEMPTS; attempt++) {
+      long prefix = random.nextLong() >>> SEQUENCE_BITS;
+      if (prefix == 0) {
+        //the range of the synthetic block of inline INodes
+        continue;
+      }
+      long start = prefix << SEQUENCE_BITS;
+      if (claimer.claim(start)) {
+        rangeStart = start;
+        //the first ID is the marker of the claim
+        sequence = 1;
+        return;
+      }
+    }
+    throw new SwiftException("Failed to claim a range of block IDs after "
+                             + CLAIM_ATTEMPTS + " attempts");
+  }
+}
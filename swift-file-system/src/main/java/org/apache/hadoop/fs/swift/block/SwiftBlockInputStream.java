@@ -1,20 +1,49 @@
 package org.apache.hadoop.fs.swift.block;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.s3.Block;
 import org.apache.hadoop.fs.s3.FileSystemStore;
 import org.apache.hadoop.fs.s3.INode;
+import org.apache.hadoop.fs.swift.exceptions.SwiftException;
+import org.apache.hadoop.fs.swift.http.SwiftProtocolConstants;
+import org.apache.hadoop.fs.swift.util.SwiftUtils;
 
-import java.io.DataInputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Wrapper of InputStream for Block FS implementation
+ *
+ * Blocks are read straight from the response to their GET. Given an
+ * executor, the next block is opened in the background once the reader
+ * nears the end of the current one. Blocks can instead be spilled: each
+ * is downloaded to a local file, which is then read. The data of an
+ * inline INode is read from the INode itself.
  */
 public class SwiftBlockInputStream extends FSInputStream {
+  private static final Log LOG =
+    LogFactory.getLog(SwiftBlockInputStream.class);
+
+  /**
+   * Default number of bytes before the end of a block
+   * at which the next one is prefetched
+   */
+  private static final long DEFAULT_PREFETCH_THRESHOLD = 4 * 1024 * 1024;
+
   /**
    * FS store instance
    */
@@ -43,12 +72,12 @@ public class SwiftBlockInputStream extends FSInputStream {
   /**
    * current block
    */
-  private File blockFile;
+  private BlockData current;
 
   /**
-   * Wrapped stream blockFile
+   * index of the current block
    */
-  private DataInputStream blockStream;
+  private int currentBlock = -1;
 
   /**
    * block end marker
@@ -60,18 +89,70 @@ public class SwiftBlockInputStream extends FSInputStream {
    */
   private FileSystem.Statistics stats;
 
+  /**
+   * executor for prefetches; null to disable them
+   */
+  private final ExecutorService prefetchExecutor;
+
+  /**
+   * number of bytes before the end of a block at which
+   * the next one is prefetched
+   */
+  private final long prefetchThreshold;
+
+  /**
+   * flag to download blocks to local files before reading them
+   */
+  private final boolean spill;
+
+  /**
+   * data of a file stored in its INode; null if it has blocks
+   */
+  private final byte[] inlineData;
+
+  /**
+   * the prefetch of the block after the current one; null if none
+   */
+  private Future<BlockData> prefetch;
+
   /**
    * @param store instance
    * @param inode of file
    * @param stats Hadoop statistics
    */
-  public SwiftBlockInputStream(FileSystemStore store, INode inode, FileSystem.Statistics stats) {
+  public SwiftBlockInputStream(FileSystemStore store, INode inode, FileSystem.Statistics stats)
+          throws IOException {
+    this(new Configuration(), store, inode, stats, null);
+  }
+
+  /**
+   * @param conf             FS conf
+   * @param store            instance
+   * @param inode            of file
+   * @param stats            Hadoop statistics
+   * @param prefetchExecutor executor for prefetches of the next block;
+   *                         null to disable them
+   * @throws IOException on a bad configuration
+   */
+  public SwiftBlockInputStream(Configuration conf, FileSystemStore store, INode inode,
+                               FileSystem.Statistics stats,
+                               ExecutorService prefetchExecutor)
+          throws IOException {
     this.store = store;
     this.stats = stats;
     this.blocks = inode.getBlocks();
     for (Block block : blocks) {
       this.fileLength += block.getLength();
     }
+    this.inlineData = inode instanceof SwiftInlineINode
+                      ? ((SwiftInlineINode) inode).getData()
+                      : null;
+    this.prefetchExecutor = prefetchExecutor;
+    this.prefetchThreshold = SwiftUtils.getLongOption(conf,
+            SwiftProtocolConstants.SWIFT_BLOCK_PREFETCH_THRESHOLD,
+            DEFAULT_PREFETCH_THRESHOLD, 0);
+    this.spill = conf.getBoolean(SwiftProtocolConstants.SWIFT_BLOCK_READ_SPILL,
+            false);
   }
 
   @Override
@@ -108,9 +189,10 @@ public class SwiftBlockInputStream extends FSInputStream {
       if (pos > blockEnd) {
         blockSeekTo(pos);
       }
-      result = blockStream.read();
+      result = current.stream.read();
       if (result >= 0) {
         pos++;
+        maybePrefetch();
       }
     }
     if (stats != null && result >= 0) {
@@ -128,10 +210,11 @@ public class SwiftBlockInputStream extends FSInputStream {
       if (pos > blockEnd) {
         blockSeekTo(pos);
       }
-      int realLen = Math.min(len, (int) (blockEnd - pos + 1));
-      int result = blockStream.read(buf, off, realLen);
+      int realLen = (int) Math.min(len, blockEnd - pos + 1);
+      int result = current.stream.read(buf, off, realLen);
       if (result >= 0) {
         pos += result;
+        maybePrefetch();
       }
       if (stats != null && result > 0) {
         stats.incrementBytesRead(result);
@@ -170,25 +253,148 @@ public class SwiftBlockInputStream extends FSInputStream {
     }
     long offsetIntoBlock = target - targetBlockStart;
 
-    this.blockFile = store.retrieveBlock(blocks[targetBlock], offsetIntoBlock);
+    closeCurrent();
+    if (prefetch != null && targetBlock == currentBlock + 1
+        && offsetIntoBlock == 0) {
+      this.current = prefetchResult();
+    } else {
+      discardPrefetch();
+      this.current = openBlock(blocks[targetBlock], offsetIntoBlock);
+    }
 
+    this.currentBlock = targetBlock;
     this.pos = target;
     this.blockEnd = targetBlockEnd;
-    this.blockStream = new DataInputStream(new FileInputStream(blockFile));
+    maybePrefetch();
   }
 
-  @Override
-  public void close() throws IOException {
-    if (closed) {
+  /**
+   * Open a block at an offset, either streaming it or, if spilling,
+   * downloading it to a local file first
+   *
+   * @param block block
+   * @param offset offset into the block
+   * @return the opened block
+   * @throws IOException
+   */
+  private BlockData openBlock(Block block, long offset) throws IOException {
+    if (inlineData != null) {
+      return new BlockData(new ByteArrayInputStream(inlineData, (int) offset,
+              inlineData.length - (int) offset), null);
+    }
+    if (store instanceof SwiftBlockFileSystemStore
+        && (!spill || ((SwiftBlockFileSystemStore) store).isCaching())) {
+      return new BlockData(
+              ((SwiftBlockFileSystemStore) store).retrieveBlockStream(block, offset),
+              null);
+    }
+    File file = store.retrieveBlock(block, offset);
+    try {
+      return new BlockData(new BufferedInputStream(new FileInputStream(file)),
+              file);
+    } catch (IOException e) {
+      file.delete();
+      throw e;
+    }
+  }
+
+  /**
+   * Start prefetching the next block if the reader is near
+   * the end of the current one and it is not already prefetched
+   */
+  private void maybePrefetch() {
+    if (prefetchExecutor == null || prefetch != null
+        || currentBlock + 1 >= blocks.length
+        || blockEnd - pos >= prefetchThreshold) {
       return;
     }
-    if (blockStream != null) {
-      blockStream.close();
-      blockStream = null;
+    final Block next = blocks[currentBlock + 1];
+    try {
+      prefetch = prefetchExecutor.submit(new Callable<BlockData>() {
+        @Override
+        public BlockData call() throws IOException {
+          return openBlock(next, 0);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      //the filesystem is closing; the block will be opened when needed
+      LOG.debug("Prefetch of next block rejected");
     }
-    if (blockFile != null) {
-      blockFile.delete();
+  }
+
+  /**
+   * Wait for the prefetched block
+   *
+   * @return the block
+   * @throws IOException if the prefetch failed
+   */
+  private BlockData prefetchResult() throws IOException {
+    Future<BlockData> future = prefetch;
+    prefetch = null;
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      discard(future);
+      throw new InterruptedIOException("Interrupted waiting for a block");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new SwiftException("Prefetch of a block failed: " + cause, cause);
     }
+  }
+
+  /**
+   * Discard any prefetch, closing its block once it is open
+   */
+  private void discardPrefetch() {
+    if (prefetch != null) {
+      discard(prefetch);
+      prefetch = null;
+    }
+  }
+
+  private void discard(final Future<BlockData> future) {
+    if (future.cancel(false)) {
+      return;
+    }
+    //running or finished: release the block without waiting for it
+    Runnable release = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          future.get().close();
+        } catch (Exception e) {
+          LOG.debug("Discarded prefetch failed: " + e);
+        }
+      }
+    };
+    if (future.isDone()) {
+      release.run();
+    } else {
+      try {
+        prefetchExecutor.execute(release);
+      } catch (RejectedExecutionException e) {
+        LOG.debug("Could not release discarded prefetch");
+      }
+    }
+  }
+
+  private void closeCurrent() {
+    if (current != null) {
+      current.close();
+      current = null;
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closeCurrent();
+    discardPrefetch();
     super.close();
     closed = true;
   }
@@ -210,4 +416,28 @@ public class SwiftBlockInputStream extends FSInputStream {
   public void reset() throws IOException {
     throw new IOException("Mark not supported");
   }
-}
\ No newline at end of file
+
+  /**
+   * An open block: its stream and, if spilled, its local file
+   */
+  private static class BlockData {
+    private final InputStream stream;
+    private final File file;
+
+    BlockData(InputStream stream, File file) {
+      this.stream = stream;
+      this.file = file;
+    }
+
+    void close() {
+      try {
+        stream.close();
+      } catch (IOException e) {
+        LOG.debug("Failed to close block stream: " + e);
+      }
+      if (file != null) {
+        file.delete();
+      }
+    }
+  }
+}
@@ -18,24 +18,64 @@
 
 package org.apache.hadoop.fs.swift.block;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.s3.Block;
 import org.apache.hadoop.fs.s3.FileSystemStore;
 import org.apache.hadoop.fs.s3.INode;
+import org.apache.hadoop.fs.swift.exceptions.SwiftException;
+import org.apache.hadoop.fs.swift.http.SwiftProtocolConstants;
+import org.apache.hadoop.fs.swift.util.LocalBufferDirAllocator;
+import org.apache.hadoop.fs.swift.util.SwiftUtils;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 /**
  * Wraps OutputStream for streaming data into Swift
+ *
+ * Given an executor, full blocks are uploaded in the background while
+ * the next one is written, with a bounded number of them queued or in
+ * flight at once. The INode of the file is written on close, once every
+ * block has been uploaded, and optionally also every few blocks, so that
+ * a file still being written can be read up to its last checkpoint.
+ *
+ * A file no larger than the inline threshold is stored as a single
+ * {@link SwiftInlineINode} holding its data.
  */
 public class SwiftBlockOutputStream extends OutputStream {
+  private static final Log LOG =
+    LogFactory.getLog(SwiftBlockOutputStream.class);
+
+  /**
+   * Default number of blocks of a stream queued or in flight
+   */
+  private static final int DEFAULT_ACTIVE_UPLOADS = 4;
+
+  /**
+   * random for generating block IDs in stores other than Swift
+   */
+  private static final Random RANDOM = new Random();
+
   /**
    * Hadoop configuration
    */
@@ -72,9 +112,14 @@ public class SwiftBlockOutputStream extends OutputStream {
   private OutputStream backupStream;
 
   /**
-   * random for generating next id for block
+   * MD5 checksum of the data of the current block
+   */
+  private MessageDigest blockMD5;
+
+  /**
+   * MD5 checksum of all the data of the file
    */
-  private Random r = new Random();
+  private final MessageDigest fileMD5 = SwiftUtils.newMD5();
 
   /**
    * flag if stream closed
@@ -111,6 +156,32 @@ public class SwiftBlockOutputStream extends OutputStream {
    */
   private Block nextBlock;
 
+  /**
+   * executor for block uploads; null to upload in the writing thread
+   */
+  private final ExecutorService uploadExecutor;
+
+  /**
+   * permits for the blocks queued or being uploaded
+   */
+  private final Semaphore uploadPermits;
+
+  /**
+   * uploads which have not been checked for completion
+   */
+  private final List<Future<?>> uploads = new ArrayList<Future<?>>();
+
+  /**
+   * number of blocks between the INodes written while the file is
+   * being written; 0 to write the INode only on close
+   */
+  private final int checkpointInterval;
+
+  /**
+   * size up to which the data of the file is stored in its INode
+   */
+  private final long inlineThreshold;
+
   /**
    * @param conf       FS conf
    * @param store      FS store
@@ -121,12 +192,36 @@ public class SwiftBlockOutputStream extends OutputStream {
    */
   public SwiftBlockOutputStream(Configuration conf, FileSystemStore store, Path path, long blockSize,
                                 int buffersize) throws IOException {
+    this(conf, store, path, blockSize, buffersize, null);
+  }
+
+  /**
+   * @param conf           FS conf
+   * @param store          FS store
+   * @param path           file path
+   * @param blockSize      size of block
+   * @param buffersize     size of buffer
+   * @param uploadExecutor executor for block uploads; null to upload
+   *                       each block in the writing thread
+   * @throws IOException
+   */
+  public SwiftBlockOutputStream(Configuration conf, FileSystemStore store, Path path, long blockSize,
+                                int buffersize, ExecutorService uploadExecutor)
+          throws IOException {
+    this.uploadExecutor = uploadExecutor;
+    this.uploadPermits = new Semaphore(SwiftUtils.getIntOption(conf,
+            SwiftProtocolConstants.SWIFT_OUTPUT_UPLOAD_ACTIVE_BLOCKS,
+            DEFAULT_ACTIVE_UPLOADS, 1));
+    this.checkpointInterval = SwiftUtils.getIntOption(conf,
+            SwiftProtocolConstants.SWIFT_BLOCK_CHECKPOINT_INTERVAL, 0, 0);
+    this.inlineThreshold = SwiftUtils.getLongOption(conf,
+            SwiftProtocolConstants.SWIFT_BLOCK_INLINE_THRESHOLD, 0, 0);
     this.conf = conf;
     this.store = store;
     this.path = path;
     this.blockSize = blockSize;
     this.backupFile = newBackupFile();
-    this.backupStream = new FileOutputStream(backupFile);
+    this.backupStream = newBackupStream();
     this.bufferSize = buffersize;
     this.outBuf = new byte[bufferSize];
   }
@@ -139,13 +234,20 @@ public class SwiftBlockOutputStream extends OutputStream {
    * @throws IOException
    */
   private File newBackupFile() throws IOException {
-    File dir = new File(conf.get("hadoop.tmp.dir"));
-    if (!dir.exists() && !dir.mkdirs()) {
-      throw new IOException("Cannot create Swift buffer directory: " + dir);
-    }
-    File result = File.createTempFile("output-", ".tmp", dir);
-    result.deleteOnExit();
-    return result;
+    return LocalBufferDirAllocator.getInstance(conf)
+      .createTempFile("output-", ".tmp", blockSize);
+  }
+
+  /**
+   * Open the stream to the backup file, computing the MD5 checksum
+   * of the block as it is written
+   *
+   * @return the stream
+   * @throws IOException
+   */
+  private OutputStream newBackupStream() throws IOException {
+    blockMD5 = SwiftUtils.newMD5();
+    return new DigestOutputStream(new FileOutputStream(backupFile), blockMD5);
   }
 
   public long getPos() throws IOException {
@@ -163,6 +265,7 @@ public class SwiftBlockOutputStream extends OutputStream {
     }
     outBuf[pos++] = (byte) b;
     filePos++;
+    fileMD5.update((byte) b);
   }
 
   @Override
@@ -170,6 +273,7 @@ public class SwiftBlockOutputStream extends OutputStream {
     if (closed) {
       throw new IOException("Stream closed");
     }
+    fileMD5.update(b, off, len);
     while (len > 0) {
       int remaining = bufferSize - pos;
       int toWrite = Math.min(remaining, len);
@@ -225,7 +329,7 @@ public class SwiftBlockOutputStream extends OutputStream {
   }
 
   /**
-   * Stores block in Swift
+   * Stores block in Swift, in the background if there is an executor
    *
    * @throws IOException
    */
@@ -236,31 +340,178 @@ public class SwiftBlockOutputStream extends OutputStream {
     backupStream.close();
 
     //
-    // Send it to Swift
+    // Send it to Swift; the upload deletes the local backup
     nextBlockOutputStream();
-    store.storeBlock(nextBlock, backupFile);
-    internalClose();
+    uploadBlock(nextBlock, backupFile, SwiftUtils.toHex(blockMD5.digest()));
+    if (checkpointInterval > 0 && blocks.size() % checkpointInterval == 0) {
+      //the INode may only name blocks which have been stored
+      waitForUploads();
+      internalClose(null);
+    }
 
     //
-    // Delete local backup, start new one
+    // Start a new local backup
     //
-    backupFile.delete();
     backupFile = newBackupFile();
-    backupStream = new FileOutputStream(backupFile);
+    backupStream = newBackupStream();
     bytesWrittenToBlock = 0;
   }
 
+  /**
+   * Upload a block, then delete its local backup. Before it is queued,
+   * any upload which has already failed is reported, and the caller
+   * waits while the maximum number of uploads are active.
+   *
+   * @param block block
+   * @param file local backup of the block
+   * @param md5 MD5 checksum of the data in hex
+   * @throws IOException on a failure of this or an earlier upload
+   */
+  private void uploadBlock(final Block block, final File file,
+                           final String md5) throws IOException {
+    checkUploads();
+    try {
+      uploadPermits.acquire();
+    } catch (InterruptedException e) {
+      file.delete();
+      throw new InterruptedIOException("Interrupted waiting to upload"
+                                       + " a block of " + path);
+    }
+    Callable<Void> upload = new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        try {
+          storeBlock(block, file, md5);
+          return null;
+        } finally {
+          file.delete();
+          uploadPermits.release();
+        }
+      }
+    };
+    if (uploadExecutor != null) {
+      try {
+        uploads.add(uploadExecutor.submit(upload));
+        return;
+      } catch (RejectedExecutionException e) {
+        //the pool has been shut down; upload in this thread
+        LOG.debug("Upload executor rejected block; uploading inline");
+      }
+    }
+    try {
+      upload.call();
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new SwiftException("Upload of a block of " + path + " failed: "
+                               + e, e);
+    }
+  }
+
+  /**
+   * Stores a file as a block; a Swift store is also given its
+   * checksum, to send and verify as the ETag of the upload
+   *
+   * @param block block
+   * @param file local backup of the block
+   * @param md5 MD5 checksum of the data in hex
+   * @throws IOException
+   */
+  private void storeBlock(Block block, File file, String md5)
+          throws IOException {
+    if (store instanceof SwiftBlockFileSystemStore) {
+      ((SwiftBlockFileSystemStore) store).storeBlock(block, file, md5);
+    } else {
+      store.storeBlock(block, file);
+    }
+  }
+
+  /**
+   * Report the first failure of any finished upload, and forget
+   * the uploads which succeeded
+   *
+   * @throws IOException the failure of an upload
+   */
+  private void checkUploads() throws IOException {
+    for (Iterator<Future<?>> it = uploads.iterator(); it.hasNext(); ) {
+      Future<?> upload = it.next();
+      if (upload.isDone()) {
+        it.remove();
+        result(upload);
+      }
+    }
+  }
+
+  /**
+   * Wait for all uploads to finish
+   *
+   * @throws IOException the first upload failure, raised once
+   *                     every upload has finished
+   */
+  private void waitForUploads() throws IOException {
+    IOException failure = null;
+    while (!uploads.isEmpty()) {
+      try {
+        result(uploads.remove(0));
+      } catch (InterruptedIOException e) {
+        throw e;
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Wait for the result of an upload
+   *
+   * @param upload upload
+   * @throws IOException if the upload failed
+   */
+  private void result(Future<?> upload) throws IOException {
+    try {
+      upload.get();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted waiting for the"
+                                       + " upload of a block of " + path);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new SwiftException("Upload of a block of " + path
+                               + " failed: " + cause, cause);
+    }
+  }
+
+  /**
+   * Get the ID of a new block: from the ranges claimed by a Swift
+   * store, or else a random one which the store does not hold yet
+   * @return the block ID
+   * @throws IOException on a failure
+   */
+  private long newBlockId() throws IOException {
+    if (store instanceof SwiftBlockFileSystemStore) {
+      return ((SwiftBlockFileSystemStore) store).newBlockId();
+    }
+    long blockId = RANDOM.nextLong();
+    while (blockId == 0 || store.blockExists(blockId)) {
+      blockId = RANDOM.nextLong();
+    }
+    return blockId;
+  }
+
   /**
    * Creates next block for output stream
    *
    * @throws IOException
    */
   private synchronized void nextBlockOutputStream() throws IOException {
-    long blockId = r.nextLong();
-    while (store.blockExists(blockId)) {
-      blockId = r.nextLong();
-    }
-    nextBlock = new Block(blockId, bytesWrittenToBlock);
+    nextBlock = new Block(newBlockId(), bytesWrittenToBlock);
     blocks.add(nextBlock);
     bytesWrittenToBlock = 0;
   }
@@ -268,11 +519,37 @@ public class SwiftBlockOutputStream extends OutputStream {
   /**
    * Close and save all information carefully on internal close
    *
+   * @param md5 MD5 checksum of the whole file in hex, once it is complete;
+   *            null while it is still being written
    * @throws IOException
    */
-  private synchronized void internalClose() throws IOException {
+  private synchronized void internalClose(String md5) throws IOException {
     INode inode = new INode(INode.FILE_TYPES[1], blocks.toArray(new Block[blocks.size()]));
-    store.storeINode(path, inode);
+    if (md5 != null && store instanceof SwiftBlockFileSystemStore) {
+      ((SwiftBlockFileSystemStore) store).storeINode(path, inode, md5);
+    } else {
+      store.storeINode(path, inode);
+    }
+  }
+
+  /**
+   * Store the whole file, which is all in the backup file, as an
+   * inline INode
+   *
+   * @param md5 MD5 checksum of the file in hex
+   * @throws IOException
+   */
+  private void storeInline(String md5) throws IOException {
+    backupStream.close();
+    byte[] data = new byte[(int) filePos];
+    DataInputStream in = new DataInputStream(new FileInputStream(backupFile));
+    try {
+      in.readFully(data);
+    } finally {
+      in.close();
+    }
+    ((SwiftBlockFileSystemStore) store).storeINode(path,
+            new SwiftInlineINode(data), md5);
   }
 
   @Override
@@ -281,16 +558,37 @@ public class SwiftBlockOutputStream extends OutputStream {
       return;
     }
 
-    flush();
-    if (filePos == 0 || bytesWrittenToBlock != 0) {
-      endBlock();
-    }
-
-    backupStream.close();
-    backupFile.delete();
+    try {
+      flush();
+      //the final INode records the checksum of the complete file
+      //an inline INode only with inlining enabled: older clients cannot read one
+      if (inlineThreshold > 0 && blocks.isEmpty()
+          && filePos <= inlineThreshold
+          && store instanceof SwiftBlockFileSystemStore) {
+        storeInline(SwiftUtils.toHex(fileMD5.digest()));
+      } else {
+        if (filePos == 0 || bytesWrittenToBlock != 0) {
+          endBlock();
+        }
+        waitForUploads();
+        internalClose(SwiftUtils.toHex(fileMD5.digest()));
+      }
+    } finally {
+      backupStream.close();
+      backupFile.delete();
+      //let any uploads left after a failure finish, ignoring them
+      for (Future<?> upload : uploads) {
+        try {
+          result(upload);
+        } catch (IOException e) {
+          LOG.debug("Ignoring upload failure after an earlier one: " + e);
+        }
+      }
+      uploads.clear();
 
-    super.close();
+      super.close();
 
-    closed = true;
+      closed = true;
+    }
   }
 }
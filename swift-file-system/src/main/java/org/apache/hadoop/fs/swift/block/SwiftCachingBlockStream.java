@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.block;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stream of a block being downloaded, which copies the data it serves
+ * to a local file and, once the whole block has been read, adds that
+ * to the block cache. The reader gets its first bytes as soon as Swift
+ * sends them, rather than once the block is cached.
+ *
+ * A stream closed before the end of the block, or whose copy fails,
+ * caches nothing.
+ */
+class SwiftCachingBlockStream extends FilterInputStream {
+  private static final Log LOG =
+    LogFactory.getLog(SwiftCachingBlockStream.class);
+
+  private final SwiftBlockCache cache;
+  private final String key;
+  private final File file;
+  private final long length;
+
+  /**
+   * copy of the data; null once the copy is complete or abandoned
+   */
+  private OutputStream copy;
+  private long copied;
+
+  /**
+   * Create a stream
+   * @param in stream of the block from its start
+   * @param cache cache to add the block to
+   * @param key key of the block
+   * @param file local file to copy the data to; deleted when done with
+   * @param length length of the block
+   * @throws IOException if the file cannot be opened
+   */
+  SwiftCachingBlockStream(InputStream in, SwiftBlockCache cache, String key,
+                          File file, long length) throws IOException {
+    super(in);
+    this.cache = cache;
+    this.key = key;
+    this.file = file;
+    this.length = length;
+    try {
+      this.copy = new FileOutputStream(file);
+    } catch (IOException e) {
+      file.delete();
+      throw e;
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b < 0) {
+      finishCopy();
+    } else if (copy != null) {
+      try {
+        copy.write(b);
+        copied++;
+        if (copied == length) {
+          finishCopy();
+        }
+      } catch (IOException e) {
+        abandonCopy(e);
+      }
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = super.read(b, off, len);
+    if (read < 0) {
+      finishCopy();
+    } else if (copy != null) {
+      try {
+        copy.write(b, off, read);
+        copied += read;
+        if (copied == length) {
+          finishCopy();
+        }
+      } catch (IOException e) {
+        abandonCopy(e);
+      }
+    }
+    return read;
+  }
+
+  /**
+   * Skip by reading, so that the skipped data is copied too
+   */
+  @Override
+  public long skip(long n) throws IOException {
+    if (copy == null) {
+      return super.skip(n);
+    }
+    byte[] buf = new byte[(int) Math.min(n, 8192)];
+    long skipped = 0;
+    while (skipped < n) {
+      int read = read(buf, 0, (int) Math.min(buf.length, n - skipped));
+      if (read < 0) {
+        break;
+      }
+      skipped += read;
+    }
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      if (copy != null) {
+        IOUtils.closeQuietly(copy);
+        copy = null;
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * At the end of the block: cache the copy if it is complete
+   */
+  private void finishCopy() {
+    if (copy == null) {
+      return;
+    }
+    try {
+      copy.close();
+      copy = null;
+      if (copied == length) {
+        cache.put(key, file);
+      } else if (LOG.isDebugEnabled()) {
+        LOG.debug("Not caching " + key + ": read " + copied
+                  + " bytes of " + length);
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to cache " + key + ": " + e, e);
+    } finally {
+      IOUtils.closeQuietly(copy);
+      copy = null;
+      file.delete();
+    }
+  }
+
+  private void abandonCopy(IOException e) {
+    LOG.warn("Failed to copy " + key + " for the cache: " + e, e);
+    IOUtils.closeQuietly(copy);
+    copy = null;
+    file.delete();
+  }
+}
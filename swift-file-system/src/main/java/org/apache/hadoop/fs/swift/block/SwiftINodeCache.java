@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.block;
+
+import org.apache.hadoop.fs.s3.INode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The INodes a block store has recently read or written, so that
+ * repeated status checks and opens of a file need no GETs.
+ *
+ * The cache is bounded, dropping the least recently used INodes, and
+ * entries expire after a time to live, after which the INode is read
+ * again. Writes and deletes through the store replace or remove its
+ * entry; changes made by other clients are only seen once it expires.
+ */
+class SwiftINodeCache {
+
+  private final Map<String, Entry> inodes;
+  private final long timeToLive;
+
+  /**
+   * Create the cache
+   * @param capacity maximum number of INodes to keep
+   * @param timeToLive time in milliseconds for which an INode is used
+   */
+  SwiftINodeCache(final int capacity, long timeToLive) {
+    this.timeToLive = timeToLive;
+    inodes = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * @param key key of the INode
+   * @return the INode, or null if it is not cached or has expired
+   */
+  synchronized INode get(String key) {
+    Entry entry = inodes.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (System.currentTimeMillis() - entry.time > timeToLive) {
+      inodes.remove(key);
+      return null;
+    }
+    return entry.inode;
+  }
+
+  /**
+   * Add or replace an INode
+   * @param key key of the INode
+   * @param inode INode
+   */
+  synchronized void put(String key, INode inode) {
+    inodes.put(key, new Entry(inode, System.currentTimeMillis()));
+  }
+
+  /**
+   * Remove an INode if it is present
+   * @param key key of the INode
+   */
+  synchronized void remove(String key) {
+    inodes.remove(key);
+  }
+
+  /**
+   * @return the number of INodes cached, including expired ones
+   */
+  synchronized int size() {
+    return inodes.size();
+  }
+
+  private static final class Entry {
+    private final INode inode;
+    private final long time;
+
+    private Entry(INode inode, long time) {
+      this.inode = inode;
+      this.time = time;
+    }
+  }
+}
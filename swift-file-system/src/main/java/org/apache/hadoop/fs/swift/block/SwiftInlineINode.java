@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.block;
+
+import org.apache.hadoop.fs.s3.Block;
+import org.apache.hadoop.fs.s3.INode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * The INode of a small file which holds the data of the file itself,
+ * so that the file is a single object rather than an INode and a block.
+ *
+ * An inline INode is serialized as a type byte which follows those of
+ * the directory and file types of {@link INode}, a format version, the
+ * length of the data and the data. {@link #deserialize(InputStream)}
+ * reads both these and the INodes of {@link INode}; older versions of
+ * the filesystem cannot read inline INodes.
+ *
+ * To the rest of the filesystem an inline INode is a file of one block,
+ * which must never be fetched or deleted.
+ */
+public class SwiftInlineINode extends INode {
+
+  /**
+   * Type byte of an inline INode
+   */
+  static final int INLINE_FILE_TYPE = 2;
+
+  /**
+   * Version of the inline format
+   */
+  static final int FORMAT_VERSION = 1;
+
+  /**
+   * ID of the block standing for the inline data
+   */
+  private static final long INLINE_BLOCK_ID = 0;
+
+  private final byte[] data;
+
+  /**
+   * @param data the data of the file
+   */
+  public SwiftInlineINode(byte[] data) {
+    super(FileType.FILE, new Block[] {new Block(INLINE_BLOCK_ID, data.length)});
+    this.data = data;
+  }
+
+  /**
+   * @return the data of the file; not to be modified
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  @Override
+  public long getSerializedLength() {
+    return 1 + 1 + 4 + data.length;
+  }
+
+  @Override
+  public InputStream serialize() throws IOException {
+    ByteArrayOutputStream bytes =
+      new ByteArrayOutputStream((int) getSerializedLength());
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(INLINE_FILE_TYPE);
+    out.writeByte(FORMAT_VERSION);
+    out.writeInt(data.length);
+    out.write(data);
+    out.close();
+    return new ByteArrayInputStream(bytes.toByteArray());
+  }
+
+  /**
+   * Read an INode, inline or not
+   *
+   * @param in stream of the serialized INode; may be null
+   * @return the INode, or null if the stream is null
+   * @throws IOException on a failure to read it, or an unknown format
+   */
+  public static INode deserialize(InputStream in) throws IOException {
+    if (in == null) {
+      return null;
+    }
+    PushbackInputStream pushback = new PushbackInputStream(in);
+    int type = pushback.read();
+    if (type != INLINE_FILE_TYPE) {
+      if (type >= 0) {
+        pushback.unread(type);
+      }
+      return INode.deserialize(pushback);
+    }
+    DataInputStream dataIn = new DataInputStream(pushback);
+    int version = dataIn.readUnsignedByte();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported inline INode format version "
+                            + version);
+    }
+    byte[] data = new byte[dataIn.readInt()];
+    dataIn.readFully(data);
+    return new SwiftInlineINode(data);
+  }
+}
@@ -18,6 +18,7 @@
 
 package org.apache.hadoop.fs.swift.http;
 
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,6 +38,12 @@ import java.net.URI;
  * The thread safety logic here is to ensure that even if somebody ignores
  * that rule, the release code does not get entered twice -and that
  * any release in one thread is picked up by read operations in all others.
+ *
+ * Closing the stream before the end of the response has a choice of cost:
+ * reading and discarding the rest of the response, so that the connection
+ * can go back to the pool, or aborting the connection, leaving the next
+ * request to open a new one. The rest is drained only if no more than
+ * the drain threshold of bytes remain.
  */
 public class HttpInputStreamWithRelease extends InputStream {
 
@@ -51,13 +58,58 @@ public class HttpInputStreamWithRelease extends InputStream {
   private volatile boolean dataConsumed;
   private InputStream inStream;
 
+  /**
+   * Size of the buffer used to drain the stream
+   */
+  private static final int DRAIN_BUFFER_SIZE = 8192;
+
+  /**
+   * Maximum number of bytes to drain on close
+   */
+  private final long drainThreshold;
+
+  /**
+   * Connection manager to report closes to; may be null
+   */
+  private final SwiftConnectionManager connectionManager;
+
+  /**
+   * Length of the response body; -1 if unknown
+   */
+  private final long contentLength;
+
+  /**
+   * Number of bytes read so far
+   */
+  private long bytesRead;
+
   public HttpInputStreamWithRelease(URI uri, HttpMethod method) throws
                                                                 IOException {
+    this(uri, method, 0, null);
+  }
+
+  /**
+   * Create the stream
+   * @param uri URI of the request
+   * @param method the executed method
+   * @param drainThreshold maximum number of unread bytes to drain on close
+   * @param connectionManager connection manager to report closes to;
+   * may be null
+   * @throws IOException if the response body cannot be read
+   */
+  public HttpInputStreamWithRelease(URI uri,
+                                    HttpMethod method,
+                                    long drainThreshold,
+                                    SwiftConnectionManager connectionManager)
+    throws IOException {
     this.uri = uri;
     this.method = method;
+    this.drainThreshold = drainThreshold;
+    this.connectionManager = connectionManager;
     if (method == null) {
       throw new NullPointerException("Null 'method' parameter ");
     }
+    contentLength = getContentLength(method);
     try {
       inStream = method.getResponseBodyAsStream();
     } catch (IOException e) {
@@ -68,9 +120,68 @@ public class HttpInputStreamWithRelease extends InputStream {
 
   @Override
   public void close() throws IOException {
+    if (!released && !dataConsumed) {
+      drainIfCheap();
+    }
     release("close()", null);
   }
 
+  /**
+   * Get the length of the response body from its header
+   * @param method method
+   * @return the length, or -1 if it is unknown
+   */
+  private static long getContentLength(HttpMethod method) {
+    Header header =
+      method.getResponseHeader(SwiftProtocolConstants.HEADER_CONTENT_LENGTH);
+    if (header == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(header.getValue().trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * If no more than the drain threshold of bytes remain, read them,
+   * marking the data as consumed so that the release keeps the
+   * connection. Otherwise leave the release to abort the connection.
+   */
+  private synchronized void drainIfCheap() {
+    long remaining = contentLength < 0 ? -1 : contentLength - bytesRead;
+    if (remaining < 0 || remaining > drainThreshold) {
+      if (connectionManager != null) {
+        connectionManager.streamAborted(remaining);
+      }
+      return;
+    }
+    long drained = 0;
+    try {
+      byte[] buffer = new byte[(int) Math.min(DRAIN_BUFFER_SIZE,
+                                              Math.max(1, remaining))];
+      //read one byte past the expected end, to reach the end of the stream
+      while (drained <= remaining) {
+        int read = inStream.read(buffer);
+        if (read < 0) {
+          dataConsumed = true;
+          break;
+        }
+        drained += read;
+      }
+    } catch (IOException e) {
+      LOG.debug("Failed to drain " + uri, e);
+    }
+    if (connectionManager != null) {
+      if (dataConsumed) {
+        connectionManager.streamDrained(drained);
+      } else {
+        connectionManager.streamAborted(remaining - drained);
+      }
+    }
+  }
+
   /**
    * Release logic
    * @param reason reason for release (used in debug messages)
@@ -159,6 +270,9 @@ public class HttpInputStreamWithRelease extends InputStream {
     } catch (IOException e) {
       throw releaseAndRethrow("read()", e);
     }
+    if (read >= 0) {
+      bytesRead++;
+    }
     if (read < 0) {
       dataConsumed = true;
       release("read() -all data consumed", null);
@@ -175,6 +289,9 @@ public class HttpInputStreamWithRelease extends InputStream {
     } catch (IOException e) {
       throw releaseAndRethrow("read(b, off, " + len + ")", e);
     }
+    if (read > 0) {
+      bytesRead += read;
+    }
     if (read < 0) {
       dataConsumed = true;
       release("read() -all data consumed", null);
@@ -152,6 +152,14 @@ public final class RestClientBindings {
     copy(conf, prefix + DOT_HTTP_PORT, props, SWIFT_HTTP_PORT_PROPERTY, false);
     copy(conf, prefix +
                DOT_HTTPS_PORT, props, SWIFT_HTTPS_PORT_PROPERTY, false);
+    copy(conf, prefix + DOT_PROXY_HOST, props, SWIFT_PROXY_HOST_PROPERTY, false);
+    copy(conf, prefix + DOT_PROXY_PORT, props, SWIFT_PROXY_PORT_PROPERTY, false);
+    copy(conf, prefix + DOT_MAX_CONNECTIONS_PER_HOST, props,
+         SWIFT_MAX_CONNECTIONS_PER_HOST_PROPERTY, false);
+    copy(conf, prefix + DOT_MAX_TOTAL_CONNECTIONS, props,
+         SWIFT_MAX_TOTAL_CONNECTIONS_PROPERTY, false);
+    copy(conf, prefix + DOT_CONNECTION_IDLE_TIMEOUT, props,
+         SWIFT_CONNECTION_IDLE_TIMEOUT_PROPERTY, false);
 
     //boolean value
     boolean isPublicURL = conf.getBoolean(prefix + DOT_PUBLIC, false);
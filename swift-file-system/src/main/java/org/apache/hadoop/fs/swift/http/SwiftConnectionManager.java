@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.http;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The pooled, keep-alive connection manager shared by all requests
+ * made through a single {@link SwiftRestClient}.
+ *
+ * Connections are returned to the pool when a method is released, and
+ * reused by later requests to the same host; this saves the TCP -and
+ * for HTTPS, the TLS- setup on every operation.
+ * Connections which have been idle for longer than the configured
+ * timeout are closed by a background daemon thread.
+ *
+ * The manager counts every lease of a connection, splitting them into
+ * pool hits (an open connection was reused) and misses (a new
+ * connection had to be opened), and records the total time callers
+ * spent waiting for a connection to become free. Response streams
+ * closed before their end report whether they were drained, keeping
+ * the connection, or aborted.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class SwiftConnectionManager extends MultiThreadedHttpConnectionManager {
+  private static final Log LOG =
+    LogFactory.getLog(SwiftConnectionManager.class);
+
+  private final IdleConnectionTimeoutThread idleConnectionReaper;
+
+  private final AtomicLong leases = new AtomicLong();
+  private final AtomicLong poolHits = new AtomicLong();
+  private final AtomicLong poolMisses = new AtomicLong();
+  private final AtomicLong leaseWaitTime = new AtomicLong();
+  private final AtomicLong streamsDrained = new AtomicLong();
+  private final AtomicLong streamsAborted = new AtomicLong();
+  private final AtomicLong bytesDrained = new AtomicLong();
+  private final AtomicLong bytesAbandoned = new AtomicLong();
+
+  /**
+   * Create a connection manager
+   * @param maxConnectionsPerHost maximum number of connections to any host
+   * @param maxTotalConnections maximum number of connections to all hosts
+   * @param connectTimeout connection and socket timeout in milliseconds
+   * @param idleConnectionTimeout time in milliseconds after which an unused
+   * connection is closed; 0 disables idle connection eviction
+   */
+  public SwiftConnectionManager(int maxConnectionsPerHost,
+                                int maxTotalConnections,
+                                int connectTimeout,
+                                long idleConnectionTimeout) {
+    HttpConnectionManagerParams params = getParams();
+    params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+    params.setMaxTotalConnections(maxTotalConnections);
+    params.setConnectionTimeout(connectTimeout);
+    params.setSoTimeout(connectTimeout);
+    params.setStaleCheckingEnabled(true);
+
+    if (idleConnectionTimeout > 0) {
+      idleConnectionReaper = new IdleConnectionTimeoutThread();
+      idleConnectionReaper.setName("Swift idle connection reaper");
+      idleConnectionReaper.setConnectionTimeout(idleConnectionTimeout);
+      idleConnectionReaper.setTimeoutInterval(
+        Math.max(1000, idleConnectionTimeout / 2));
+      idleConnectionReaper.addConnectionManager(this);
+      idleConnectionReaper.start();
+    } else {
+      idleConnectionReaper = null;
+    }
+  }
+
+  /**
+   * Lease a connection, counting the wait and whether or not
+   * an already open connection was handed out.
+   * {@inheritDoc}
+   */
+  @Override
+  public HttpConnection getConnectionWithTimeout(
+    HostConfiguration hostConfiguration, long timeout)
+    throws ConnectionPoolTimeoutException {
+    long start = System.currentTimeMillis();
+    HttpConnection connection =
+      super.getConnectionWithTimeout(hostConfiguration, timeout);
+    leaseWaitTime.addAndGet(System.currentTimeMillis() - start);
+    leases.incrementAndGet();
+    if (connection.isOpen()) {
+      poolHits.incrementAndGet();
+    } else {
+      poolMisses.incrementAndGet();
+    }
+    return connection;
+  }
+
+  /**
+   * Shut down the pool, closing all connections and stopping
+   * the idle connection reaper.
+   */
+  @Override
+  public void shutdown() {
+    if (idleConnectionReaper != null) {
+      idleConnectionReaper.shutdown();
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Shutting down " + this);
+    }
+    super.shutdown();
+  }
+
+  /**
+   * @return the number of connections leased from the pool
+   */
+  public long getLeaseCount() {
+    return leases.get();
+  }
+
+  /**
+   * @return the number of leases which reused an open connection
+   */
+  public long getPoolHits() {
+    return poolHits.get();
+  }
+
+  /**
+   * @return the number of leases which needed a new connection
+   */
+  public long getPoolMisses() {
+    return poolMisses.get();
+  }
+
+  /**
+   * @return total time in milliseconds spent waiting to lease connections
+   */
+  public long getLeaseWaitTime() {
+    return leaseWaitTime.get();
+  }
+
+  /**
+   * Record the early close of a response stream whose remaining
+   * data was read and discarded, keeping the connection
+   * @param bytes number of bytes drained
+   */
+  public void streamDrained(long bytes) {
+    streamsDrained.incrementAndGet();
+    bytesDrained.addAndGet(bytes);
+  }
+
+  /**
+   * Record the early close of a response stream whose connection
+   * was aborted rather than drained
+   * @param bytes number of bytes left unread; -1 if unknown
+   */
+  public void streamAborted(long bytes) {
+    streamsAborted.incrementAndGet();
+    if (bytes > 0) {
+      bytesAbandoned.addAndGet(bytes);
+    }
+  }
+
+  /**
+   * @return the number of response streams drained on close
+   */
+  public long getStreamsDrained() {
+    return streamsDrained.get();
+  }
+
+  /**
+   * @return the number of response streams aborted on close
+   */
+  public long getStreamsAborted() {
+    return streamsAborted.get();
+  }
+
+  /**
+   * @return the number of bytes read and discarded by drains
+   */
+  public long getBytesDrained() {
+    return bytesDrained.get();
+  }
+
+  /**
+   * @return the number of bytes left unread by aborts, where known
+   */
+  public long getBytesAbandoned() {
+    return bytesAbandoned.get();
+  }
+
+  @Override
+  public String toString() {
+    return "SwiftConnectionManager:"
+           + " leases=" + getLeaseCount()
+           + " hits=" + getPoolHits()
+           + " misses=" + getPoolMisses()
+           + " lease wait=" + getLeaseWaitTime() + "ms"
+           + " drained=" + getStreamsDrained()
+           + " (" + getBytesDrained() + " bytes)"
+           + " aborted=" + getStreamsAborted()
+           + " (" + getBytesAbandoned() + " bytes)"
+           + " pooled=" + getConnectionsInPool();
+  }
+}
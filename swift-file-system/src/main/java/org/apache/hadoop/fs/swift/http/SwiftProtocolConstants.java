@@ -36,13 +36,25 @@ public class SwiftProtocolConstants {
   public static final String HEADER_DESTINATION = "Destination";
   public static final String HEADER_CONTENT_LENGTH = "Content-Length";
   public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+  public static final String HEADER_ETAG = "ETag";
   public static final String SWIFT_RANGE_HEADER_FORMAT_PATTERN = "bytes=%d-%d";
+  public static final String SWIFT_OPEN_RANGE_HEADER_FORMAT_PATTERN = "bytes=%d-";
   public static final String SERVICE_CATALOG_SWIFT = "swift";
   public static final String SERVICE_CATALOG_CLOUD_FILES = "cloudFiles";
   public static final String SERVICE_CATALOG_OBJECT_STORE = "object-store";
   public static final String SWIFT_OBJECT_AUTH_ENDPOINT =
     "/object_endpoint/";
   public static final String X_OBJECT_MANIFEST = "X-Object-Manifest";
+  public static final String X_STATIC_LARGE_OBJECT = "X-Static-Large-Object";
+  /**
+   * Metadata header recording the MD5 checksum of the whole data
+   * of a segmented file: {@value}
+   */
+  public static final String X_OBJECT_META_MD5 = "X-Object-Meta-Hadoop-Md5";
+  /**
+   * Query parameter for operations on Static Large Object manifests: {@value}
+   */
+  public static final String MULTIPART_MANIFEST = "multipart-manifest";
   public static final String X_CONTAINER_OBJECT_COUNT =
     "X-Container-Object-Count";
   public static final String X_CONTAINER_BYTES_USED = "X-Container-Bytes-Used";
@@ -70,6 +82,255 @@ public class SwiftProtocolConstants {
   public static final String SWIFT_RETRY_COUNT =
     FS_SWIFT + "connect.retry.count";
 
+  /**
+   * Maximum number of bytes a forward seek will read and discard
+   * from the open HTTP stream rather than issue a new GET: {@value}
+   */
+  public static final String SWIFT_READ_FORWARD_SKIP =
+    FS_SWIFT + ".read.forward.skip";
+
+  /**
+   * Input policy of streams opened for reading; one of
+   * sequential, random or adaptive: {@value}
+   */
+  public static final String SWIFT_READ_POLICY = FS_SWIFT + ".read.policy";
+
+  /**
+   * Number of bytes requested by each GET of a stream
+   * reading with random access: {@value}
+   */
+  public static final String SWIFT_READ_RANDOM_RANGE =
+    FS_SWIFT + ".read.random.range";
+
+  /**
+   * Number of threads a filesystem uses for background reads: {@value}
+   */
+  public static final String SWIFT_READ_THREADS = FS_SWIFT + ".read.threads";
+
+  /**
+   * Maximum gap between two ranges of a vectored read
+   * which are fetched in a single GET: {@value}
+   */
+  public static final String SWIFT_READ_VECTORED_MERGE_GAP =
+    FS_SWIFT + ".read.vectored.merge.gap";
+
+  /**
+   * Maximum size of a merged range of a vectored read: {@value}
+   */
+  public static final String SWIFT_READ_VECTORED_MAX_MERGED_SIZE =
+    FS_SWIFT + ".read.vectored.max.merged.size";
+
+  /**
+   * Number of ranges to prefetch ahead of a sequential reader;
+   * 0 disables prefetching: {@value}
+   */
+  public static final String SWIFT_READ_PREFETCH_DEPTH =
+    FS_SWIFT + ".read.prefetch.depth";
+
+  /**
+   * Size of each prefetched range: {@value}
+   */
+  public static final String SWIFT_READ_PREFETCH_RANGE_SIZE =
+    FS_SWIFT + ".read.prefetch.range.size";
+
+  /**
+   * Number of ranges of the segments of a manifest object to read
+   * in parallel; 0 reads manifests through the proxy as one stream: {@value}
+   */
+  public static final String SWIFT_READ_SEGMENT_PARALLELISM =
+    FS_SWIFT + ".read.segment.parallelism";
+
+  /**
+   * Maximum number of unread bytes of a response to read and discard
+   * when a stream is closed early, so that its connection can be
+   * reused; if more remain the connection is aborted: {@value}
+   */
+  public static final String SWIFT_READ_DRAIN_THRESHOLD =
+    FS_SWIFT + ".read.drain.threshold";
+
+  /**
+   * Local directory in which blocks of read objects are cached;
+   * caching is disabled when unset: {@value}
+   */
+  public static final String SWIFT_CACHE_DIR = FS_SWIFT + ".cache.dir";
+
+  /**
+   * Maximum number of bytes kept in the local read cache: {@value}
+   */
+  public static final String SWIFT_CACHE_CAPACITY =
+    FS_SWIFT + ".cache.capacity";
+
+  /**
+   * Size of the aligned blocks in which objects are cached: {@value}
+   */
+  public static final String SWIFT_CACHE_BLOCK_SIZE =
+    FS_SWIFT + ".cache.block.size";
+
+  /**
+   * Flag to issue a HEAD on every open of a cached object to check
+   * that it has not changed since it was cached: {@value}
+   */
+  public static final String SWIFT_CACHE_VALIDATE =
+    FS_SWIFT + ".cache.validate";
+
+  /**
+   * Where output streams buffer data before upload:
+   * "disk", "heap" or "direct": {@value}
+   */
+  public static final String SWIFT_OUTPUT_BUFFER = FS_SWIFT + ".output.buffer";
+
+  /**
+   * Size of the blocks in which output is buffered in memory; each block
+   * is uploaded as a segment of a larger file: {@value}
+   */
+  public static final String SWIFT_OUTPUT_BLOCK_SIZE =
+    FS_SWIFT + ".output.block.size";
+
+  /**
+   * Size of the segments of files buffered on disk: files larger than
+   * this are uploaded as segments and a manifest; at most 5GB: {@value}
+   */
+  public static final String SWIFT_OUTPUT_SEGMENT_SIZE =
+    FS_SWIFT + ".output.segment.size";
+
+  /**
+   * Maximum number of bytes of output buffered in memory by all
+   * streams in the JVM: {@value}
+   */
+  public static final String SWIFT_OUTPUT_MEMORY_LIMIT =
+    FS_SWIFT + ".output.memory.limit";
+
+  /**
+   * Flag to buffer output on disk once the memory limit is reached,
+   * rather than block the writer until memory is released: {@value}
+   */
+  public static final String SWIFT_OUTPUT_MEMORY_FALLBACK =
+    FS_SWIFT + ".output.memory.fallback";
+
+  /**
+   * Number of threads a filesystem uses to upload the segments
+   * of large files: {@value}
+   */
+  public static final String SWIFT_OUTPUT_UPLOAD_THREADS =
+    FS_SWIFT + ".output.upload.threads";
+
+  /**
+   * Maximum number of segments of one output stream queued or in flight
+   * at once; a writer further ahead waits: {@value}
+   */
+  public static final String SWIFT_OUTPUT_UPLOAD_ACTIVE_BLOCKS =
+    FS_SWIFT + ".output.upload.active.blocks";
+
+  /**
+   * Number of times a failed segment upload is retried: {@value}
+   */
+  public static final String SWIFT_OUTPUT_UPLOAD_RETRIES =
+    FS_SWIFT + ".output.upload.retries";
+
+  /**
+   * Time in milliseconds before the first retry of a segment upload;
+   * the interval doubles with every further retry: {@value}
+   */
+  public static final String SWIFT_OUTPUT_UPLOAD_RETRY_INTERVAL =
+    FS_SWIFT + ".output.upload.retry.interval";
+
+  /**
+   * Flag to complete segmented uploads with a Static Large Object
+   * manifest rather than a Dynamic Large Object one: {@value}
+   */
+  public static final String SWIFT_OUTPUT_STATIC_LARGE_OBJECTS =
+    FS_SWIFT + ".output.static.large.objects";
+
+  /**
+   * Flag to stream output to Swift as it is written, with chunked
+   * transfer encoding, rather than buffer it: {@value}
+   */
+  public static final String SWIFT_OUTPUT_STREAMING =
+    FS_SWIFT + ".output.streaming";
+
+  /**
+   * Number of directories a filesystem remembers having created or seen,
+   * so that creating files in them needs no probes; 0 disables: {@value}
+   */
+  public static final String SWIFT_DIRECTORY_CACHE_SIZE =
+    FS_SWIFT + ".directory.cache.size";
+
+  /**
+   * Flag to create the markers of the parent directories of a new file
+   * when it is closed, rather than in create(): {@value}
+   */
+  public static final String SWIFT_CREATE_LAZY_PARENTS =
+    FS_SWIFT + ".create.lazy.parents";
+
+  /**
+   * Number of blocks the block filesystem uploads between the INodes it
+   * writes while a file is still open; 0 writes the INode only when the
+   * file is closed: {@value}
+   */
+  public static final String SWIFT_BLOCK_CHECKPOINT_INTERVAL =
+    FS_SWIFT + ".block.inode.checkpoint";
+
+  /**
+   * Number of bytes before the end of a block at which the block
+   * filesystem starts opening the next one: {@value}
+   */
+  public static final String SWIFT_BLOCK_PREFETCH_THRESHOLD =
+    FS_SWIFT + ".block.prefetch.threshold";
+
+  /**
+   * Flag to have the block filesystem download each block to a local
+   * file before reading it, rather than stream it: {@value}
+   */
+  public static final String SWIFT_BLOCK_READ_SPILL =
+    FS_SWIFT + ".block.read.spill";
+
+  /**
+   * Local directory in which the block filesystem caches blocks;
+   * the disk cache is disabled when unset: {@value}
+   */
+  public static final String SWIFT_BLOCK_CACHE_DIR =
+    FS_SWIFT + ".block.cache.dir";
+
+  /**
+   * Maximum number of bytes of blocks kept on disk: {@value}
+   */
+  public static final String SWIFT_BLOCK_CACHE_CAPACITY =
+    FS_SWIFT + ".block.cache.capacity";
+
+  /**
+   * Maximum number of bytes of blocks kept in memory by each process;
+   * 0 disables the memory cache: {@value}
+   */
+  public static final String SWIFT_BLOCK_CACHE_MEMORY =
+    FS_SWIFT + ".block.cache.memory";
+
+  /**
+   * Number of INodes the block filesystem keeps in memory;
+   * 0, the default, disables the INode cache: {@value}
+   */
+  public static final String SWIFT_BLOCK_INODE_CACHE_SIZE =
+    FS_SWIFT + ".block.inode.cache.size";
+
+  /**
+   * Time in milliseconds for which a cached INode is used before
+   * it is read again: {@value}
+   */
+  public static final String SWIFT_BLOCK_INODE_CACHE_TTL =
+    FS_SWIFT + ".block.inode.cache.ttl";
+
+  /**
+   * Size in bytes up to which the block filesystem stores the data of
+   * a file in its INode rather than in a block; 0 disables: {@value}
+   */
+  public static final String SWIFT_BLOCK_INLINE_THRESHOLD =
+    FS_SWIFT + ".block.inline.threshold";
+
+  /**
+   * Comma separated list of local directories in which output is
+   * buffered on disk; hadoop.tmp.dir is used when unset: {@value}
+   */
+  public static final String SWIFT_BUFFER_DIR = FS_SWIFT + ".buffer.dir";
+
   /**
    * Key for passing the service name as a property -not read from the
    * configuration : {@value}
@@ -92,6 +353,25 @@ public class SwiftProtocolConstants {
   public static final String DOT_REGION = ".region";
   public static final String DOT_PROXY_HOST = ".proxy.host";
   public static final String DOT_PROXY_PORT = ".proxy.port";
+
+  /**
+   * Maximum number of pooled connections to any one host: {@value}
+   */
+  public static final String DOT_MAX_CONNECTIONS_PER_HOST =
+    ".max.connections.per.host";
+
+  /**
+   * Maximum number of pooled connections across all hosts: {@value}
+   */
+  public static final String DOT_MAX_TOTAL_CONNECTIONS =
+    ".max.total.connections";
+
+  /**
+   * Time in milliseconds after which an idle pooled connection
+   * is closed; 0 disables the eviction: {@value}
+   */
+  public static final String DOT_CONNECTION_IDLE_TIMEOUT =
+    ".connection.idle.timeout";
   /**
    * flag to say use public URL
    */
@@ -113,6 +393,12 @@ public class SwiftProtocolConstants {
 
   public static final String SWIFT_PROXY_HOST_PROPERTY = FS_SWIFT + DOT_PROXY_HOST;
   public static final String SWIFT_PROXY_PORT_PROPERTY = FS_SWIFT + DOT_PROXY_PORT;
+  public static final String SWIFT_MAX_CONNECTIONS_PER_HOST_PROPERTY =
+    FS_SWIFT + DOT_MAX_CONNECTIONS_PER_HOST;
+  public static final String SWIFT_MAX_TOTAL_CONNECTIONS_PROPERTY =
+    FS_SWIFT + DOT_MAX_TOTAL_CONNECTIONS;
+  public static final String SWIFT_CONNECTION_IDLE_TIMEOUT_PROPERTY =
+    FS_SWIFT + DOT_CONNECTION_IDLE_TIMEOUT;
   public static final String HTTP_ROUTE_DEFAULT_PROXY =
     "http.route.default-proxy";
 }
\ No newline at end of file
@@ -21,11 +21,11 @@ package org.apache.hadoop.fs.swift.http;
 import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpHost;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.DeleteMethod;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.HeadMethod;
 import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
@@ -53,6 +53,7 @@ import org.apache.hadoop.fs.swift.auth.entities.AccessToken;
 import org.apache.hadoop.fs.swift.auth.entities.Catalog;
 import org.apache.hadoop.fs.swift.auth.entities.Endpoint;
 import org.apache.hadoop.fs.swift.exceptions.SwiftBadRequestException;
+import org.apache.hadoop.fs.swift.exceptions.SwiftChecksumMismatchException;
 import org.apache.hadoop.fs.swift.exceptions.SwiftConfigurationException;
 import org.apache.hadoop.fs.swift.exceptions.SwiftConnectionException;
 import org.apache.hadoop.fs.swift.exceptions.SwiftException;
@@ -63,6 +64,7 @@ import org.apache.hadoop.fs.swift.util.JSONUtil;
 import org.apache.hadoop.fs.swift.util.SwiftObjectPath;
 import org.apache.hadoop.fs.swift.util.SwiftUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -98,6 +100,10 @@ public final class SwiftRestClient {
   private static final Log LOG = LogFactory.getLog(SwiftRestClient.class);
   private static final int DEFAULT_RETRY_COUNT = 3;
   private static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+  private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+  private static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 40;
+  private static final int DEFAULT_CONNECTION_IDLE_TIMEOUT = 60000;
+  private static final long DEFAULT_READ_DRAIN_THRESHOLD = 64 * 1024;
 
   /**
    * Header that says "use newest version" -ensures that
@@ -184,6 +190,21 @@ public final class SwiftRestClient {
    */
   private int proxyPort;
 
+  /**
+   * The pool of keep-alive connections shared by all requests
+   */
+  private final SwiftConnectionManager connectionManager;
+
+  /**
+   * The HTTP client bound to the connection pool
+   */
+  private final HttpClient client;
+
+  /**
+   * Maximum number of unread bytes of a GET response to drain on close
+   */
+  private final long drainThreshold;
+
   /**
    * objects query endpoint. This is synchronized
    * to handle a simultaneous update of all auth data in one
@@ -261,6 +282,18 @@ public final class SwiftRestClient {
     protected void setup(M method) throws IOException {
     }
 
+    /**
+     * Override point: does the result returned by
+     * {@link #extractResult(HttpMethod)} still read from the connection?
+     * If so, releasing the connection back to the pool is the
+     * responsibility of that result; otherwise the connection is
+     * released as soon as the result has been extracted.
+     * @return true if the result retains the connection
+     */
+    protected boolean retainsConnection() {
+      return false;
+    }
+
     /**
      * Override point: what are the status codes that this operation supports
      * @return the list of status codes to accept
@@ -395,6 +428,31 @@ public final class SwiftRestClient {
 
     proxyHost = props.getProperty(SWIFT_PROXY_HOST_PROPERTY, null);
     proxyPort = getIntOption(props, SWIFT_PROXY_PORT_PROPERTY, 8080);
+    int maxConnectionsPerHost = getIntOption(props,
+                                  SWIFT_MAX_CONNECTIONS_PER_HOST_PROPERTY,
+                                  DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    int maxTotalConnections = getIntOption(props,
+                                  SWIFT_MAX_TOTAL_CONNECTIONS_PROPERTY,
+                                  DEFAULT_MAX_TOTAL_CONNECTIONS);
+    int idleConnectionTimeout = getIntOption(props,
+                                  SWIFT_CONNECTION_IDLE_TIMEOUT_PROPERTY,
+                                  DEFAULT_CONNECTION_IDLE_TIMEOUT);
+    if (maxConnectionsPerHost <= 0 || maxTotalConnections <= 0
+        || idleConnectionTimeout < 0) {
+      throw new SwiftConfigurationException(
+        "Invalid connection pool options for " + filesystemURI
+        + ": " + SWIFT_MAX_CONNECTIONS_PER_HOST_PROPERTY
+        + "=" + maxConnectionsPerHost
+        + ", " + SWIFT_MAX_TOTAL_CONNECTIONS_PROPERTY
+        + "=" + maxTotalConnections
+        + ", " + SWIFT_CONNECTION_IDLE_TIMEOUT_PROPERTY
+        + "=" + idleConnectionTimeout);
+    }
+
+    drainThreshold = SwiftUtils.getLongOption(conf,
+                                              SWIFT_READ_DRAIN_THRESHOLD,
+                                              DEFAULT_READ_DRAIN_THRESHOLD,
+                                              0);
 
     if (LOG.isDebugEnabled()) {
       //everything you need for diagnostics. The password is omitted.
@@ -402,7 +460,9 @@ public final class SwiftRestClient {
         "Service={%s} container={%s} uri={%s}"
         + " tenant={%s} user={%s} region={%s}"
         + " publicURL={%b}"
-        + " connect timeout={%d}, retry count={%d}",
+        + " connect timeout={%d}, retry count={%d}"
+        + " max connections per host={%d}, max connections={%d}"
+        + " idle connection timeout={%d}",
         serviceProvider,
         container,
         stringAuthUri,
@@ -411,7 +471,10 @@ public final class SwiftRestClient {
         region != null ? region : "(none)",
         usePublicURL,
         connectTimeout,
-        retryCount));
+        retryCount,
+        maxConnectionsPerHost,
+        maxTotalConnections,
+        idleConnectionTimeout));
     }
     try {
       this.authUri = new URI(stringAuthUri);
@@ -420,6 +483,14 @@ public final class SwiftRestClient {
                                             + " property was incorrect: "
                                             + stringAuthUri, e);
     }
+    connectionManager = new SwiftConnectionManager(maxConnectionsPerHost,
+                                                   maxTotalConnections,
+                                                   connectTimeout,
+                                                   idleConnectionTimeout);
+    client = new HttpClient(connectionManager);
+    if (proxyHost != null) {
+      client.getHostConfiguration().setProxy(proxyHost, proxyPort);
+    }
   }
 
   /**
@@ -494,6 +565,29 @@ public final class SwiftRestClient {
                                 SwiftRestClient.NEWEST);
   }
 
+  /**
+   * Makes an HTTP GET request to Swift for the object from an offset
+   * to its end
+   *
+   * @param path   path to object
+   * @param offset offset from file beginning
+   * @return The input stream -which must be closed afterwards.
+   * @throws IOException on IO Faults
+   * @throws EOFException if the offset is at or past the end of the object
+   */
+  public InputStream getDataAsInputStream(SwiftObjectPath path,
+                                          long offset) throws IOException {
+    if (offset < 0) {
+      throw new IOException("Invalid offset: " + offset + ".");
+    }
+
+    final String range = String.format(SWIFT_OPEN_RANGE_HEADER_FORMAT_PATTERN,
+                                       offset);
+    return getDataAsInputStream(path,
+                                new Header(HEADER_RANGE, range),
+                                SwiftRestClient.NEWEST);
+  }
+
   /**
    * Returns object length
    *
@@ -682,6 +776,40 @@ public final class SwiftRestClient {
     return findObjects(dataLocationURI.toString(), requestHeaders);
   }
 
+  /**
+   * List the objects in a container whose names begin with a prefix,
+   * in JSON format, which gives the size and hash of every object as
+   * well as its name. The server returns a limited number of entries
+   * per request; to list more, repeat the call with the name of the
+   * last entry as the marker.
+   *
+   * @param container container to list
+   * @param prefix prefix of the object names
+   * @param marker list only objects after this name; may be null
+   * @return the body of the response: a JSON array of objects
+   * @throws IOException on IO Faults
+   * @throws FileNotFoundException if the container does not exist
+   */
+  public byte[] listObjectsAsJSON(String container,
+                                  String prefix,
+                                  String marker) throws IOException {
+    preRemoteCommand("listObjectsAsJSON");
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("listObjectsAsJSON container=" + container
+                + " prefix=" + prefix + " marker=" + marker);
+    }
+    StringBuilder location = new StringBuilder();
+    location.append(getEndpointURI().toString())
+            .append("/")
+            .append(container)
+            .append("?format=json&prefix=")
+            .append(encodeQueryParameter(prefix));
+    if (marker != null) {
+      location.append("&marker=").append(encodeQueryParameter(marker));
+    }
+    return findObjects(location.toString(), new Header[0]);
+  }
+
   /**
    * Find objects in a location
    * @param location URI
@@ -760,20 +888,24 @@ public final class SwiftRestClient {
    *
    * @param path           path to Swift
    * @param data           object data
-   * @param length         length of data
+   * @param length         length of data; a negative length sends the
+   *                       data with chunked transfer encoding
    * @param requestHeaders http headers
+   * @return the ETag of the uploaded object; null if none was returned
    * @throws IOException on IO Faults
    */
-  public void upload(SwiftObjectPath path,
-                     final InputStream data,
-                     final long length,
-                     final Header... requestHeaders)
+  public String upload(SwiftObjectPath path,
+                       final InputStream data,
+                       final long length,
+                       final Header... requestHeaders)
     throws IOException {
     preRemoteCommand("upload");
-    perform(pathToURI(path), new PutMethodProcessor<byte[]>() {
+    return perform(pathToURI(path), new PutMethodProcessor<String>() {
       @Override
-      public byte[] extractResult(PutMethod method) throws IOException {
-        return method.getResponseBody();
+      public String extractResult(PutMethod method) throws IOException {
+        method.getResponseBody();
+        Header etag = method.getResponseHeader(HEADER_ETAG);
+        return etag != null ? etag.getValue() : null;
       }
 
       @Override
@@ -786,6 +918,67 @@ public final class SwiftRestClient {
   }
 
 
+  /**
+   * Uploads data whose length is not known in advance, sending it with
+   * chunked transfer encoding as it is read from the stream. The data
+   * is not buffered, so the request cannot be repeated: the stream
+   * may be consumed even if the upload fails.
+   *
+   * @param path           path to Swift
+   * @param data           object data, read until its end
+   * @param requestHeaders http headers
+   * @return the ETag of the uploaded object; null if none was returned
+   * @throws IOException on IO Faults
+   */
+  public String uploadChunked(SwiftObjectPath path,
+                              InputStream data,
+                              Header... requestHeaders)
+    throws IOException {
+    return upload(path, data, EntityEnclosingMethod.CONTENT_LENGTH_CHUNKED,
+                  requestHeaders);
+  }
+
+
+  /**
+   * Upload the manifest of a Static Large Object: a JSON list of
+   * its segments, each with its path, ETag and size. Swift validates
+   * the segments before it creates the object.
+   *
+   * @param path path of the object
+   * @param manifest JSON manifest
+   * @param requestHeaders http headers
+   * @throws IOException on IO Faults
+   * @throws SwiftBadRequestException if the manifest was rejected
+   */
+  public void uploadStaticLargeObjectManifest(SwiftObjectPath path,
+                                              byte[] manifest,
+                                              final Header... requestHeaders)
+    throws IOException {
+    preRemoteCommand("uploadStaticLargeObjectManifest");
+    URI uri;
+    try {
+      uri = new URI(pathToURI(path).toString()
+                    + "?" + MULTIPART_MANIFEST + "=put");
+    } catch (URISyntaxException e) {
+      throw new SwiftException("Bad URI for " + path, e);
+    }
+    final byte[] body = manifest;
+    perform(uri, new PutMethodProcessor<byte[]>() {
+      @Override
+      public byte[] extractResult(PutMethod method) throws IOException {
+        return method.getResponseBody();
+      }
+
+      @Override
+      protected void setup(PutMethod method) throws
+                                             SwiftInternalStateException {
+        method.setRequestEntity(new InputStreamRequestEntity(
+          new ByteArrayInputStream(body), body.length));
+        setHeaders(method, requestHeaders);
+      }
+    });
+  }
+
   /**
    * Deletes object from swift.
    * The result is true if this operation did the deletion.
@@ -1131,6 +1324,9 @@ public final class SwiftRestClient {
                                 retryCount, false));
     methodParams.setSoTimeout(connectTimeout);
 
+    //release the connection back to the pool unless the result
+    //is still reading from it
+    boolean release = true;
     try {
       int statusCode = exec(method);
 
@@ -1148,12 +1344,13 @@ public final class SwiftRestClient {
         throw ioe;
       }
 
-      return processor.extractResult(method);
-    } catch (IOException e) {
-      //release the connection -always
-
-      method.releaseConnection();
-      throw e;
+      R result = processor.extractResult(method);
+      release = !processor.retainsConnection();
+      return result;
+    } finally {
+      if (release) {
+        method.releaseConnection();
+      }
     }
   }
 
@@ -1200,6 +1397,11 @@ public final class SwiftRestClient {
         fault = new EOFException(method.getStatusText());
         break;
 
+      case SC_UNPROCESSABLE_ENTITY:
+        //the ETag sent did not match the data received
+        fault = new SwiftChecksumMismatchException(errorMessage);
+        break;
+
 
       default:
         fault = new SwiftInvalidResponseException(
@@ -1224,7 +1426,13 @@ public final class SwiftRestClient {
     return perform(uri, new GetMethodProcessor<InputStream>() {
       @Override
       public InputStream extractResult(GetMethod method) throws IOException {
-        return new HttpInputStreamWithRelease(uri, method);
+        return new HttpInputStreamWithRelease(uri, method, drainThreshold,
+                                              connectionManager);
+      }
+
+      @Override
+      protected boolean retainsConnection() {
+        return true;
       }
 
       @Override
@@ -1311,6 +1519,21 @@ public final class SwiftRestClient {
     return url;
   }
 
+  /**
+   * Encode a query parameter value
+   * @param value the value
+   * @return the encoded value
+   * @throws SwiftException if the value cannot be encoded
+   */
+  private static String encodeQueryParameter(String value) throws
+                                                           SwiftException {
+    try {
+      return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+    } catch (UnsupportedEncodingException e) {
+      throw new SwiftException("failed to encode " + value, e);
+    }
+  }
+
   /**
    * Convert a swift path to a URI relative to the current endpoint.
    * @param path path
@@ -1348,7 +1571,7 @@ public final class SwiftRestClient {
   }
 
   /**
-   * Execute a method in a new HttpClient instance.
+   * Execute a method through the pooled HttpClient instance.
    * If the auth failed, authenticate then retry the method.
    * @param method methot to exec
    * @param <M> Method type
@@ -1358,12 +1581,6 @@ public final class SwiftRestClient {
    */
   private <M extends HttpMethod> int exec(M method)
       throws IOException, SwiftConnectionException {
-    final HttpClient client = new HttpClient();
-    if (proxyHost != null) {
-      client.getParams().setParameter(HTTP_ROUTE_DEFAULT_PROXY,
-                                      new HttpHost(proxyHost, proxyPort));
-    }
-
     int statusCode = execWithDebugOutput(method, client);
     if (method.getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
       //unauthed -look at what raised the response
@@ -1382,6 +1599,8 @@ public final class SwiftRestClient {
         if (LOG.isDebugEnabled()) {
           LOG.debug("Reauthenticating");
         }
+        //return the connection to the pool before authenticating
+        method.releaseConnection();
         authenticate();
         if (LOG.isDebugEnabled()) {
           LOG.debug("Retrying original request");
@@ -1456,6 +1675,26 @@ public final class SwiftRestClient {
   }
 
 
+  /**
+   * Get the connection manager; this is where the connection
+   * pool statistics are collected
+   * @return the connection manager of this client
+   */
+  public SwiftConnectionManager getConnectionManager() {
+    return connectionManager;
+  }
+
+  /**
+   * Close the client, shutting down the connection pool.
+   * The client cannot be used after this call.
+   */
+  public void close() {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Closing " + this);
+    }
+    connectionManager.shutdown();
+  }
+
   @Override
   public String toString() {
     return "SwiftRestClient: "+  filesystemURI ;
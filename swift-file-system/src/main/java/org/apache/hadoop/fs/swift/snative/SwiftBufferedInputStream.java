@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.hadoop.fs.BufferedFSInputStream;
+import org.apache.hadoop.fs.ByteBufferReadable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The buffered stream returned by {@link SwiftNativeFileSystem#open},
+ * passing the vectored and byte buffer read operations through to the
+ * Swift input stream it wraps.
+ */
+public class SwiftBufferedInputStream extends BufferedFSInputStream
+  implements ByteBufferReadable, SwiftVectoredReadable {
+
+  private final SwiftNativeInputStream swiftStream;
+
+  SwiftBufferedInputStream(SwiftNativeInputStream in, int size) {
+    super(in, size);
+    this.swiftStream = in;
+  }
+
+  @Override
+  public void readVectored(List<SwiftFileRange> ranges) throws IOException {
+    swiftStream.readVectored(ranges);
+  }
+
+  /**
+   * Read into a byte buffer. Any data already buffered is returned
+   * first; after that, reads bypass this stream's buffer and go
+   * straight to the Swift stream, saving a copy.
+   * Reading this way discards any mark.
+   * @param dest buffer to read into
+   * @return the number of bytes read, or -1 at the end of the file
+   * @throws IOException on IO problems
+   */
+  @Override
+  public synchronized int read(ByteBuffer dest) throws IOException {
+    if (buf == null) {
+      throw new IOException("Stream closed");
+    }
+    int len = dest.remaining();
+    if (len == 0) {
+      return 0;
+    }
+    int buffered = count - pos;
+    if (buffered > 0) {
+      int read = Math.min(len, buffered);
+      dest.put(buf, pos, read);
+      pos += read;
+      return read;
+    }
+    markpos = -1;
+    return swiftStream.read(dest);
+  }
+
+  @Override
+  public String toString() {
+    return "SwiftBufferedInputStream{" + swiftStream + "}";
+  }
+}
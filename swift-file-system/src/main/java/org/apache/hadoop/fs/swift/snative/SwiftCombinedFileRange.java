@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A range fetched with a single GET, which covers one or more of the
+ * ranges of a vectored read.
+ */
+class SwiftCombinedFileRange {
+
+  private final long offset;
+  private long end;
+  private final List<SwiftFileRange> ranges = new ArrayList<SwiftFileRange>();
+
+  SwiftCombinedFileRange(SwiftFileRange first) {
+    offset = first.getOffset();
+    end = first.getEnd();
+    ranges.add(first);
+  }
+
+  long getOffset() {
+    return offset;
+  }
+
+  long getEnd() {
+    return end;
+  }
+
+  long getLength() {
+    return end - offset;
+  }
+
+  /**
+   * @return the ranges covered by this one, in order of offset
+   */
+  List<SwiftFileRange> getRanges() {
+    return ranges;
+  }
+
+  /**
+   * Add a range if it starts no further than mergeGap bytes past the end
+   * of this one, and the merged range is no larger than maxSize.
+   * @param range range to merge; it must not start before this one
+   * @param mergeGap maximum gap between the ranges
+   * @param maxSize maximum size of the merged range
+   * @return true if the range was merged
+   */
+  boolean merge(SwiftFileRange range, long mergeGap, long maxSize) {
+    long newEnd = Math.max(end, range.getEnd());
+    if (range.getOffset() - end > mergeGap || newEnd - offset > maxSize) {
+      return false;
+    }
+    end = newEnd;
+    ranges.add(range);
+    return true;
+  }
+
+  /**
+   * Sort the ranges by offset and merge those close enough together.
+   * @param ranges ranges to read
+   * @param mergeGap maximum number of unwanted bytes to read between
+   * two ranges to save a GET
+   * @param maxSize maximum size of a merged range
+   * @return the ranges to fetch
+   */
+  static List<SwiftCombinedFileRange> merge(List<SwiftFileRange> ranges,
+                                            long mergeGap,
+                                            long maxSize) {
+    List<SwiftFileRange> sorted = new ArrayList<SwiftFileRange>(ranges);
+    Collections.sort(sorted, new Comparator<SwiftFileRange>() {
+      @Override
+      public int compare(SwiftFileRange r1, SwiftFileRange r2) {
+        long diff = r1.getOffset() - r2.getOffset();
+        return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+      }
+    });
+    List<SwiftCombinedFileRange> combined =
+      new ArrayList<SwiftCombinedFileRange>();
+    SwiftCombinedFileRange current = null;
+    for (SwiftFileRange range : sorted) {
+      if (current == null || !current.merge(range, mergeGap, maxSize)) {
+        current = new SwiftCombinedFileRange(range);
+        combined.add(current);
+      }
+    }
+    return combined;
+  }
+
+  @Override
+  public String toString() {
+    return "combined range[" + offset + "-" + end + ") of "
+           + ranges.size() + " ranges";
+  }
+}
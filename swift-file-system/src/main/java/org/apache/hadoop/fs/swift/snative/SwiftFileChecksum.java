@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.swift.util.SwiftUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The MD5 checksum of the data of a file in Swift, as computed when it
+ * was written. It does not depend on how the file was split into
+ * segments, so two files with the same data have the same checksum.
+ */
+public class SwiftFileChecksum extends FileChecksum {
+
+  /**
+   * Name of the algorithm: {@value}
+   */
+  public static final String ALGORITHM = "MD5";
+
+  private static final int LENGTH = 16;
+
+  private byte[] md5;
+
+  public SwiftFileChecksum() {
+    this(new byte[LENGTH]);
+  }
+
+  public SwiftFileChecksum(byte[] md5) {
+    this.md5 = md5;
+  }
+
+  /**
+   * Build a checksum from its hex form
+   * @param hex MD5 checksum in hex
+   * @return the checksum, or null if the string is null or not
+   * an MD5 checksum
+   */
+  public static SwiftFileChecksum fromHex(String hex) {
+    if (hex == null || hex.length() != 2 * LENGTH) {
+      return null;
+    }
+    byte[] md5 = new byte[LENGTH];
+    for (int i = 0; i < LENGTH; i++) {
+      int high = Character.digit(hex.charAt(2 * i), 16);
+      int low = Character.digit(hex.charAt(2 * i + 1), 16);
+      if (high < 0 || low < 0) {
+        return null;
+      }
+      md5[i] = (byte) ((high << 4) | low);
+    }
+    return new SwiftFileChecksum(md5);
+  }
+
+  @Override
+  public String getAlgorithmName() {
+    return ALGORITHM;
+  }
+
+  @Override
+  public int getLength() {
+    return LENGTH;
+  }
+
+  @Override
+  public byte[] getBytes() {
+    return md5.clone();
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.write(md5);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    md5 = new byte[LENGTH];
+    in.readFully(md5);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof SwiftFileChecksum
+           && Arrays.equals(md5, ((SwiftFileChecksum) other).md5);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(md5);
+  }
+
+  @Override
+  public String toString() {
+    return ALGORITHM + ":" + SwiftUtils.toHex(md5);
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.hadoop.fs.swift.util.SettableFuture;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
+
+/**
+ * A range of a file to read in a vectored read. The data is delivered
+ * through the future returned by {@link #getData()}.
+ */
+public class SwiftFileRange {
+
+  private final long offset;
+  private final int length;
+  private final SettableFuture<ByteBuffer> data =
+    new SettableFuture<ByteBuffer>();
+
+  /**
+   * Create a range
+   * @param offset offset in the file
+   * @param length number of bytes to read
+   */
+  public SwiftFileRange(long offset, int length) {
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * @return the offset of the range in the file
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * @return the number of bytes in the range
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * @return offset of the first byte after the range
+   */
+  public long getEnd() {
+    return offset + length;
+  }
+
+  /**
+   * Get the future through which the data is delivered.
+   * A range which extends past the end of the file fails
+   * with an EOFException.
+   * @return the future of the data of this range
+   */
+  public Future<ByteBuffer> getData() {
+    return data;
+  }
+
+  void complete(ByteBuffer buffer) {
+    data.set(buffer);
+  }
+
+  void fail(Throwable thrown) {
+    data.setException(thrown);
+  }
+
+  @Override
+  public String toString() {
+    return "range[" + offset + "-" + getEnd() + ")";
+  }
+}
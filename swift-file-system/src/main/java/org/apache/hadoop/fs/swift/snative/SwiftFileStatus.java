@@ -28,6 +28,12 @@ import org.apache.hadoop.fs.permission.FsPermission;
  */
 public class SwiftFileStatus extends FileStatus {
 
+  /**
+   * The value of the X-Object-Manifest header; null if the object
+   * is not a manifest
+   */
+  private String manifest;
+
   public SwiftFileStatus() {
   }
 
@@ -38,6 +44,15 @@ public class SwiftFileStatus extends FileStatus {
     super(length, isdir, block_replication, blocksize, modification_time, path);
   }
 
+  public SwiftFileStatus(long length,
+                         boolean isdir,
+                         int block_replication,
+                         long blocksize, long modification_time, Path path,
+                         String manifest) {
+    super(length, isdir, block_replication, blocksize, modification_time, path);
+    this.manifest = manifest;
+  }
+
   public SwiftFileStatus(long length,
                          boolean isdir,
                          int block_replication,
@@ -91,4 +106,21 @@ public class SwiftFileStatus extends FileStatus {
   public boolean isDirectory() {
     return isDir();
   }
+
+  /**
+   * @return the container and prefix of the segments of a manifest
+   * object, in the form "container/prefix"; null if the object is
+   * not a manifest
+   */
+  public String getManifest() {
+    return manifest;
+  }
+
+  /**
+   * @return true if the object is a manifest, whose data is the
+   * concatenation of its segments
+   */
+  public boolean isManifest() {
+    return manifest != null;
+  }
 }
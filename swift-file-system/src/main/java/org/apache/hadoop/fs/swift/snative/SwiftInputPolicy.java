@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.hadoop.fs.swift.exceptions.SwiftConfigurationException;
+
+import java.util.Locale;
+
+/**
+ * The input policy of a stream: this decides how much data each
+ * GET request asks for.
+ */
+public enum SwiftInputPolicy {
+
+  /**
+   * Every GET asks for everything from the read position to the
+   * end of the object. Best for whole-file scans.
+   */
+  SEQUENTIAL,
+
+  /**
+   * Every GET asks for a small range. Best for columnar formats and
+   * other seek-heavy access.
+   */
+  RANDOM,
+
+  /**
+   * Start sequential; switch to random access on the first seek
+   * which cannot be served from the open stream, and back to sequential
+   * when a random access range is read to its end.
+   */
+  ADAPTIVE;
+
+  /**
+   * Parse a policy name, case-insensitively
+   * @param name policy name
+   * @return the policy
+   * @throws SwiftConfigurationException if the name is not recognised
+   */
+  public static SwiftInputPolicy fromString(String name) throws
+                                                    SwiftConfigurationException {
+    try {
+      return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      throw new SwiftConfigurationException("Unknown input policy: " + name,
+                                            e);
+    }
+  }
+}
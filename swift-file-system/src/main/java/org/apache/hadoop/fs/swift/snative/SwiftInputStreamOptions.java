@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The options of a {@link SwiftNativeInputStream}, set up from the
+ * filesystem configuration. The setters return the instance
+ * so that calls can be chained.
+ */
+class SwiftInputStreamOptions implements Cloneable {
+
+  private long forwardSkip;
+  private SwiftInputPolicy inputPolicy = SwiftInputPolicy.ADAPTIVE;
+  private long randomRange;
+  private long vectoredMergeGap;
+  private long vectoredMaxMergedSize;
+  private ExecutorService executor;
+  private int prefetchDepth;
+  private int prefetchRangeSize;
+  private int segmentParallelism;
+  private SwiftPrefetchStatistics prefetchStatistics;
+
+  /**
+   * @return maximum number of bytes to discard from the open stream
+   * on a forward seek
+   */
+  long getForwardSkip() {
+    return forwardSkip;
+  }
+
+  SwiftInputStreamOptions setForwardSkip(long forwardSkip) {
+    this.forwardSkip = forwardSkip;
+    return this;
+  }
+
+  /**
+   * @return the input policy
+   */
+  SwiftInputPolicy getInputPolicy() {
+    return inputPolicy;
+  }
+
+  SwiftInputStreamOptions setInputPolicy(SwiftInputPolicy inputPolicy) {
+    this.inputPolicy = inputPolicy;
+    return this;
+  }
+
+  /**
+   * @return minimum number of bytes to request in random access mode
+   */
+  long getRandomRange() {
+    return randomRange;
+  }
+
+  SwiftInputStreamOptions setRandomRange(long randomRange) {
+    this.randomRange = randomRange;
+    return this;
+  }
+
+  /**
+   * @return maximum gap between two ranges of a vectored read
+   * fetched in one GET
+   */
+  long getVectoredMergeGap() {
+    return vectoredMergeGap;
+  }
+
+  SwiftInputStreamOptions setVectoredMergeGap(long vectoredMergeGap) {
+    this.vectoredMergeGap = vectoredMergeGap;
+    return this;
+  }
+
+  /**
+   * @return maximum size of a merged range of a vectored read
+   */
+  long getVectoredMaxMergedSize() {
+    return vectoredMaxMergedSize;
+  }
+
+  SwiftInputStreamOptions setVectoredMaxMergedSize(long vectoredMaxMergedSize) {
+    this.vectoredMaxMergedSize = vectoredMaxMergedSize;
+    return this;
+  }
+
+  /**
+   * @return the executor for background reads
+   */
+  ExecutorService getExecutor() {
+    return executor;
+  }
+
+  SwiftInputStreamOptions setExecutor(ExecutorService executor) {
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * @return number of ranges to prefetch ahead of a sequential reader;
+   * 0 disables prefetching
+   */
+  int getPrefetchDepth() {
+    return prefetchDepth;
+  }
+
+  SwiftInputStreamOptions setPrefetchDepth(int prefetchDepth) {
+    this.prefetchDepth = prefetchDepth;
+    return this;
+  }
+
+  /**
+   * @return size of each prefetched range
+   */
+  int getPrefetchRangeSize() {
+    return prefetchRangeSize;
+  }
+
+  SwiftInputStreamOptions setPrefetchRangeSize(int prefetchRangeSize) {
+    this.prefetchRangeSize = prefetchRangeSize;
+    return this;
+  }
+
+  /**
+   * @return number of ranges of the segments of a manifest object to
+   * read in parallel; 0 disables direct segment reads
+   */
+  int getSegmentParallelism() {
+    return segmentParallelism;
+  }
+
+  SwiftInputStreamOptions setSegmentParallelism(int segmentParallelism) {
+    this.segmentParallelism = segmentParallelism;
+    return this;
+  }
+
+  /**
+   * @return the prefetch statistics of the filesystem, which those of
+   * each stream add up into; may be null
+   */
+  SwiftPrefetchStatistics getPrefetchStatistics() {
+    return prefetchStatistics;
+  }
+
+  SwiftInputStreamOptions setPrefetchStatistics(
+      SwiftPrefetchStatistics prefetchStatistics) {
+    this.prefetchStatistics = prefetchStatistics;
+    return this;
+  }
+
+  /**
+   * Copy the options, so that the copy can be changed for one stream
+   * @return a copy of these options
+   */
+  SwiftInputStreamOptions copy() {
+    try {
+      return (SwiftInputStreamOptions) clone();
+    } catch (CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.hadoop.fs.Path;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The directories a filesystem has created, or found to exist, so that
+ * creating files under them needs no probes of their markers.
+ *
+ * The set is bounded, dropping the least recently used directories.
+ * Directories are removed when the filesystem deletes or renames them,
+ * or anything above them; changes made by other clients are not seen,
+ * so a file may be created under a directory whose marker another
+ * client has deleted.
+ */
+class SwiftKnownDirectories {
+
+  private final Map<String, Boolean> directories;
+
+  /**
+   * Create the set
+   * @param capacity maximum number of directories to remember
+   */
+  SwiftKnownDirectories(final int capacity) {
+    directories = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * @param path absolute path of a directory
+   * @return true if it is known to exist
+   */
+  synchronized boolean contains(Path path) {
+    //a get, rather than containsKey, marks the entry as recently used
+    return directories.get(toKey(path)) != null;
+  }
+
+  /**
+   * Record that a directory exists
+   * @param path absolute path of the directory
+   */
+  synchronized void add(Path path) {
+    directories.put(toKey(path), Boolean.TRUE);
+  }
+
+  /**
+   * Forget a path and every directory under it
+   * @param path absolute path
+   */
+  synchronized void removeTree(Path path) {
+    String key = toKey(path);
+    String prefix = key.endsWith("/") ? key : key + "/";
+    for (Iterator<String> it = directories.keySet().iterator();
+         it.hasNext(); ) {
+      String dir = it.next();
+      if (dir.equals(key) || dir.startsWith(prefix)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * @return the number of directories known
+   */
+  synchronized int size() {
+    return directories.size();
+  }
+
+  private static String toKey(Path path) {
+    return path.toUri().getPath();
+  }
+}
@@ -33,10 +33,36 @@ import org.apache.hadoop.fs.swift.util.SwiftUtils;
 import org.apache.hadoop.util.Progressable;
 
 import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_CREATE_LAZY_PARENTS;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_DIRECTORY_CACHE_SIZE;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_OUTPUT_BLOCK_SIZE;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_OUTPUT_BUFFER;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_OUTPUT_MEMORY_FALLBACK;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_OUTPUT_MEMORY_LIMIT;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_OUTPUT_SEGMENT_SIZE;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_OUTPUT_STATIC_LARGE_OBJECTS;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_OUTPUT_STREAMING;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_OUTPUT_UPLOAD_ACTIVE_BLOCKS;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_OUTPUT_UPLOAD_RETRIES;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_OUTPUT_UPLOAD_RETRY_INTERVAL;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_OUTPUT_UPLOAD_THREADS;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_READ_FORWARD_SKIP;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_READ_POLICY;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_READ_PREFETCH_DEPTH;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_READ_PREFETCH_RANGE_SIZE;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_READ_SEGMENT_PARALLELISM;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_READ_RANDOM_RANGE;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_READ_THREADS;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_READ_VECTORED_MAX_MERGED_SIZE;
+import static org.apache.hadoop.fs.swift.http.SwiftProtocolConstants.SWIFT_READ_VECTORED_MERGE_GAP;
 
 /**
  * Swift file system implementation. Extends Hadoop FileSystem
@@ -47,6 +73,72 @@ public class SwiftNativeFileSystem extends FileSystem {
   private static final Log LOG =
           LogFactory.getLog(SwiftNativeFileSystem.class);
 
+  /**
+   * Default limit of a forward seek served from the open stream
+   */
+  private static final long DEFAULT_READ_FORWARD_SKIP = 256 * 1024;
+
+  /**
+   * Default minimum size of a GET in random access mode
+   */
+  private static final long DEFAULT_READ_RANDOM_RANGE = 256 * 1024;
+
+  /**
+   * Default number of threads for background reads
+   */
+  private static final int DEFAULT_READ_THREADS = 8;
+
+  /**
+   * Default maximum gap between ranges of a vectored read fetched together
+   */
+  private static final long DEFAULT_READ_VECTORED_MERGE_GAP = 128 * 1024;
+
+  /**
+   * Default maximum size of a merged range of a vectored read
+   */
+  private static final int DEFAULT_READ_VECTORED_MAX_MERGED_SIZE =
+    2 * 1024 * 1024;
+
+  /**
+   * Default size of a prefetched range
+   */
+  private static final int DEFAULT_READ_PREFETCH_RANGE_SIZE = 8 * 1024 * 1024;
+
+  /**
+   * Default size of a block of output buffered in memory
+   */
+  private static final int DEFAULT_OUTPUT_BLOCK_SIZE = 32 * 1024 * 1024;
+
+  /**
+   * Default limit of the output buffered in memory across the JVM
+   */
+  private static final long DEFAULT_OUTPUT_MEMORY_LIMIT = 256 * 1024 * 1024;
+
+  /**
+   * Default number of threads for segment uploads
+   */
+  private static final int DEFAULT_OUTPUT_UPLOAD_THREADS = 8;
+
+  /**
+   * Default number of segments of a stream queued or in flight
+   */
+  private static final int DEFAULT_OUTPUT_UPLOAD_ACTIVE_BLOCKS = 4;
+
+  /**
+   * Default number of retries of a failed segment upload
+   */
+  private static final int DEFAULT_OUTPUT_UPLOAD_RETRIES = 3;
+
+  /**
+   * Default time in milliseconds before the first retry of a segment
+   */
+  private static final long DEFAULT_OUTPUT_UPLOAD_RETRY_INTERVAL = 1000;
+
+  /**
+   * Default number of directories known to exist which are remembered
+   */
+  private static final int DEFAULT_DIRECTORY_CACHE_SIZE = 1000;
+
   /**
    * path to user work directory for storing temporary files
    */
@@ -62,6 +154,48 @@ public class SwiftNativeFileSystem extends FileSystem {
    */
   private SwiftNativeFileSystemStore store;
 
+  /**
+   * Options of the input streams opened by this filesystem
+   */
+  private SwiftInputStreamOptions inputStreamOptions;
+
+  /**
+   * Prefetch counters of all the input streams of this filesystem
+   */
+  private final SwiftPrefetchStatistics prefetchStatistics =
+    new SwiftPrefetchStatistics();
+
+  /**
+   * Thread pool for background reads
+   */
+  private ExecutorService readPool;
+
+  /**
+   * Options of the output streams created by this filesystem
+   */
+  private SwiftOutputStreamOptions outputStreamOptions;
+
+  /**
+   * Thread pool for segment uploads
+   */
+  private ExecutorService uploadPool;
+
+  /**
+   * Threads of streaming uploads, one for each open streaming file;
+   * null unless output is streamed
+   */
+  private ExecutorService streamingPool;
+
+  /**
+   * Directories known to exist; null if they are not remembered
+   */
+  private SwiftKnownDirectories knownDirectories;
+
+  /**
+   * Create the parent directories of new files when they are closed
+   */
+  private boolean lazyParents;
+
   /**
    * Default constructor for Hadoop
    */
@@ -77,6 +211,16 @@ public class SwiftNativeFileSystem extends FileSystem {
     this.store = store;
   }
 
+  /**
+   * Get the prefetch counters of all the input streams opened by this
+   * filesystem: the ranges fetched, how many were ready when read, how
+   * often prefetching restarted, and the bytes fetched but never read.
+   * @return the prefetch statistics
+   */
+  public SwiftPrefetchStatistics getPrefetchStatistics() {
+    return prefetchStatistics;
+  }
+
   /**
    * This is for testing
    * @return the inner store class
@@ -108,10 +252,131 @@ public class SwiftNativeFileSystem extends FileSystem {
       LOG.debug("Initializing SwiftNativeFileSystem against URI " + uri
               + " and working dir " + workingDir);
     }
+    int readThreads = SwiftUtils.getIntOption(conf,
+                                              SWIFT_READ_THREADS,
+                                              DEFAULT_READ_THREADS,
+                                              1);
+    inputStreamOptions = new SwiftInputStreamOptions()
+      .setForwardSkip(SwiftUtils.getLongOption(conf,
+                                               SWIFT_READ_FORWARD_SKIP,
+                                               DEFAULT_READ_FORWARD_SKIP,
+                                               0))
+      .setInputPolicy(SwiftInputPolicy.fromString(
+        conf.get(SWIFT_READ_POLICY, SwiftInputPolicy.ADAPTIVE.toString())))
+      .setRandomRange(SwiftUtils.getLongOption(conf,
+                                               SWIFT_READ_RANDOM_RANGE,
+                                               DEFAULT_READ_RANDOM_RANGE,
+                                               1))
+      .setVectoredMergeGap(SwiftUtils.getLongOption(conf,
+                                         SWIFT_READ_VECTORED_MERGE_GAP,
+                                         DEFAULT_READ_VECTORED_MERGE_GAP,
+                                         0))
+      .setVectoredMaxMergedSize(SwiftUtils.getIntOption(conf,
+                                         SWIFT_READ_VECTORED_MAX_MERGED_SIZE,
+                                         DEFAULT_READ_VECTORED_MAX_MERGED_SIZE,
+                                         1))
+      .setPrefetchDepth(SwiftUtils.getIntOption(conf,
+                                         SWIFT_READ_PREFETCH_DEPTH,
+                                         0,
+                                         0))
+      .setPrefetchRangeSize(SwiftUtils.getIntOption(conf,
+                                         SWIFT_READ_PREFETCH_RANGE_SIZE,
+                                         DEFAULT_READ_PREFETCH_RANGE_SIZE,
+                                         1))
+      .setSegmentParallelism(SwiftUtils.getIntOption(conf,
+                                         SWIFT_READ_SEGMENT_PARALLELISM,
+                                         0,
+                                         0));
+    SwiftOutputBlockFactory outputBlockFactory =
+      new SwiftOutputBlockFactory(conf,
+        SwiftOutputBuffer.fromString(
+          conf.get(SWIFT_OUTPUT_BUFFER, SwiftOutputBuffer.DISK.toString())),
+        SwiftUtils.getIntOption(conf,
+                                SWIFT_OUTPUT_BLOCK_SIZE,
+                                DEFAULT_OUTPUT_BLOCK_SIZE,
+                                1),
+        SwiftUtils.getLongOption(conf,
+                                 SWIFT_OUTPUT_SEGMENT_SIZE,
+                                 SwiftOutputBlockFactory.DEFAULT_DISK_PARTITION_SIZE,
+                                 1),
+        SwiftUtils.getLongOption(conf,
+                                 SWIFT_OUTPUT_MEMORY_LIMIT,
+                                 DEFAULT_OUTPUT_MEMORY_LIMIT,
+                                 1),
+        conf.getBoolean(SWIFT_OUTPUT_MEMORY_FALLBACK, true));
+    int uploadThreads = SwiftUtils.getIntOption(conf,
+                                         SWIFT_OUTPUT_UPLOAD_THREADS,
+                                         DEFAULT_OUTPUT_UPLOAD_THREADS,
+                                         1);
+    outputStreamOptions = new SwiftOutputStreamOptions()
+      .setBlockFactory(outputBlockFactory)
+      .setActiveUploads(SwiftUtils.getIntOption(conf,
+                                         SWIFT_OUTPUT_UPLOAD_ACTIVE_BLOCKS,
+                                         DEFAULT_OUTPUT_UPLOAD_ACTIVE_BLOCKS,
+                                         1))
+      .setStaticManifest(conf.getBoolean(SWIFT_OUTPUT_STATIC_LARGE_OBJECTS,
+                                         false))
+      .setStreaming(conf.getBoolean(SWIFT_OUTPUT_STREAMING, false))
+      .setUploadRetries(SwiftUtils.getIntOption(conf,
+                                         SWIFT_OUTPUT_UPLOAD_RETRIES,
+                                         DEFAULT_OUTPUT_UPLOAD_RETRIES,
+                                         0))
+      .setUploadRetryInterval(SwiftUtils.getLongOption(conf,
+                                         SWIFT_OUTPUT_UPLOAD_RETRY_INTERVAL,
+                                         DEFAULT_OUTPUT_UPLOAD_RETRY_INTERVAL,
+                                         0));
     store.initialize(uri, conf);
+    readPool = SwiftUtils.newDaemonThreadPool("swift-read", readThreads);
+    uploadPool = SwiftUtils.newDaemonThreadPool("swift-upload", uploadThreads);
+    inputStreamOptions.setExecutor(readPool)
+      .setPrefetchStatistics(prefetchStatistics);
+    outputStreamOptions.setUploadExecutor(uploadPool);
+    if (outputStreamOptions.isStreaming()) {
+      //a streaming upload lasts as long as its stream is open, so it
+      //must never wait in a queue behind those of other streams
+      streamingPool = SwiftUtils.newUnboundedDaemonThreadPool(
+        "swift-stream-upload");
+      outputStreamOptions.setStreamingExecutor(streamingPool);
+    }
+    int directoryCacheSize = SwiftUtils.getIntOption(conf,
+                                         SWIFT_DIRECTORY_CACHE_SIZE,
+                                         DEFAULT_DIRECTORY_CACHE_SIZE,
+                                         0);
+    knownDirectories = directoryCacheSize > 0
+                       ? new SwiftKnownDirectories(directoryCacheSize)
+                       : null;
+    lazyParents = conf.getBoolean(SWIFT_CREATE_LAZY_PARENTS, false);
     LOG.debug("SwiftFileSystem initialized");
   }
 
+  /**
+   * Close the filesystem and the connections to the object store
+   * @throws IOException on a failure in the superclass
+   */
+  @Override
+  public void close() throws IOException {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Closing " + uri + " prefetch: " + prefetchStatistics);
+    }
+    try {
+      super.close();
+    } finally {
+      if (readPool != null) {
+        readPool.shutdownNow();
+      }
+      if (uploadPool != null) {
+        //let queued uploads finish; streams still open upload inline
+        uploadPool.shutdown();
+      }
+      if (streamingPool != null) {
+        streamingPool.shutdown();
+      }
+      if (store != null) {
+        store.close();
+      }
+    }
+  }
+
   /**
    * @return path to Swift
    */
@@ -155,6 +420,21 @@ public class SwiftNativeFileSystem extends FileSystem {
     return store.getObjectMetadata(f);
   }
 
+  /**
+   * Get the checksum of a file: the MD5 checksum of its data, computed
+   * when it was written, which is read from its metadata without
+   * reading the data.
+   *
+   * @param f file
+   * @return the checksum, or null if it is not known -such as for
+   * segmented files written without one- or the path is a directory
+   * @throws IOException on a problem
+   */
+  @Override
+  public FileChecksum getFileChecksum(Path f) throws IOException {
+    return store.getFileChecksum(makeAbsolute(f));
+  }
+
 
   @Override
   public boolean isFile(Path f) throws IOException {
@@ -231,9 +511,10 @@ public class SwiftNativeFileSystem extends FileSystem {
       LOG.debug("SwiftFileSystem.mkdirs: " + path);
     }
     Path absolutePath = makeAbsolute(path);
-    //build a list of paths to create, with shortest one at the front
+    //build a list of paths to create, with shortest one at the front,
+    //stopping at the first directory known to exist
     List<Path> paths = new ArrayList<Path>();
-    while (!absolutePath.isRoot()) {
+    while (!absolutePath.isRoot() && !isKnownDirectory(absolutePath)) {
       paths.add(0, absolutePath);
       absolutePath = absolutePath.getParent();
     }
@@ -242,11 +523,48 @@ public class SwiftNativeFileSystem extends FileSystem {
     for (Path p : paths) {
       if (p.getParent() != null) {
         result &= mkdir(p);
+        if (knownDirectories != null) {
+          knownDirectories.add(p);
+        }
       }
     }
     return result;
   }
 
+  /**
+   * @param path absolute path
+   * @return true if the path is remembered as an existing directory
+   */
+  private boolean isKnownDirectory(Path path) {
+    return knownDirectories != null && knownDirectories.contains(path);
+  }
+
+  /**
+   * Forget any directories known at or under a path which is
+   * being deleted or renamed
+   * @param path absolute path
+   */
+  private void forgetDirectories(Path path) {
+    if (knownDirectories != null) {
+      knownDirectories.removeTree(path);
+    }
+  }
+
+  /**
+   * Create the parent directories of a file, unless the parent is
+   * known to exist
+   * @param file absolute path of the file
+   * @throws IOException if they could not be created
+   */
+  private void createParents(Path file) throws IOException {
+    Path parent = file.getParent();
+    if (parent != null && !parent.isRoot() && !isKnownDirectory(parent)) {
+      if (!mkdirs(parent)) {
+        throw new SwiftException("Mkdirs failed to create " + parent.toString());
+      }
+    }
+  }
+
   /**
    * internal implementation of directory creation
    *
@@ -314,31 +632,57 @@ public class SwiftNativeFileSystem extends FileSystem {
           throws IOException {
     LOG.debug("SwiftFileSystem.create");
 
+    final Path absolutePath = makeAbsolute(file);
     FileStatus fileStatus = null;
     try {
-      fileStatus = getFileStatus(makeAbsolute(file));
+      fileStatus = getFileStatus(absolutePath);
     } catch (FileNotFoundException e) {
       //nothing to do
     }
+    boolean parentsNeeded = false;
     if (fileStatus != null && !SwiftUtils.isDirectory(fileStatus)) {
-      if (overwrite) {
-        delete(file, true);
-      } else {
+      if (!overwrite) {
         throw new SwiftException("File already exists: " + file);
       }
+      //the upload replaces the existing object atomically:
+      //there is no need to delete it first
+    } else if (lazyParents) {
+      parentsNeeded = true;
     } else {
-      Path parent = file.getParent();
-      if (parent != null && !parent.isRoot()) {
-        if (!mkdirs(parent)) {
-          throw new SwiftException("Mkdirs failed to create " + parent.toString());
-        }
-      }
+      createParents(absolutePath);
     }
 
-    SwiftNativeOutputStream out = new SwiftNativeOutputStream(getConf(),
-            store,
-            file.toUri()
-                    .toString());
+    OutputStream out;
+    if (outputStreamOptions.isStreaming()) {
+      out = new SwiftStreamingOutputStream(store,
+              file.toUri().toString(),
+              outputStreamOptions,
+              fileStatus != null);
+    } else {
+      out = new SwiftNativeOutputStream(store,
+              file.toUri().toString(),
+              outputStreamOptions);
+    }
+    if (parentsNeeded) {
+      out = new FilterOutputStream(out) {
+        private boolean closed;
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+          if (closed) {
+            return;
+          }
+          closed = true;
+          out.close();
+          createParents(absolutePath);
+        }
+      };
+    }
     return new FSDataOutputStream(out, statistics);
   }
 
@@ -350,9 +694,30 @@ public class SwiftNativeFileSystem extends FileSystem {
    */
   @Override
   public FSDataInputStream open(Path path, int bufferSize) throws IOException {
+    return open(path, bufferSize, inputStreamOptions.getInputPolicy());
+  }
+
+  /**
+   * Opens an FSDataInputStream at the indicated Path with an explicit
+   * input policy, overriding that of the filesystem.
+   *
+   * @param path       the file name to open
+   * @param bufferSize the size of the buffer to be used.
+   * @param policy     the input policy of the stream
+   * @return the stream
+   * @throws IOException IO problems
+   * @throws FileNotFoundException if the file does not exist
+   */
+  public FSDataInputStream open(Path path,
+                                int bufferSize,
+                                SwiftInputPolicy policy) throws IOException {
+    SwiftInputStreamOptions options =
+      inputStreamOptions.copy().setInputPolicy(policy);
     return new FSDataInputStream(
-            new BufferedFSInputStream(
-                    new SwiftNativeInputStream(store, statistics, path), bufferSize));
+            new SwiftBufferedInputStream(
+                    new SwiftNativeInputStream(store, statistics, path,
+                                               options),
+                    bufferSize));
   }
 
   private static String pathToKey(Path path) {
@@ -384,6 +749,7 @@ public class SwiftNativeFileSystem extends FileSystem {
   public boolean rename(Path src, Path dst) throws IOException {
 
     try {
+      forgetDirectories(makeAbsolute(src));
       store.rename(makeAbsolute(src), makeAbsolute(dst));
       //success
       return true;
@@ -606,6 +972,7 @@ public class SwiftNativeFileSystem extends FileSystem {
    */
   private boolean innerDelete(Path path, boolean recursive) throws IOException {
     Path target = makeAbsolute(path);
+    forgetDirectories(target);
     final FileStatus fileStatus;
     fileStatus = getFileStatus(path);
     if (LOG.isDebugEnabled()) {
@@ -24,16 +24,22 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.swift.exceptions.SwiftChecksumMismatchException;
 import org.apache.hadoop.fs.swift.exceptions.SwiftConfigurationException;
 import org.apache.hadoop.fs.swift.exceptions.SwiftException;
 import org.apache.hadoop.fs.swift.exceptions.SwiftInvalidResponseException;
 import org.apache.hadoop.fs.swift.exceptions.SwiftOperationFailedException;
 import org.apache.hadoop.fs.swift.http.SwiftProtocolConstants;
 import org.apache.hadoop.fs.swift.http.SwiftRestClient;
+import org.apache.hadoop.fs.swift.util.JSONUtil;
+import org.apache.hadoop.fs.swift.util.LocalDiskCache;
 import org.apache.hadoop.fs.swift.util.SwiftObjectPath;
 import org.apache.hadoop.fs.swift.util.SwiftUtils;
+import org.codehaus.jackson.type.TypeReference;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -42,6 +48,7 @@ import java.net.URISyntaxException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -60,9 +67,20 @@ public class SwiftNativeFileSystemStore {
   private static final String PATTERN = "EEE, d MMM yyyy hh:mm:ss zzz";
   private static final Log LOG =
           LogFactory.getLog(SwiftNativeFileSystemStore.class);
+  /**
+   * Number of entries the server returns for each listing request
+   */
+  private static final int LISTING_PAGE_SIZE = 10000;
+  private static final long DEFAULT_CACHE_CAPACITY = 10L * 1024 * 1024 * 1024;
+  private static final int DEFAULT_CACHE_BLOCK_SIZE = 8 * 1024 * 1024;
   private URI uri;
   private SwiftRestClient swiftRestClient;
 
+  /**
+   * Local cache of object data; null if caching is disabled
+   */
+  private SwiftObjectCache objectCache;
+
   /**
    * Initalize the filesystem store -this creates the REST client binding.
    *
@@ -74,6 +92,38 @@ public class SwiftNativeFileSystemStore {
   public void initialize(URI fsURI, Configuration configuration) throws IOException {
     this.uri = fsURI;
     this.swiftRestClient = SwiftRestClient.getInstance(fsURI, configuration);
+    String cacheDir = configuration.get(SwiftProtocolConstants.SWIFT_CACHE_DIR);
+    if (cacheDir != null && !cacheDir.trim().isEmpty()) {
+      long capacity = SwiftUtils.getLongOption(configuration,
+              SwiftProtocolConstants.SWIFT_CACHE_CAPACITY,
+              DEFAULT_CACHE_CAPACITY,
+              1);
+      int blockSize = SwiftUtils.getIntOption(configuration,
+              SwiftProtocolConstants.SWIFT_CACHE_BLOCK_SIZE,
+              DEFAULT_CACHE_BLOCK_SIZE,
+              1);
+      boolean validate = configuration.getBoolean(
+              SwiftProtocolConstants.SWIFT_CACHE_VALIDATE, false);
+      objectCache = new SwiftObjectCache(
+              new LocalDiskCache(new File(cacheDir.trim()), capacity),
+              swiftRestClient,
+              fsURI.getScheme() + "://" + fsURI.getAuthority(),
+              blockSize,
+              validate);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Caching objects with " + objectCache);
+      }
+    }
+  }
+
+  /**
+   * Close the store, releasing the pooled HTTP connections of the
+   * REST client.
+   */
+  public void close() {
+    if (swiftRestClient != null) {
+      swiftRestClient.close();
+    }
   }
 
   @Override
@@ -91,7 +141,34 @@ public class SwiftNativeFileSystemStore {
    * @throws IOException on a problem
    */
   public void uploadFile(Path path, InputStream inputStream, long length) throws IOException {
-    swiftRestClient.upload(toObjectPath(path), inputStream, length);
+    uploadFile(path, inputStream, length, null);
+  }
+
+  /**
+   * Upload a file whose MD5 checksum is known. The checksum is sent as
+   * the ETag of the request, so that Swift rejects corrupted data, and
+   * checked against the ETag of the response.
+   *
+   * @param path destination path in the swift filesystem
+   * @param inputStream input data
+   * @param length length of the data; -1 if it is not known, in which
+   * case the data is streamed with chunked transfer encoding
+   * @param md5 MD5 checksum of the data in hex; may be null
+   * @return the ETag of the object; null if none was returned
+   * @throws SwiftChecksumMismatchException if the data was corrupted
+   * @throws IOException on a problem
+   */
+  public String uploadFile(Path path, InputStream inputStream, long length,
+                           String md5) throws IOException {
+    invalidateCachedObject(toObjectPath(path));
+    String etag;
+    try {
+      etag = upload(toObjectPath(path), inputStream, length, md5);
+    } finally {
+      invalidateCachedObject(toObjectPath(path));
+    }
+    SwiftUtils.verifyETag(path.toString(), etag, md5);
+    return etag;
   }
 
   /**
@@ -100,18 +177,122 @@ public class SwiftNativeFileSystemStore {
    * @param path destination path
    * @param partNumber item number in the path
    * @param inputStream input data
-   * @param length length of the data
+   * @param length length of the data; -1 if it is not known, in which
+   * case the data is streamed with chunked transfer encoding
+   * @param md5 MD5 checksum of the data in hex, sent and verified
+   * as its ETag; may be null
+   * @return the segment: its path, ETag and length
+   * @throws SwiftChecksumMismatchException if the data was corrupted
+   * @throws IOException on a problem
+   */
+  public SwiftSegment uploadFilePart(Path path, int partNumber,
+                                     InputStream inputStream, long length,
+                                     String md5) throws IOException {
+    SwiftObjectPath partPath = toPartPath(path, partNumber);
+    String etag = upload(partPath, inputStream, length, md5);
+    SwiftUtils.verifyETag(partPath.toString(), etag, md5);
+    return new SwiftSegment("/" + partPath.toUriPath(), etag, length);
+  }
+
+  /**
+   * Turn an uploaded object into the first part of a larger file, by
+   * copying it to the path of that part within Swift.
+   *
+   * @param path path of the object, and of the file
+   * @param partNumber item number in the path
+   * @param etag ETag of the object
+   * @param length length of the object
+   * @return the segment: its path, ETag and length
+   * @throws IOException on a problem
+   */
+  public SwiftSegment copyToFilePart(Path path, int partNumber, String etag,
+                                     long length) throws IOException {
+    SwiftObjectPath partPath = toPartPath(path, partNumber);
+    if (!swiftRestClient.copyObject(toObjectPath(path), partPath)) {
+      throw new SwiftException("Copy of " + path + " to " + partPath
+                               + " failed");
+    }
+    return new SwiftSegment("/" + partPath.toUriPath(), etag, length);
+  }
+
+  /**
+   * Make the only uploaded part of a file the file itself, by copying
+   * it to the path of the file within Swift, then deleting the part.
+   *
+   * @param path path of the file
+   * @param partNumber item number of the part in the path
+   * @throws IOException on a problem
+   */
+  public void publishFilePart(Path path, int partNumber) throws IOException {
+    copyThenDeleteObject(toPartPath(path, partNumber), toObjectPath(path));
+  }
+
+  /**
+   * Delete the parts under the path of a file which are not among its
+   * own: those left by an earlier segmented file it overwrites -parts
+   * numbered beyond its last one, or named the unpadded way of earlier
+   * versions- which the prefix of a Dynamic Large Object manifest would
+   * otherwise take in.
+   *
+   * @param path path of the file
+   * @param partCount number of parts of the file
    * @throws IOException on a problem
    */
-  public void uploadFilePart(Path path, int partNumber, InputStream inputStream, long length) throws IOException {
+  public void deleteStaleFileParts(Path path, int partCount)
+    throws IOException {
+    String dir = path.toUri().getPath();
+    for (FileStatus part : listManifestSegments(path, toManifestPrefix(path))) {
+      Path partPath = part.getPath();
+      if (!dir.equals(partPath.getParent().toUri().getPath())) {
+        continue;
+      }
+      if (SwiftUtils.isStalePartitionFilename(partPath.getName(), partCount)) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Deleting stale part " + partPath);
+        }
+        deleteObject(partPath);
+      }
+    }
+  }
+
+  /**
+   * Build the path of a part of a file uploaded in segments
+   * @param path path of the file
+   * @param partNumber item number in the path
+   * @return the path of the part
+   * @throws SwiftConfigurationException if the path is invalid
+   */
+  private SwiftObjectPath toPartPath(Path path, int partNumber)
+    throws SwiftConfigurationException {
     String stringPath = path.toUri().toString();
     if (stringPath.endsWith("/")) {
-      stringPath = stringPath.concat(String.valueOf(partNumber));
+      stringPath = stringPath.concat(
+        SwiftUtils.partitionFilenameFromNumber(partNumber));
     } else {
-      stringPath = stringPath.concat("/").concat(String.valueOf(partNumber));
+      stringPath = stringPath.concat("/").concat(
+        SwiftUtils.partitionFilenameFromNumber(partNumber));
     }
+    return new SwiftObjectPath(toDirPath(path).getContainer(), stringPath);
+  }
 
-    swiftRestClient.upload(new SwiftObjectPath(toDirPath(path).getContainer(), stringPath), inputStream, length);
+  /**
+   * Upload data, streaming it if its length is not known
+   * @param objectPath destination
+   * @param inputStream input data
+   * @param length length of the data; -1 if it is not known
+   * @param md5 MD5 checksum of the data in hex, sent as its ETag;
+   * may be null
+   * @return the ETag of the object; null if none was returned
+   * @throws IOException on a problem
+   */
+  private String upload(SwiftObjectPath objectPath, InputStream inputStream,
+                        long length, String md5) throws IOException {
+    if (length < 0) {
+      return swiftRestClient.uploadChunked(objectPath, inputStream,
+                                           etagHeaders(md5));
+    }
+    return swiftRestClient.upload(objectPath, inputStream, length,
+                                  etagHeaders(md5));
   }
 
   /**
@@ -122,6 +303,44 @@ public class SwiftNativeFileSystemStore {
    * @throws IOException
    */
   public void createManifestForPartUpload(Path path) throws IOException {
+    createManifestForPartUpload(path, null);
+  }
+
+  /**
+   * Tell the Swift server to expect a multi-part upload by submitting
+   * a 0-byte file with the X-Object-Manifest header, recording the MD5
+   * checksum of the whole file in its metadata
+   *
+   * @param path path of final final
+   * @param md5 MD5 checksum of the whole file in hex; may be null
+   * @throws IOException
+   */
+  public void createManifestForPartUpload(Path path, String md5)
+    throws IOException {
+    invalidateCachedObject(toObjectPath(path));
+    List<Header> headers = new ArrayList<Header>();
+    headers.add(new Header(SwiftProtocolConstants.X_OBJECT_MANIFEST,
+                           toManifestPrefix(path)));
+    headers.addAll(Arrays.asList(md5MetadataHeaders(md5)));
+    try {
+      swiftRestClient.upload(toObjectPath(path),
+              new ByteArrayInputStream(new byte[0]),
+              0,
+              headers.toArray(new Header[headers.size()]));
+    } finally {
+      invalidateCachedObject(toObjectPath(path));
+    }
+  }
+
+  /**
+   * Build the value of the manifest header of a file uploaded in
+   * segments: "container/path/", the prefix of its parts
+   * @param path path of the file
+   * @return the manifest header
+   * @throws SwiftConfigurationException if the path is invalid
+   */
+  private String toManifestPrefix(Path path)
+    throws SwiftConfigurationException {
     String pathString = toObjectPath(path).toString();
     if (!pathString.endsWith("/")) {
       pathString = pathString.concat("/");
@@ -129,11 +348,114 @@ public class SwiftNativeFileSystemStore {
     if (pathString.startsWith("/")) {
       pathString = pathString.substring(1);
     }
+    return pathString;
+  }
 
-    swiftRestClient.upload(toObjectPath(path),
-            new ByteArrayInputStream(new byte[0]),
-            0,
-            new Header(SwiftProtocolConstants.X_OBJECT_MANIFEST, pathString));
+  /**
+   * Complete a multi-part upload as a Static Large Object: upload
+   * a manifest listing every segment, with its ETag and size.
+   * Swift checks the segments against the manifest, so the object is
+   * complete -and its length known- as soon as this returns.
+   *
+   * @param path path of the file
+   * @param segments segments, in order
+   * @param md5 MD5 checksum of the whole file in hex, recorded in the
+   * metadata of the object; may be null
+   * @throws IOException on a problem, including a rejected manifest
+   */
+  public void createStaticManifestForPartUpload(Path path,
+                                                List<SwiftSegment> segments,
+                                                String md5)
+    throws IOException {
+    invalidateCachedObject(toObjectPath(path));
+    byte[] manifest = JSONUtil.toJSON(segments).getBytes("UTF-8");
+    try {
+      swiftRestClient.uploadStaticLargeObjectManifest(toObjectPath(path),
+                                                      manifest,
+                                                      md5MetadataHeaders(md5));
+    } finally {
+      invalidateCachedObject(toObjectPath(path));
+    }
+  }
+
+  /**
+   * Build the request headers which send a checksum as an ETag
+   * @param md5 checksum; may be null
+   * @return the headers
+   */
+  private static Header[] etagHeaders(String md5) {
+    if (md5 == null) {
+      return new Header[0];
+    }
+    return new Header[] {
+      new Header(SwiftProtocolConstants.HEADER_ETAG, md5)
+    };
+  }
+
+  /**
+   * Build the request headers which record the checksum of a whole
+   * file in the metadata of its manifest
+   * @param md5 checksum; may be null
+   * @return the headers
+   */
+  private static Header[] md5MetadataHeaders(String md5) {
+    if (md5 == null) {
+      return new Header[0];
+    }
+    return new Header[] {
+      new Header(SwiftProtocolConstants.X_OBJECT_META_MD5, md5)
+    };
+  }
+
+  /**
+   * Get the checksum of a file: the MD5 checksum of its data.
+   * For a plain object this is its ETag; for a segmented file, whose
+   * ETag is derived from those of its segments, it is the checksum
+   * recorded in its metadata when it was written. A directory -which
+   * includes any empty object, see {@link SwiftUtils#isDirectory}-
+   * has no checksum.
+   *
+   * @param path path of the file
+   * @return the checksum, or null if it is not known or the path
+   * is a directory
+   * @throws IOException on a problem
+   * @throws FileNotFoundException if there is nothing at the end
+   */
+  public SwiftFileChecksum getFileChecksum(Path path) throws IOException {
+    Header[] headers = swiftRestClient.headRequest(toObjectPath(path),
+                                                   SwiftRestClient.NEWEST);
+    if (headers.length == 0) {
+      throw new FileNotFoundException("Not Found " + path.toUri());
+    }
+    String etag = null;
+    String md5 = null;
+    boolean segmented = false;
+    boolean isDir = false;
+    long length = 0;
+    for (Header header : headers) {
+      String name = header.getName();
+      if (name.equals(SwiftProtocolConstants.X_CONTAINER_OBJECT_COUNT)
+          || name.equals(SwiftProtocolConstants.X_CONTAINER_BYTES_USED)) {
+        isDir = true;
+      } else if (name.equals(SwiftProtocolConstants.HEADER_CONTENT_LENGTH)) {
+        length = Long.parseLong(header.getValue());
+      } else if (name.equalsIgnoreCase(SwiftProtocolConstants.X_OBJECT_META_MD5)) {
+        md5 = header.getValue();
+      } else if (name.equalsIgnoreCase(SwiftProtocolConstants.HEADER_ETAG)) {
+        etag = SwiftUtils.unquoteETag(header.getValue());
+      } else if (name.equalsIgnoreCase(SwiftProtocolConstants.X_OBJECT_MANIFEST)
+                 || name.equalsIgnoreCase(
+                      SwiftProtocolConstants.X_STATIC_LARGE_OBJECT)) {
+        segmented = true;
+      }
+    }
+    if (isDir || length == 0) {
+      return null;
+    }
+    if (md5 == null && !segmented) {
+      md5 = etag;
+    }
+    return SwiftFileChecksum.fromHex(md5);
   }
 
   /**
@@ -157,6 +479,7 @@ public class SwiftNativeFileSystemStore {
     boolean isDir = false;
     long length = 0;
     long lastModified = System.currentTimeMillis();
+    String manifest = null;
     for (Header header : headers) {
       String headerName = header.getName();
       if (headerName.equals(SwiftProtocolConstants.X_CONTAINER_OBJECT_COUNT) ||
@@ -167,6 +490,9 @@ public class SwiftNativeFileSystemStore {
       if (SwiftProtocolConstants.HEADER_CONTENT_LENGTH.equals(headerName)) {
         length = Long.parseLong(header.getValue());
       }
+      if (SwiftProtocolConstants.X_OBJECT_MANIFEST.equalsIgnoreCase(headerName)) {
+        manifest = header.getValue();
+      }
       if (SwiftProtocolConstants.HEADER_LAST_MODIFIED.equals(headerName)) {
         final SimpleDateFormat simpleDateFormat = new SimpleDateFormat(PATTERN);
         try {
@@ -178,7 +504,8 @@ public class SwiftNativeFileSystemStore {
     }
 
     Path correctSwiftPath = getCorrectSwiftPath(path);
-    return new SwiftFileStatus(length, isDir, 0, 0L, lastModified, correctSwiftPath);
+    return new SwiftFileStatus(length, isDir, 0, 0L, lastModified,
+            correctSwiftPath, manifest);
   }
 
 
@@ -191,6 +518,14 @@ public class SwiftNativeFileSystemStore {
    * @throws FileNotFoundException path doesn't resolve to an object
    */
   public InputStream getObject(Path path) throws IOException {
+    if (objectCache != null) {
+      try {
+        return objectCache.open(toObjectPath(path), 0, -1);
+      } catch (EOFException e) {
+        //an empty object
+        return new ByteArrayInputStream(new byte[0]);
+      }
+    }
     return swiftRestClient.getDataAsInputStream(toObjectPath(path),
             SwiftRestClient.NEWEST);
   }
@@ -206,10 +541,84 @@ public class SwiftNativeFileSystemStore {
    */
   public InputStream getObject(Path path, long byteRangeStart, long length)
           throws IOException {
+    if (objectCache != null) {
+      return objectCache.open(toObjectPath(path), byteRangeStart, length);
+    }
     return swiftRestClient.getDataAsInputStream(
             toObjectPath(path), byteRangeStart, length);
   }
 
+  /**
+   * Get the input stream from a specific point to the end of the object.
+   *
+   * @param path path to object
+   * @param byteRangeStart starting point
+   * @return an input stream that must be closed
+   * @throws IOException IO problems
+   * @throws java.io.EOFException the start is past the end of the object
+   */
+  public InputStream getObject(Path path, long byteRangeStart)
+          throws IOException {
+    if (objectCache != null) {
+      return objectCache.open(toObjectPath(path), byteRangeStart, -1);
+    }
+    return swiftRestClient.getDataAsInputStream(
+            toObjectPath(path), byteRangeStart);
+  }
+
+  /**
+   * List the segments of a manifest object, in the order in which
+   * Swift concatenates them: that of their names.
+   * Only segments in the container of this filesystem can be listed;
+   * for a manifest whose segments are elsewhere, the list is empty.
+   *
+   * @param path path of the manifest object
+   * @param manifest value of its manifest header, "container/prefix"
+   * @return the status of each segment, with its length
+   * @throws IOException IO problems
+   */
+  public List<FileStatus> listManifestSegments(Path path, String manifest)
+          throws IOException {
+    int split = manifest.indexOf('/');
+    String container = split < 0 ? manifest : manifest.substring(0, split);
+    String prefix = split < 0 ? "" : manifest.substring(split + 1);
+    final List<FileStatus> segments = new ArrayList<FileStatus>();
+    if (!container.equals(toObjectPath(path).getContainer())) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Segments of " + path + " are outside this filesystem: "
+                  + manifest);
+      }
+      return segments;
+    }
+    String marker = null;
+    while (true) {
+      List<SwiftObjectFileStatus> page;
+      try {
+        byte[] bytes = swiftRestClient.listObjectsAsJSON(container,
+                prefix, marker);
+        page = JSONUtil.toObject(new String(bytes, "UTF-8"),
+                new TypeReference<List<SwiftObjectFileStatus>>() {
+                });
+      } catch (SwiftInvalidResponseException e) {
+        if (e.getStatusCode() == HttpStatus.SC_NO_CONTENT) {
+          //no more entries
+          break;
+        }
+        throw e;
+      }
+      for (SwiftObjectFileStatus entry : page) {
+        segments.add(new SwiftFileStatus(entry.getBytes(), false, 1, 0L, 0L,
+                getCorrectSwiftPath(new SwiftObjectPath(container,
+                        "/" + entry.getName()))));
+      }
+      if (page.size() < LISTING_PAGE_SIZE) {
+        break;
+      }
+      marker = page.get(page.size() - 1).getName();
+    }
+    return segments;
+  }
+
   /**
    * List all elements in this directory
    *
@@ -286,7 +695,12 @@ public class SwiftNativeFileSystemStore {
   public boolean deleteObject(Path path) throws IOException {
     SwiftObjectPath swiftObjectPath = toObjectPath(path);
     if (!SwiftUtils.isRootDir(swiftObjectPath)) {
-      return swiftRestClient.delete(swiftObjectPath);
+      invalidateCachedObject(swiftObjectPath);
+      try {
+        return swiftRestClient.delete(swiftObjectPath);
+      } finally {
+        invalidateCachedObject(swiftObjectPath);
+      }
     } else {
       if (LOG.isDebugEnabled()) {
         LOG.debug("Not deleting root directory entry");
@@ -531,7 +945,12 @@ public class SwiftNativeFileSystemStore {
   public void copy(Path srcKey, Path dstKey) throws IOException {
     SwiftObjectPath srcObject = toObjectPath(srcKey);
     SwiftObjectPath destObject = toObjectPath(dstKey);
-    swiftRestClient.copyObject(srcObject, destObject);
+    invalidateCachedObject(destObject);
+    try {
+      swiftRestClient.copyObject(srcObject, destObject);
+    } finally {
+      invalidateCachedObject(destObject);
+    }
   }
 
 
@@ -548,13 +967,34 @@ public class SwiftNativeFileSystemStore {
                                       SwiftObjectPath destObject) throws
                                                                   IOException {
     LOG.debug("Copying " + srcObject + " to " + destObject);
-    boolean copySucceeded = swiftRestClient.copyObject(srcObject, destObject);
-    if (copySucceeded) {
-      //if the copy worked delete the original
-      swiftRestClient.delete(srcObject);
-    } else {
-      throw new SwiftException("Copy of " + srcObject + " to "
-                               + destObject + "failed");
+    invalidateCachedObject(srcObject);
+    invalidateCachedObject(destObject);
+    try {
+      boolean copySucceeded = swiftRestClient.copyObject(srcObject,
+                                                         destObject);
+      if (copySucceeded) {
+        //if the copy worked delete the original
+        swiftRestClient.delete(srcObject);
+      } else {
+        throw new SwiftException("Copy of " + srcObject + " to "
+                                 + destObject + "failed");
+      }
+    } finally {
+      invalidateCachedObject(srcObject);
+      invalidateCachedObject(destObject);
+    }
+  }
+
+  /**
+   * Drop the cached version of an object which is being changed,
+   * so that later reads through this host's cache see the change.
+   * Writes call this both before and after the change: a read which
+   * runs while the change is in flight may cache the old version again.
+   * @param objectPath object path
+   */
+  private void invalidateCachedObject(SwiftObjectPath objectPath) {
+    if (objectCache != null) {
+      objectCache.invalidate(objectPath);
     }
   }
 
@@ -18,22 +18,63 @@
 
 package org.apache.hadoop.fs.swift.snative;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.ByteBufferReadable;
 import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.swift.exceptions.SwiftException;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
- * Wrapper for input stream
+ * Wrapper for input stream.
+ *
+ * Seeks are lazy: {@link #seek(long)} only records the new position,
+ * which is resolved on the next read. A forward seek of no more than
+ * the forward skip limit is served by reading and discarding data from the
+ * open HTTP stream; anything else closes the stream and opens a new
+ * GET at the target position.
+ *
+ * How much data each GET asks for is set by the {@link SwiftInputPolicy}:
+ * open-ended requests when reading sequentially, small ranges when
+ * reading with random access.
+ *
+ * Positioned reads are not synchronized: each one issues its own ranged
+ * GET, leaving the position and open stream of the sequential reader
+ * untouched, so many threads can read the same file concurrently.
+ * Vectored reads go further: nearby ranges are merged into single GETs,
+ * which are fetched in parallel on the filesystem's thread pool.
+ *
+ * If prefetching is enabled and the policy is not random, sequential
+ * reads are served by a {@link SwiftPrefetcher}, which keeps the next
+ * ranges of the file in flight on that thread pool.
+ * If segment parallelism is enabled and the file is a manifest object,
+ * its segments are listed once and the prefetcher reads them directly,
+ * several ranges at a time.
  */
-class SwiftNativeInputStream extends FSInputStream {
+class SwiftNativeInputStream extends FSInputStream
+  implements ByteBufferReadable, SwiftVectoredReadable {
+  private static final Log LOG =
+    LogFactory.getLog(SwiftNativeInputStream.class);
+
+  /**
+   * Size of the buffer used to discard data when skipping forward
+   */
+  private static final int SKIP_BUFFER_SIZE = 8192;
 
   /**
-   * Default buffer size 64mb
+   * Size of the buffer through which data is copied into direct buffers
    */
-  private static final long BUFFER_SIZE = 64 * 1024 * 1024;
+  private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
 
   /**
    * File nativeStore instance
@@ -56,31 +97,188 @@ class SwiftNativeInputStream extends FSInputStream {
   private final Path path;
 
   /**
-   * Current position
+   * Position of the open HTTP stream in the file
    */
   private long pos = 0;
 
+  /**
+   * Position of the next byte to return to the caller; this
+   * differs from {@link #pos} after a seek until the next read.
+   */
+  private long nextReadPos = 0;
+
+  /**
+   * Offset in the file of the end of the requested range of the
+   * open stream (exclusive)
+   */
+  private long rangeEnd;
+
+  /**
+   * Maximum number of bytes to discard from the open stream
+   * on a forward seek
+   */
+  private final long forwardSkipLimit;
+
+  /**
+   * The input policy of this stream
+   */
+  private final SwiftInputPolicy inputPolicy;
+
+  /**
+   * Minimum number of bytes to request in random access mode
+   */
+  private final long randomRange;
+
+  /**
+   * Is the stream currently reading with random access?
+   * Fixed for the sequential and random policies; changes with
+   * the seek pattern for the adaptive one.
+   */
+  private boolean randomAccess;
+
+  /**
+   * Maximum gap between two ranges of a vectored read fetched in one GET
+   */
+  private final long vectoredMergeGap;
+
+  /**
+   * Maximum size of a merged range of a vectored read
+   */
+  private final long vectoredMaxMergedSize;
+
+  /**
+   * Executor of vectored reads
+   */
+  private final ExecutorService executor;
+
+  /**
+   * Prefetcher serving sequential reads; null if prefetching is disabled
+   */
+  private final SwiftPrefetcher prefetcher;
+
+  /**
+   * Buffer for single byte reads from the prefetcher
+   */
+  private final byte[] singleByte = new byte[1];
+
+  /**
+   * Buffer for reads into direct byte buffers from the HTTP stream;
+   * created on first use
+   */
+  private byte[] transferBuffer;
+
+  /**
+   * Has a read hit the end of the file?
+   */
+  private boolean endOfFile;
+
+  /**
+   * Has the stream been closed?
+   */
+  private volatile boolean closed;
+
   public SwiftNativeInputStream(SwiftNativeFileSystemStore storeNative,
                                 FileSystem.Statistics statistics,
-                                Path path)
+                                Path path,
+                                SwiftInputStreamOptions options)
           throws IOException {
     this.nativeStore = storeNative;
     this.statistics = statistics;
-    this.in = storeNative.getObject(path);
     this.path = path;
+    this.forwardSkipLimit = options.getForwardSkip();
+    this.inputPolicy = options.getInputPolicy();
+    this.randomRange = options.getRandomRange();
+    this.vectoredMergeGap = options.getVectoredMergeGap();
+    this.vectoredMaxMergedSize = options.getVectoredMaxMergedSize();
+    this.executor = options.getExecutor();
+    this.randomAccess = inputPolicy == SwiftInputPolicy.RANDOM;
+    if ((options.getPrefetchDepth() > 0 || options.getSegmentParallelism() > 0)
+        && inputPolicy != SwiftInputPolicy.RANDOM) {
+      //the length bounds the prefetching; this also reports a missing file
+      prefetcher = createPrefetcher(
+        storeNative.getObjectMetadata(path), options);
+    } else {
+      prefetcher = null;
+    }
+    if (prefetcher == null) {
+      //open the stream now, so that a missing file is reported on open()
+      reopen(0, 1);
+    }
+  }
+
+  /**
+   * Create the prefetcher of the stream, if one is needed
+   * @param status status of the file
+   * @param options stream options
+   * @return the prefetcher, or null if sequential reads are to be
+   * served by the stream itself
+   * @throws IOException on a failure to list the segments of a manifest
+   */
+  private SwiftPrefetcher createPrefetcher(FileStatus status,
+                                           SwiftInputStreamOptions options)
+    throws IOException {
+    if (options.getSegmentParallelism() > 0
+        && status instanceof SwiftFileStatus
+        && ((SwiftFileStatus) status).isManifest()) {
+      List<FileStatus> segments = nativeStore.listManifestSegments(path,
+        ((SwiftFileStatus) status).getManifest());
+      long segmentsLength = 0;
+      for (FileStatus segment : segments) {
+        segmentsLength += segment.getLen();
+      }
+      if (!segments.isEmpty() && segmentsLength == status.getLen()) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Reading " + segments.size() + " segments of " + path
+                    + " directly");
+        }
+        return new SwiftPrefetcher(nativeStore, path, segments,
+                                   options.getPrefetchRangeSize(),
+                                   Math.max(options.getPrefetchDepth(),
+                                            options.getSegmentParallelism()),
+                                   executor,
+                                   options.getPrefetchStatistics());
+      }
+      //segments still being written or deleted, or stored elsewhere:
+      //leave it to the proxy to assemble them
+      LOG.debug("Segments of " + path + " do not match its length of "
+                + status.getLen() + "; reading it as one object");
+    }
+    if (options.getPrefetchDepth() > 0) {
+      return new SwiftPrefetcher(nativeStore, path, status.getLen(),
+                                 options.getPrefetchRangeSize(),
+                                 options.getPrefetchDepth(),
+                                 executor,
+                                 options.getPrefetchStatistics());
+    }
+    return null;
   }
 
   @Override
   public synchronized int read() throws IOException {
+    if (prefetcher != null) {
+      int read = readPrefetched(singleByte, 0, 1);
+      return read < 0 ? -1 : (singleByte[0] & 0xff);
+    }
+    if (!seekInStream(1)) {
+      return -1;
+    }
     int result;
     try {
       result = in.read();
     } catch (IOException e) {
-      seek(pos);
+      if (!reopen(pos, 1)) {
+        return -1;
+      }
       result = in.read();
     }
+    if (result == -1 && isAtRangeEnd()) {
+      result = nextRange(1) ? in.read() : -1;
+    }
     if (result != -1) {
       pos++;
+      nextReadPos = pos;
+    } else {
+      endOfFile = true;
     }
     if (statistics != null && result != -1) {
       statistics.incrementBytesRead(1);
@@ -90,10 +288,25 @@ class SwiftNativeInputStream extends FSInputStream {
 
   @Override
   public synchronized int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (prefetcher != null) {
+      return readPrefetched(b, off, len);
+    }
+    if (!seekInStream(len)) {
+      return -1;
+    }
     int result;
     result = in.read(b, off, len);
+    if (result < 0 && isAtRangeEnd()) {
+      result = nextRange(len) ? in.read(b, off, len) : -1;
+    }
     if (result > 0) {
       pos += result;
+      nextReadPos = pos;
+    } else if (result < 0) {
+      endOfFile = true;
     }
     if (statistics != null && result > 0) {
       statistics.incrementBytesRead(result);
@@ -102,6 +315,45 @@ class SwiftNativeInputStream extends FSInputStream {
     return result;
   }
 
+  /**
+   * Read into a byte buffer, up to its limit.
+   * A buffer with an accessible array is filled directly, with no
+   * copies beyond those of a read into an array. The data for any other
+   * buffer is copied in straight from the prefetched range if there is
+   * one, otherwise through a transfer buffer reused for the life of
+   * the stream; either way, with no allocation per read.
+   * @param dest buffer to read into
+   * @return the number of bytes read, or -1 at the end of the file
+   * @throws IOException on IO problems
+   */
+  @Override
+  public synchronized int read(ByteBuffer dest) throws IOException {
+    int len = dest.remaining();
+    if (len == 0) {
+      return 0;
+    }
+    if (dest.hasArray()) {
+      int result = read(dest.array(), dest.arrayOffset() + dest.position(),
+                        len);
+      if (result > 0) {
+        dest.position(dest.position() + result);
+      }
+      return result;
+    }
+    if (prefetcher != null) {
+      checkNotClosed();
+      return prefetched(prefetcher.read(nextReadPos, dest));
+    }
+    if (transferBuffer == null) {
+      transferBuffer = new byte[TRANSFER_BUFFER_SIZE];
+    }
+    int result = read(transferBuffer, 0, Math.min(len, transferBuffer.length));
+    if (result > 0) {
+      dest.put(transferBuffer, 0, result);
+    }
+    return result;
+  }
+
   /**
    * close the stream. After this the stream is not usable.
    * This method is thread-safe and idempotent.
@@ -109,6 +361,50 @@ class SwiftNativeInputStream extends FSInputStream {
    */
   @Override
   public synchronized void close() throws IOException {
+    closed = true;
+    if (prefetcher != null) {
+      prefetcher.cancelAll();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Closed " + path + " " + prefetcher);
+      }
+    }
+    closeStream();
+  }
+
+  /**
+   * Read through the prefetcher
+   * @param b buffer to read into
+   * @param off offset in the buffer
+   * @param len maximum number of bytes to read
+   * @return the number of bytes read, or -1 at the end of the file
+   * @throws IOException on IO problems
+   */
+  private int readPrefetched(byte[] b, int off, int len) throws IOException {
+    checkNotClosed();
+    return prefetched(prefetcher.read(nextReadPos, b, off, len));
+  }
+
+  /**
+   * Move the position past data read from the prefetcher
+   * @param result number of bytes read, or -1 at the end of the file
+   * @return the result
+   */
+  private int prefetched(int result) {
+    if (result > 0) {
+      nextReadPos += result;
+      pos = nextReadPos;
+      if (statistics != null) {
+        statistics.incrementBytesRead(result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Close the HTTP stream, if open
+   * @throws IOException on IO problems.
+   */
+  private void closeStream() throws IOException {
     try {
       if (in != null) {
         in.close();
@@ -118,20 +414,363 @@ class SwiftNativeInputStream extends FSInputStream {
     }
   }
 
+  /**
+   * Seek to a position. No data is requested until the next read.
+   * @param targetPos position in the file
+   * @throws IOException if the stream is closed or the position negative
+   */
   @Override
   public synchronized void seek(long targetPos) throws IOException {
-    close();
-    in = nativeStore.getObject(path, targetPos, targetPos + BUFFER_SIZE);
-    this.pos = targetPos;
+    checkNotClosed();
+    if (targetPos < 0) {
+      throw new EOFException("Cannot seek to a negative offset: " + targetPos);
+    }
+    if (targetPos != nextReadPos) {
+      endOfFile = false;
+    }
+    nextReadPos = targetPos;
   }
 
   @Override
   public synchronized long getPos() throws IOException {
-    return pos;
+    return nextReadPos;
   }
 
   @Override
   public boolean seekToNewSource(long targetPos) throws IOException {
     return false;
   }
-}
\ No newline at end of file
+
+  /**
+   * Positioned read through an independent ranged GET.
+   * This does not change the position of the stream, and does not
+   * block, or get blocked by, other reads.
+   * @param position position in the file
+   * @param buffer buffer to read into
+   * @param offset offset in the buffer
+   * @param length number of bytes to read
+   * @return the number of bytes read, or -1 if the position is at or
+   * past the end of the file
+   * @throws IOException on IO problems
+   */
+  @Override
+  public int read(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    checkNotClosed();
+    if (position < 0) {
+      throw new EOFException("Cannot read from a negative offset: "
+                             + position);
+    }
+    if (length == 0) {
+      return 0;
+    }
+    InputStream rangeStream;
+    try {
+      rangeStream = nativeStore.getObject(path, position, length);
+    } catch (EOFException e) {
+      return -1;
+    }
+    int total = 0;
+    try {
+      while (total < length) {
+        int read = rangeStream.read(buffer, offset + total, length - total);
+        if (read < 0) {
+          break;
+        }
+        total += read;
+      }
+    } finally {
+      rangeStream.close();
+    }
+    if (statistics != null && total > 0) {
+      statistics.incrementBytesRead(total);
+    }
+    return total == 0 ? -1 : total;
+  }
+
+  /**
+   * Positioned read of an exact number of bytes; like
+   * {@link #read(long, byte[], int, int)} this is not synchronized.
+   * @param position position in the file
+   * @param buffer buffer to read into
+   * @param offset offset in the buffer
+   * @param length number of bytes to read
+   * @throws EOFException if the end of the file is reached first
+   * @throws IOException on IO problems
+   */
+  @Override
+  public void readFully(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    int nread = 0;
+    while (nread < length) {
+      int read = read(position + nread, buffer, offset + nread,
+                      length - nread);
+      if (read < 0) {
+        throw new EOFException("End of file reached after " + nread
+                               + " of " + length + " bytes at "
+                               + position + " in " + path);
+      }
+      nread += read;
+    }
+  }
+
+  /**
+   * Read a list of ranges. Ranges no more than the merge gap apart are
+   * fetched in a single GET, up to the maximum merged size; the GETs
+   * are run in parallel.
+   * @param ranges ranges to read
+   * @throws IOException if the stream is closed or a range is invalid
+   */
+  @Override
+  public void readVectored(List<SwiftFileRange> ranges) throws IOException {
+    checkNotClosed();
+    for (SwiftFileRange range : ranges) {
+      if (range.getOffset() < 0 || range.getLength() < 0) {
+        throw new EOFException("Invalid " + range + " of " + path);
+      }
+    }
+    List<SwiftCombinedFileRange> combinedRanges =
+      SwiftCombinedFileRange.merge(ranges,
+                                   vectoredMergeGap,
+                                   vectoredMaxMergedSize);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Reading " + ranges.size() + " ranges of " + path
+                + " in " + combinedRanges.size() + " requests");
+    }
+    for (final SwiftCombinedFileRange combined : combinedRanges) {
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            readCombinedRange(combined);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        failRanges(combined,
+                   new SwiftException("Cannot read " + combined
+                                      + " of " + path, e));
+      }
+    }
+  }
+
+  /**
+   * Fetch a merged range and complete all the ranges within it
+   * @param combined merged range
+   */
+  private void readCombinedRange(SwiftCombinedFileRange combined) {
+    try {
+      byte[] buffer = new byte[(int) combined.getLength()];
+      int total = 0;
+      InputStream rangeStream = null;
+      if (buffer.length > 0) {
+        try {
+          rangeStream = nativeStore.getObject(path, combined.getOffset(),
+                                              buffer.length);
+        } catch (EOFException e) {
+          //the whole range is past the end of the file
+        }
+      }
+      if (rangeStream != null) {
+        try {
+          while (total < buffer.length) {
+            int read = rangeStream.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+              break;
+            }
+            total += read;
+          }
+        } finally {
+          rangeStream.close();
+        }
+      }
+      if (statistics != null && total > 0) {
+        statistics.incrementBytesRead(total);
+      }
+      for (SwiftFileRange range : combined.getRanges()) {
+        int start = (int) (range.getOffset() - combined.getOffset());
+        if (start + range.getLength() > total) {
+          range.fail(new EOFException(range + " is past the end of " + path));
+        } else {
+          range.complete(
+            ByteBuffer.wrap(buffer, start, range.getLength()).slice());
+        }
+      }
+    } catch (IOException e) {
+      failRanges(combined, e);
+    } catch (RuntimeException e) {
+      failRanges(combined, e);
+    }
+  }
+
+  private static void failRanges(SwiftCombinedFileRange combined,
+                                 Throwable thrown) {
+    for (SwiftFileRange range : combined.getRanges()) {
+      range.fail(thrown);
+    }
+  }
+
+  /**
+   * @return the prefetcher of this stream, or null if it is not prefetching
+   */
+  SwiftPrefetcher getPrefetcher() {
+    return prefetcher;
+  }
+
+  /**
+   * @return the prefetch counters of this stream, or null if it
+   * is not prefetching
+   */
+  public SwiftPrefetchStatistics getPrefetchStatistics() {
+    return prefetcher != null ? prefetcher.getStatistics() : null;
+  }
+
+  /**
+   * @return the input policy of this stream
+   */
+  public SwiftInputPolicy getInputPolicy() {
+    return inputPolicy;
+  }
+
+  /**
+   * Is the stream reading with random access? For the adaptive policy
+   * this changes with the seek pattern.
+   * @return true if GETs are for limited ranges
+   */
+  public synchronized boolean isRandomAccess() {
+    return randomAccess;
+  }
+
+  /**
+   * Bring the HTTP stream to {@link #nextReadPos}, skipping forward
+   * in the open stream if the gap is small, else opening a new one.
+   * @param minLength minimum number of bytes to request if a new stream
+   * has to be opened
+   * @return true if there is data to read, false if the end of the file
+   * has been reached.
+   * @throws IOException on IO problems
+   */
+  private boolean seekInStream(long minLength) throws IOException {
+    checkNotClosed();
+    if (endOfFile) {
+      return false;
+    }
+    if (in != null && nextReadPos == pos) {
+      return true;
+    }
+    long diff = nextReadPos - pos;
+    if (in != null && diff > 0 && diff <= forwardSkipLimit
+        && nextReadPos < rangeEnd) {
+      if (skipInStream(diff)) {
+        return true;
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Stream of " + path + " ended while skipping to "
+                  + nextReadPos);
+      }
+    } else if (in != null && inputPolicy == SwiftInputPolicy.ADAPTIVE
+               && !randomAccess) {
+      //a seek the open stream cannot serve: switch to random access
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Switching to random access on seek from " + pos
+                  + " to " + nextReadPos + " in " + path);
+      }
+      randomAccess = true;
+    }
+    return reopen(nextReadPos, minLength);
+  }
+
+  /**
+   * Open the range following the one just read to its end.
+   * In adaptive mode, reading a whole range is taken as a sign of
+   * sequential access, so the next request is open-ended.
+   * @param minLength minimum number of bytes to request
+   * @return true if the stream was opened; false if the end of the file
+   * has been reached
+   * @throws IOException on IO problems
+   */
+  private boolean nextRange(long minLength) throws IOException {
+    if (inputPolicy == SwiftInputPolicy.ADAPTIVE && randomAccess) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Switching to sequential access at " + pos
+                  + " in " + path);
+      }
+      randomAccess = false;
+    }
+    return reopen(pos, minLength);
+  }
+
+  /**
+   * Read and discard bytes from the open stream
+   * @param bytes number of bytes to discard
+   * @return true if all the bytes were skipped
+   * @throws IOException on IO problems
+   */
+  private boolean skipInStream(long bytes) throws IOException {
+    byte[] buffer = new byte[(int) Math.min(SKIP_BUFFER_SIZE, bytes)];
+    long remaining = bytes;
+    while (remaining > 0) {
+      int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (read < 0) {
+        return false;
+      }
+      pos += read;
+      remaining -= read;
+    }
+    return true;
+  }
+
+  /**
+   * Close any open HTTP stream and open a new GET at a position;
+   * when reading with random access this is a ranged GET of
+   * at least {@link #randomRange} bytes, otherwise it is open-ended.
+   * @param targetPos position in the file
+   * @param minLength minimum number of bytes to request
+   * @return true if the stream was opened; false if the position is past
+   * the end of the file
+   * @throws IOException on IO problems
+   */
+  private boolean reopen(long targetPos, long minLength) throws IOException {
+    closeStream();
+    long length = Math.max(randomRange, minLength);
+    try {
+      if (randomAccess) {
+        in = nativeStore.getObject(path, targetPos, length);
+      } else {
+        in = nativeStore.getObject(path, targetPos);
+      }
+    } catch (EOFException e) {
+      //416 "range not satisfiable": the position is at or past the end
+      pos = targetPos;
+      nextReadPos = targetPos;
+      endOfFile = true;
+      return false;
+    }
+    pos = targetPos;
+    nextReadPos = targetPos;
+    rangeEnd = randomAccess ? targetPos + length : Long.MAX_VALUE;
+    return true;
+  }
+
+  /**
+   * Has the open stream been read up to the end of its requested range?
+   * If so, an end of stream is not the end of the file.
+   * @return true if a new range must be requested to continue reading
+   */
+  private boolean isAtRangeEnd() {
+    return pos == rangeEnd;
+  }
+
+  @Override
+  public String toString() {
+    return "SwiftNativeInputStream{" + path
+           + ", policy=" + inputPolicy
+           + (prefetcher != null ? ", " + prefetcher : "")
+           + ", closed=" + closed + "}";
+  }
+
+  private void checkNotClosed() throws SwiftException {
+    if (closed) {
+      throw new SwiftException("Stream is closed: " + path);
+    }
+  }
+}
@@ -18,64 +18,117 @@
 
 package org.apache.hadoop.fs.swift.snative;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
-import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.swift.exceptions.SwiftBadRequestException;
+import org.apache.hadoop.fs.swift.exceptions.SwiftConfigurationException;
 import org.apache.hadoop.fs.swift.exceptions.SwiftException;
+import org.apache.hadoop.fs.swift.exceptions.SwiftInternalStateException;
+import org.apache.hadoop.fs.swift.util.SwiftUtils;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Output stream, buffers data on local disk.
- * Writes to Swift on close() method
+ * Output stream, buffers data in blocks -on local disk or in memory,
+ * depending on the {@link SwiftOutputBlockFactory}.
+ * A file which fits in one block is written to Swift on close();
+ * for anything larger, each block is uploaded as a segment as soon as
+ * it is full and the next write needs room, and close() uploads the last
+ * segment and then the manifest.
+ *
+ * Given an executor, segments are uploaded in the background, with up to
+ * a fixed number of them buffered or in flight at once; a writer which
+ * gets further ahead waits for an upload to finish. close() waits for
+ * every segment, and only writes the manifest if all of them succeeded.
+ * The manifest is either a Dynamic Large Object one, which names the
+ * prefix of the segments, or a Static Large Object one, which lists each
+ * segment with its ETag and size.
+ *
+ * Each segment is kept in its block until Swift has acknowledged it with
+ * the ETag of the data sent; failed uploads of a segment are retried
+ * on their own, rather than failing the whole stream.
+ *
+ * The MD5 checksum of the whole file is computed as it is written: it is
+ * the ETag of a file uploaded in one PUT, and is recorded in the metadata
+ * of the manifest of a segmented one.
  */
 class SwiftNativeOutputStream extends OutputStream {
-  private long filePartSize = 4768709000L; // files greater than 4.5Gb are divided into parts
+  private long filePartSize;
   private static final Log LOG =
     LogFactory.getLog(SwiftNativeOutputStream.class);
-  private Configuration conf;
   private String key;
-  private File backupFile;
-  private OutputStream backupStream;
   private SwiftNativeFileSystemStore nativeStore;
+  private final SwiftOutputBlockFactory blockFactory;
+  private final ExecutorService uploadExecutor;
+  private final Semaphore uploadPermits;
+  private final List<Future<?>> uploads = new ArrayList<Future<?>>();
+  private final boolean staticManifest;
+  private final int uploadRetries;
+  private final long uploadRetryInterval;
+  private final AtomicInteger segmentRetries = new AtomicInteger();
+  private final MessageDigest fileMD5 = SwiftUtils.newMD5();
+  private final SortedMap<Integer, SwiftSegment> segments =
+    new TreeMap<Integer, SwiftSegment>();
+  private SwiftOutputBlock block;
   private boolean closed;
   private int partNumber;
-  private long blockSize;
   private boolean partUpload = false;
+  private final byte[] singleByte = new byte[1];
+
+  /**
+   * Create a stream which uploads its segments in the writing thread,
+   * without retries
+   * @param nativeStore store
+   * @param key path of the object
+   * @param blockFactory factory of buffer blocks
+   */
+  public SwiftNativeOutputStream(SwiftNativeFileSystemStore nativeStore,
+                                 String key,
+                                 SwiftOutputBlockFactory blockFactory) {
+    this(nativeStore, key,
+         new SwiftOutputStreamOptions().setBlockFactory(blockFactory));
+  }
 
-  public SwiftNativeOutputStream(Configuration conf,
-                                 SwiftNativeFileSystemStore nativeStore,
-                                 String key) throws IOException {
-    this.conf = conf;
+  /**
+   * Create a stream
+   * @param nativeStore store
+   * @param key path of the object
+   * @param options stream options
+   */
+  public SwiftNativeOutputStream(SwiftNativeFileSystemStore nativeStore,
+                                 String key,
+                                 SwiftOutputStreamOptions options) {
     this.key = key;
-    this.backupFile = newBackupFile();
     this.nativeStore = nativeStore;
-    this.backupStream = new BufferedOutputStream(new FileOutputStream(backupFile));
+    this.blockFactory = options.getBlockFactory();
+    this.uploadExecutor = options.getUploadExecutor();
+    this.uploadPermits = new Semaphore(options.getActiveUploads());
+    this.staticManifest = options.isStaticManifest();
+    this.uploadRetries = options.getUploadRetries();
+    this.uploadRetryInterval = options.getUploadRetryInterval();
+    this.filePartSize = blockFactory.getPartitionSize();
     this.partNumber = 1;
-    this.blockSize = 0;
-  }
-
-  private File newBackupFile() throws IOException {
-    File dir = new File(conf.get("hadoop.tmp.dir"));
-    if (!dir.mkdirs() && !dir.exists()) {
-      throw new SwiftException("Cannot create Swift buffer directory: " + dir);
-    }
-    File result = File.createTempFile("swift-output-", ".tmp", dir);
-    result.deleteOnExit();
-    return result;
-  }
-
-  @Override
-  public synchronized void flush() throws IOException {
-    backupStream.flush();
   }
 
   /**
@@ -95,29 +148,56 @@ class SwiftNativeOutputStream extends OutputStream {
     }
     //formally declare as closed.
     closed = true;
-    backupStream.close();
 
     try {
       if (partUpload) {
-        partUpload();
-        nativeStore.createManifestForPartUpload(new Path(key));
+        if (block != null && block.length() > 0) {
+          partUpload();
+        }
+        waitForUploads();
+        nativeStore.deleteStaleFileParts(new Path(key), partNumber - 1);
+        if (staticManifest) {
+          List<SwiftSegment> manifest;
+          synchronized (segments) {
+            manifest = new ArrayList<SwiftSegment>(segments.values());
+          }
+          nativeStore.createStaticManifestForPartUpload(new Path(key),
+                                                        manifest,
+                                                        fileMD5Hex());
+        } else {
+          nativeStore.createManifestForPartUpload(new Path(key),
+                                                  fileMD5Hex());
+        }
+      } else if (block != null) {
+        InputStream in = block.openForUpload();
+        try {
+          nativeStore.uploadFile(new Path(key),
+                                 in,
+                                 block.length(),
+                                 block.getMD5Hex());
+        } finally {
+          IOUtils.closeQuietly(in);
+        }
       } else {
+        //nothing was written
         nativeStore.uploadFile(new Path(key),
-                               new FileInputStream(backupFile),
-                               backupFile.length());
+                               new ByteArrayInputStream(new byte[0]),
+                               0,
+                               fileMD5Hex());
       }
     } finally {
-      if (!backupFile.delete()) {
-        LOG.warn("Could not delete " + backupFile);
+      if (block != null) {
+        block.close();
+        block = null;
       }
-      backupStream = null;
+      waitForUploadsQuietly();
     }
   }
 
   @Override
   public synchronized void write(int b) throws IOException {
-    verifyOpen();
-    backupStream.write(b);
+    singleByte[0] = (byte) b;
+    write(singleByte, 0, 1);
   }
 
   @Override
@@ -127,28 +207,217 @@ class SwiftNativeOutputStream extends OutputStream {
       throw new IndexOutOfBoundsException("Invalid offset/length for write");
     }
     verifyOpen();
+    fileMD5.update(b, off, len);
 
-    //if size of file is greater than 5Gb Swift limit - than divide file into parts and upload parts
-    if (blockSize + len >= filePartSize) {
-      partUpload();
+    while (len > 0) {
+      if (block == null) {
+        block = blockFactory.create(filePartSize);
+      } else if (block.isFull()) {
+        //more data than fits in a partition: upload it as a segment
+        partUpload();
+        continue;
+      }
+      int written = block.write(b, off, len);
+      off += written;
+      len -= written;
     }
-
-    blockSize += len;
-    backupStream.write(b, off, len);
   }
 
+  /**
+   * Upload the current block as the next segment, in the background
+   * if there is an executor. Before it is queued, any upload which
+   * has already failed is reported, and the caller waits while the
+   * maximum number of uploads are active.
+   * @throws IOException on a failure of this or an earlier upload
+   */
   private synchronized void partUpload() throws IOException {
     partUpload = true;
-    backupStream.close();
-    nativeStore.uploadFilePart(new Path(key),
-                               partNumber,
-                               new FileInputStream(backupFile),
-                               backupFile.length());
-    backupFile.delete();
-    backupFile = newBackupFile();
-    backupStream = new BufferedOutputStream(new FileOutputStream(backupFile));
-    blockSize = 0;
+    checkUploads();
+    final SwiftOutputBlock part = block;
+    final int number = partNumber;
+    block = null;
     partNumber++;
+    try {
+      uploadPermits.acquire();
+    } catch (InterruptedException e) {
+      part.close();
+      throw new InterruptedIOException("Interrupted waiting to upload"
+                                       + " partition " + number
+                                       + " of " + key);
+    }
+    Callable<Void> upload = new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        try {
+          SwiftSegment segment = uploadPart(part, number);
+          synchronized (segments) {
+            segments.put(number, segment);
+          }
+          return null;
+        } finally {
+          part.close();
+          uploadPermits.release();
+        }
+      }
+    };
+    if (uploadExecutor != null) {
+      try {
+        uploads.add(uploadExecutor.submit(upload));
+        return;
+      } catch (RejectedExecutionException e) {
+        //the pool has been shut down; upload in this thread
+        LOG.debug("Upload executor rejected partition; uploading inline");
+      }
+    }
+    try {
+      upload.call();
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new SwiftException("Upload of partition " + number + " of "
+                               + key + " failed: " + e, e);
+    }
+  }
+
+  /**
+   * Upload a segment, retrying with an exponential backoff on failures
+   * which may be transient. The MD5 checksum of the block is sent as its
+   * ETag and verified against the ETag Swift returns; a mismatch is
+   * retried too. The block
+   * is kept until this returns, so a retry resends only this segment.
+   * @param part block to upload
+   * @param number partition number
+   * @return the uploaded segment
+   * @throws IOException the last failure, once the retries are exhausted
+   */
+  private SwiftSegment uploadPart(SwiftOutputBlock part, int number)
+      throws IOException {
+    String md5 = part.getMD5Hex();
+    for (int attempt = 0; ; attempt++) {
+      InputStream in = null;
+      try {
+        //every attempt reads the block afresh
+        in = part.openForUpload();
+        return nativeStore.uploadFilePart(new Path(key),
+                                          number,
+                                          in,
+                                          part.length(),
+                                          md5);
+      } catch (IOException e) {
+        if (attempt >= uploadRetries || !isRetriable(e)) {
+          throw e;
+        }
+        long delay = uploadRetryInterval << attempt;
+        LOG.warn("Upload of partition " + number + " of " + key
+                 + " failed; retrying in " + delay + "ms: " + e);
+        segmentRetries.incrementAndGet();
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException ie) {
+          throw new InterruptedIOException("Interrupted before retrying"
+                                           + " partition " + number
+                                           + " of " + key);
+        }
+      } finally {
+        IOUtils.closeQuietly(in);
+      }
+    }
+  }
+
+  /**
+   * Finish the checksum of the whole file
+   * @return the MD5 checksum in hex
+   */
+  private String fileMD5Hex() {
+    return SwiftUtils.toHex(fileMD5.digest());
+  }
+
+  /**
+   * Can an upload which failed with an exception be retried?
+   * @param e exception
+   * @return false for interruptions and for failures which would
+   * only be repeated
+   */
+  private static boolean isRetriable(IOException e) {
+    return !(e instanceof InterruptedIOException
+             || e instanceof FileNotFoundException
+             || e instanceof SwiftBadRequestException
+             || e instanceof SwiftInternalStateException
+             || e instanceof SwiftConfigurationException);
+  }
+
+  /**
+   * Report the first failure of any finished upload, and forget
+   * the uploads which succeeded
+   * @throws IOException the failure of an upload
+   */
+  private void checkUploads() throws IOException {
+    for (int i = 0; i < uploads.size(); ) {
+      Future<?> upload = uploads.get(i);
+      if (upload.isDone()) {
+        uploads.remove(i);
+        result(upload);
+      } else {
+        i++;
+      }
+    }
+  }
+
+  /**
+   * Wait for all uploads to finish
+   * @throws IOException the first upload failure, raised once
+   * every upload has finished
+   */
+  private void waitForUploads() throws IOException {
+    IOException failure = null;
+    while (!uploads.isEmpty()) {
+      try {
+        result(uploads.remove(0));
+      } catch (InterruptedIOException e) {
+        throw e;
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Wait for any uploads left after a failure, so that their blocks
+   * are released, ignoring their outcome
+   */
+  private void waitForUploadsQuietly() {
+    try {
+      waitForUploads();
+    } catch (IOException e) {
+      LOG.debug("Ignoring upload failure after an earlier one: " + e, e);
+    }
+    uploads.clear();
+  }
+
+  /**
+   * Wait for the result of an upload
+   * @param upload upload
+   * @throws IOException if the upload failed
+   */
+  private void result(Future<?> upload) throws IOException {
+    try {
+      upload.get();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted waiting for the"
+                                       + " upload of " + key);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new SwiftException("Upload of a partition of " + key
+                               + " failed: " + cause, cause);
+    }
   }
 
   /**
@@ -170,4 +439,14 @@ class SwiftNativeOutputStream extends OutputStream {
   synchronized int getPartitionsWritten() {
     return partNumber - 1;
   }
-}
\ No newline at end of file
+
+  /**
+   * Query the number of times segment uploads were retried
+   * @return the number of retries
+   */
+  @InterfaceAudience.Private
+  @InterfaceStability.Unstable
+  int getSegmentRetries() {
+    return segmentRetries.get();
+  }
+}
@@ -0,0 +1,430 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.swift.http.SwiftProtocolConstants;
+import org.apache.hadoop.fs.swift.http.SwiftRestClient;
+import org.apache.hadoop.fs.swift.util.LocalDiskCache;
+import org.apache.hadoop.fs.swift.util.SwiftObjectPath;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Serves object reads from a {@link LocalDiskCache}, fetching and
+ * caching block-aligned ranges of the object on a miss.
+ *
+ * Blocks are keyed by the object path, its version -the ETag, or if
+ * there is none, the Last-Modified time- and the block offset, so a
+ * changed object never matches the blocks of its earlier versions.
+ * The version and length of each object are themselves cached, so
+ * a read which hits the cache makes no requests at all; if validation
+ * is enabled, each open issues one HEAD to check the version.
+ *
+ * Without validation, an object changed by another client is served
+ * from the cache until its version entry is evicted; changes made
+ * through this store invalidate the entry.
+ */
+class SwiftObjectCache {
+  private static final Log LOG = LogFactory.getLog(SwiftObjectCache.class);
+
+  private final LocalDiskCache cache;
+  private final SwiftRestClient restClient;
+  private final String fsName;
+  private final int blockSize;
+  private final boolean validate;
+
+  /**
+   * Create the cache binding
+   * @param cache the local cache
+   * @param restClient client to fetch data with
+   * @param fsName name of the filesystem, to separate the entries of
+   * different filesystems sharing one cache directory
+   * @param blockSize size of the cached blocks
+   * @param validate issue a HEAD to validate the version on every open
+   */
+  SwiftObjectCache(LocalDiskCache cache,
+                   SwiftRestClient restClient,
+                   String fsName,
+                   int blockSize,
+                   boolean validate) {
+    this.cache = cache;
+    this.restClient = restClient;
+    this.fsName = fsName;
+    this.blockSize = blockSize;
+    this.validate = validate;
+  }
+
+  /**
+   * Open a range of an object
+   * @param path object path
+   * @param start first byte to read
+   * @param length number of bytes to read; -1 means to the end
+   * @return the input stream, which must be closed
+   * @throws FileNotFoundException if there is no object at the path
+   * @throws EOFException if the start is at or past the end of the object
+   * @throws IOException on any other failure
+   */
+  InputStream open(SwiftObjectPath path, long start, long length)
+    throws IOException {
+    ObjectVersion version = getVersion(path);
+    if (version == null) {
+      //no version to key on: don't cache
+      return get(path, start, length);
+    }
+    if (start >= version.length) {
+      throw new EOFException("Attempted to read from " + start
+                             + " in " + path
+                             + " which is only " + version.length + " bytes");
+    }
+    long end = length < 0 ? version.length
+                          : Math.min(version.length, start + length);
+    return new CachedObjectInputStream(path, version, start, end);
+  }
+
+  /**
+   * Forget the cached version of an object, after it has been written
+   * or deleted
+   * @param path object path
+   */
+  void invalidate(SwiftObjectPath path) {
+    cache.remove(versionKey(path));
+  }
+
+  /**
+   * Get the version of an object, from the cache if it is there and
+   * validation is off, otherwise from a HEAD request
+   * @param path object path
+   * @return the version, or null if the object has neither an ETag
+   * nor a modification time
+   * @throws IOException on a failure
+   */
+  private ObjectVersion getVersion(SwiftObjectPath path) throws IOException {
+    String key = versionKey(path);
+    ObjectVersion cached = null;
+    byte[] entry = cache.get(key);
+    if (entry != null) {
+      cached = ObjectVersion.parse(new String(entry, "UTF-8"));
+      if (cached != null && !validate) {
+        return cached;
+      }
+    }
+    Header[] headers = head(path);
+    if (headers.length == 0) {
+      throw new FileNotFoundException("Not Found " + path);
+    }
+    String etag = null;
+    String lastModified = null;
+    long length = -1;
+    for (Header header : headers) {
+      String name = header.getName();
+      if (SwiftProtocolConstants.HEADER_ETAG.equalsIgnoreCase(name)) {
+        etag = header.getValue();
+      } else if (SwiftProtocolConstants.HEADER_LAST_MODIFIED
+                   .equalsIgnoreCase(name)) {
+        lastModified = header.getValue();
+      } else if (SwiftProtocolConstants.HEADER_CONTENT_LENGTH
+                   .equalsIgnoreCase(name)) {
+        length = Long.parseLong(header.getValue());
+      }
+    }
+    String tag = etag != null ? etag : lastModified;
+    if (tag == null || length < 0) {
+      return null;
+    }
+    ObjectVersion version = new ObjectVersion(tag, length);
+    if (!version.equals(cached)) {
+      if (cached != null) {
+        cache.remove(key);
+      }
+      byte[] data = version.toString().getBytes("UTF-8");
+      try {
+        cache.put(key, data, 0, data.length);
+      } catch (IOException e) {
+        LOG.warn("Failed to cache the version of " + path, e);
+      }
+    }
+    return version;
+  }
+
+  /**
+   * Issue a HEAD request for the newest version of an object
+   * @param path object path
+   * @return the response headers; empty if there is no object
+   * @throws IOException on a failure
+   */
+  Header[] head(SwiftObjectPath path) throws IOException {
+    return restClient.headRequest(path, SwiftRestClient.NEWEST);
+  }
+
+  /**
+   * Read a range of an object from the object store
+   * @param path object path
+   * @param start first byte to read
+   * @param length number of bytes to read; -1 means to the end
+   * @return the input stream, which must be closed
+   * @throws IOException on a failure
+   */
+  InputStream get(SwiftObjectPath path, long start, long length)
+    throws IOException {
+    return length < 0
+           ? restClient.getDataAsInputStream(path, start)
+           : restClient.getDataAsInputStream(path, start, length);
+  }
+
+  private String versionKey(SwiftObjectPath path) {
+    return LocalDiskCache.toKey("version", fsName, path.toString());
+  }
+
+  @Override
+  public String toString() {
+    return "SwiftObjectCache with block size " + blockSize
+           + (validate ? " validating " : " ") + cache;
+  }
+
+  /**
+   * Version and length of an object
+   */
+  private static final class ObjectVersion {
+    private final String tag;
+    private final long length;
+
+    private ObjectVersion(String tag, long length) {
+      this.tag = tag;
+      this.length = length;
+    }
+
+    /**
+     * Parse a cached entry
+     * @param entry the entry
+     * @return the version, or null if the entry is not valid
+     */
+    private static ObjectVersion parse(String entry) {
+      int split = entry.indexOf('\n');
+      if (split <= 0) {
+        return null;
+      }
+      try {
+        return new ObjectVersion(entry.substring(split + 1),
+                                 Long.parseLong(entry.substring(0, split)));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ObjectVersion)) {
+        return false;
+      }
+      ObjectVersion that = (ObjectVersion) o;
+      return length == that.length && tag.equals(that.tag);
+    }
+
+    @Override
+    public int hashCode() {
+      return tag.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return length + "\n" + tag;
+    }
+  }
+
+  /**
+   * Stream over a range of an object, reading it one cached block
+   * at a time.
+   */
+  private final class CachedObjectInputStream extends InputStream {
+    private final SwiftObjectPath path;
+    private final ObjectVersion version;
+    private long pos;
+    private long end;
+    private InputStream block;
+    private long blockEnd;
+    private final byte[] singleByte = new byte[1];
+
+    private CachedObjectInputStream(SwiftObjectPath path,
+                                    ObjectVersion version,
+                                    long start,
+                                    long end) {
+      this.path = path;
+      this.version = version;
+      this.pos = start;
+      this.end = end;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int result = read(singleByte, 0, 1);
+      return result < 0 ? -1 : (singleByte[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (pos >= end) {
+        return -1;
+      }
+      if (block == null) {
+        openBlock();
+        if (block == null) {
+          return -1;
+        }
+      }
+      int count = block.read(b, off, (int) Math.min(len, blockEnd - pos));
+      if (count < 0) {
+        throw new EOFException("Cached block of " + path + " ended at "
+                               + pos + " instead of " + blockEnd);
+      }
+      pos += count;
+      if (pos >= blockEnd) {
+        closeBlock();
+      }
+      return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      if (n <= 0) {
+        return 0;
+      }
+      long skipped = Math.min(n, end - pos);
+      //the next read opens whichever block holds the new position
+      closeBlock();
+      pos += skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return block == null ? 0 : (int) (blockEnd - pos);
+    }
+
+    @Override
+    public void close() throws IOException {
+      closeBlock();
+      pos = end;
+    }
+
+    /**
+     * Open the block holding the current position, from the cache
+     * or, on a miss, by fetching and caching it
+     * @throws IOException on a failure
+     */
+    private void openBlock() throws IOException {
+      long blockStart = pos / blockSize * blockSize;
+      int blockLength = (int) Math.min(blockSize, version.length - blockStart);
+      String key = LocalDiskCache.toKey(fsName,
+                                        path.toString(),
+                                        version.tag,
+                                        Integer.toString(blockSize),
+                                        Long.toString(blockStart));
+      InputStream in = cache.open(key);
+      long available = blockLength;
+      if (in == null) {
+        byte[] data = fetch(blockStart, blockLength);
+        available = data.length;
+        if (data.length == blockLength) {
+          try {
+            cache.put(key, data, 0, blockLength);
+          } catch (IOException e) {
+            LOG.warn("Failed to cache a block of " + path, e);
+          }
+        } else {
+          //the object has changed underneath: serve what there is,
+          //but don't cache it, and look the version up again next time
+          LOG.debug("Object " + path + " is shorter than its cached length");
+          invalidate(path);
+          end = Math.min(end, blockStart + available);
+          if (pos >= end) {
+            return;
+          }
+        }
+        in = new ByteArrayInputStream(data);
+      }
+      long toSkip = pos - blockStart;
+      while (toSkip > 0) {
+        long skipped = in.skip(toSkip);
+        if (skipped <= 0) {
+          in.close();
+          throw new EOFException("Cached block of " + path
+                                 + " is shorter than " + blockLength);
+        }
+        toSkip -= skipped;
+      }
+      block = in;
+      blockEnd = blockStart + available;
+    }
+
+    /**
+     * Fetch a block from the object store
+     * @param blockStart offset of the block
+     * @param blockLength expected length
+     * @return the data read, which is only shorter than the expected
+     * length if the object has shrunk
+     * @throws IOException on a failure
+     */
+    private byte[] fetch(long blockStart, int blockLength) throws IOException {
+      byte[] data = new byte[blockLength];
+      int read = 0;
+      InputStream in;
+      try {
+        in = get(path, blockStart, blockLength);
+      } catch (EOFException e) {
+        invalidate(path);
+        return new byte[0];
+      }
+      try {
+        while (read < blockLength) {
+          int count = in.read(data, read, blockLength - read);
+          if (count < 0) {
+            break;
+          }
+          read += count;
+        }
+      } finally {
+        in.close();
+      }
+      if (read < blockLength) {
+        byte[] shorter = new byte[read];
+        System.arraycopy(data, 0, shorter, 0, read);
+        return shorter;
+      }
+      return data;
+    }
+
+    private void closeBlock() throws IOException {
+      if (block != null) {
+        InputStream in = block;
+        block = null;
+        in.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+/**
+ * Java mapping of an entry of a Swift container listing in JSON format
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class SwiftObjectFileStatus {
+  /**
+   * Object size in bytes
+   */
+  private long bytes;
+
+  /**
+   * Content type of the object
+   */
+  private String content_type;
+
+  /**
+   * MD5 checksum of the object
+   */
+  private String hash;
+
+  /**
+   * Time of the last modification
+   */
+  private String last_modified;
+
+  /**
+   * Name of the object in the container
+   */
+  private String name;
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  public void setBytes(long bytes) {
+    this.bytes = bytes;
+  }
+
+  public String getContent_type() {
+    return content_type;
+  }
+
+  public void setContent_type(String content_type) {
+    this.content_type = content_type;
+  }
+
+  public String getHash() {
+    return hash;
+  }
+
+  public void setHash(String hash) {
+    this.hash = hash;
+  }
+
+  public String getLast_modified() {
+    return last_modified;
+  }
+
+  public void setLast_modified(String last_modified) {
+    this.last_modified = last_modified;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public String toString() {
+    return name + " (" + bytes + " bytes)";
+  }
+}
@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.hadoop.fs.swift.util.SwiftUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * A block of output data of bounded size, buffered until it is uploaded.
+ *
+ * A block is written to until it is full or the stream is closed, then
+ * read once for its upload, then closed, which releases its storage.
+ * Blocks are created by a {@link SwiftOutputBlockFactory}.
+ * The MD5 checksum of the data is computed as it is written, so that
+ * the ETag of the upload can be verified without reading it back.
+ */
+abstract class SwiftOutputBlock {
+
+  private final long capacity;
+  private final MessageDigest md5 = SwiftUtils.newMD5();
+  private String md5Hex;
+
+  protected SwiftOutputBlock(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Write as much data as there is room for
+   * @param b buffer
+   * @param off offset in the buffer
+   * @param len number of bytes to write
+   * @return the number of bytes written, which is only less than the
+   * length if the block is now full
+   * @throws IOException on a failure to write
+   */
+  final int write(byte[] b, int off, int len) throws IOException {
+    int written = (int) Math.min(len, capacity - length());
+    if (written > 0) {
+      innerWrite(b, off, written);
+      md5.update(b, off, written);
+    }
+    return written;
+  }
+
+  /**
+   * Write data for which there is known to be room
+   * @param b buffer
+   * @param off offset in the buffer
+   * @param len number of bytes to write
+   * @throws IOException on a failure to write
+   */
+  protected abstract void innerWrite(byte[] b, int off, int len)
+    throws IOException;
+
+  /**
+   * @return the number of bytes written
+   */
+  abstract long length();
+
+  /**
+   * Get the MD5 checksum of the data. No more data may be written.
+   * @return the checksum in lower case hex, as Swift returns it as an ETag
+   */
+  final synchronized String getMD5Hex() {
+    if (md5Hex == null) {
+      md5Hex = SwiftUtils.toHex(md5.digest());
+    }
+    return md5Hex;
+  }
+
+  /**
+   * @return the maximum number of bytes the block can hold
+   */
+  final long capacity() {
+    return capacity;
+  }
+
+  /**
+   * @return true if no more data can be written
+   */
+  final boolean isFull() {
+    return length() >= capacity;
+  }
+
+  /**
+   * Finish writing, and open the data for upload. No more data may
+   * be written. The stream may be opened more than once, to retry
+   * an upload.
+   * @return a stream of the block's data
+   * @throws IOException on a failure to read the data
+   */
+  abstract InputStream openForUpload() throws IOException;
+
+  /**
+   * Release the storage of the block. This is idempotent.
+   */
+  abstract void close();
+
+  /**
+   * A block held in a temporary file
+   */
+  static final class DiskBlock extends SwiftOutputBlock {
+    private final File file;
+    private OutputStream out;
+    private long length;
+
+    DiskBlock(File file, long capacity) throws IOException {
+      super(capacity);
+      this.file = file;
+      this.out = new BufferedOutputStream(new FileOutputStream(file));
+    }
+
+    @Override
+    protected void innerWrite(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      length += len;
+    }
+
+    @Override
+    long length() {
+      return length;
+    }
+
+    @Override
+    InputStream openForUpload() throws IOException {
+      if (out != null) {
+        out.close();
+        out = null;
+      }
+      return new FileInputStream(file);
+    }
+
+    @Override
+    void close() {
+      try {
+        if (out != null) {
+          out.close();
+        }
+      } catch (IOException e) {
+        SwiftOutputBlockFactory.LOG.debug("Failed to close " + file, e);
+      }
+      out = null;
+      if (file.exists() && !file.delete()) {
+        SwiftOutputBlockFactory.LOG.warn("Could not delete " + file);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "disk block " + file + " (" + length + " bytes)";
+    }
+  }
+
+  /**
+   * A block held in a byte array on the heap, which grows as data is
+   * written; the memory for the whole block is reserved when it is
+   * created.
+   */
+  static final class HeapBlock extends SwiftOutputBlock {
+    private final SwiftOutputBlockFactory factory;
+    private byte[] buffer;
+    private int length;
+    private boolean released;
+
+    HeapBlock(SwiftOutputBlockFactory factory, int capacity) {
+      super(capacity);
+      this.factory = factory;
+      this.buffer = new byte[Math.min(capacity, 64 * 1024)];
+    }
+
+    @Override
+    protected void innerWrite(byte[] b, int off, int len) {
+      if (length + len > buffer.length) {
+        long grown = Math.max(2L * buffer.length, (long) length + len);
+        byte[] larger = new byte[(int) Math.min(grown, capacity())];
+        System.arraycopy(buffer, 0, larger, 0, length);
+        buffer = larger;
+      }
+      System.arraycopy(b, off, buffer, length, len);
+      length += len;
+    }
+
+    @Override
+    long length() {
+      return length;
+    }
+
+    @Override
+    InputStream openForUpload() {
+      return new ByteArrayInputStream(buffer, 0, length);
+    }
+
+    @Override
+    synchronized void close() {
+      if (!released) {
+        released = true;
+        buffer = null;
+        factory.releaseMemory(capacity());
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "heap block (" + length + " bytes)";
+    }
+  }
+
+  /**
+   * A block held in a direct byte buffer, allocated in full when the
+   * block is created.
+   */
+  static final class DirectBlock extends SwiftOutputBlock {
+    private final SwiftOutputBlockFactory factory;
+    private ByteBuffer buffer;
+    private boolean released;
+
+    DirectBlock(SwiftOutputBlockFactory factory, int capacity) {
+      super(capacity);
+      this.factory = factory;
+      this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    @Override
+    protected void innerWrite(byte[] b, int off, int len) {
+      buffer.put(b, off, len);
+    }
+
+    @Override
+    long length() {
+      return buffer.position();
+    }
+
+    @Override
+    InputStream openForUpload() {
+      ByteBuffer data = buffer.duplicate();
+      data.flip();
+      return new ByteBufferInputStream(data);
+    }
+
+    @Override
+    synchronized void close() {
+      if (!released) {
+        released = true;
+        factory.releaseMemory(capacity());
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "direct block (" + buffer.position() + " bytes)";
+    }
+  }
+
+  /**
+   * Stream over the remaining data of a byte buffer
+   */
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int read = Math.min(len, buffer.remaining());
+      buffer.get(b, off, read);
+      return read;
+    }
+
+    @Override
+    public long skip(long n) {
+      int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
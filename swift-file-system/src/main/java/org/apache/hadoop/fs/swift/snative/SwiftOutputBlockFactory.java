@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.swift.exceptions.SwiftConfigurationException;
+import org.apache.hadoop.fs.swift.util.LocalBufferDirAllocator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the blocks in which output streams buffer their data.
+ *
+ * Memory blocks, on the heap or direct, are bounded by a limit shared by
+ * every stream in the JVM: the memory of a block is reserved when it is
+ * created and returned when it is closed after its upload. When a new
+ * block would take the total over the limit, the writer either falls
+ * back to a block on disk, or waits until other blocks are released.
+ */
+class SwiftOutputBlockFactory {
+  static final Log LOG = LogFactory.getLog(SwiftOutputBlockFactory.class);
+
+  /**
+   * Default size of a partition buffered on disk: files larger than this
+   * are uploaded in segments.
+   */
+  static final long DEFAULT_DISK_PARTITION_SIZE = 4768709000L;
+
+  /**
+   * Largest object Swift accepts, and so the largest partition
+   */
+  static final long MAX_PARTITION_SIZE = 5L * 1024 * 1024 * 1024;
+
+  /**
+   * Guards {@link #memoryInUse}
+   */
+  private static final Object MEMORY_LOCK = new Object();
+
+  /**
+   * Bytes reserved by memory blocks across the JVM
+   */
+  private static long memoryInUse;
+
+  private final Configuration conf;
+  private final SwiftOutputBuffer buffer;
+  private final int memoryBlockSize;
+  private final long diskPartitionSize;
+  private final long memoryLimit;
+  private final boolean fallbackToDisk;
+  private final AtomicLong diskFallbacks = new AtomicLong();
+
+  /**
+   * Create a factory
+   * @param conf configuration, for the buffer directories
+   * @param buffer type of buffer
+   * @param memoryBlockSize size of memory blocks
+   * @param diskPartitionSize size of the partitions buffered on disk
+   * @param memoryLimit limit on the memory of all blocks in the JVM
+   * @param fallbackToDisk fall back to disk when the limit is reached,
+   * rather than waiting for memory to be released
+   * @throws SwiftConfigurationException if memory blocks are larger
+   * than the limit, or either size is larger than Swift permits
+   */
+  SwiftOutputBlockFactory(Configuration conf,
+                          SwiftOutputBuffer buffer,
+                          int memoryBlockSize,
+                          long diskPartitionSize,
+                          long memoryLimit,
+                          boolean fallbackToDisk)
+    throws SwiftConfigurationException {
+    if (diskPartitionSize > MAX_PARTITION_SIZE) {
+      throw new SwiftConfigurationException("Output segment size "
+                                            + diskPartitionSize
+                                            + " is larger than the maximum"
+                                            + " object size "
+                                            + MAX_PARTITION_SIZE);
+    }
+    if (buffer != SwiftOutputBuffer.DISK && memoryBlockSize > memoryLimit) {
+      throw new SwiftConfigurationException("Output block size "
+                                            + memoryBlockSize
+                                            + " is larger than the memory limit "
+                                            + memoryLimit);
+    }
+    this.conf = conf;
+    this.buffer = buffer;
+    this.memoryBlockSize = memoryBlockSize;
+    this.diskPartitionSize = diskPartitionSize;
+    this.memoryLimit = memoryLimit;
+    this.fallbackToDisk = fallbackToDisk;
+  }
+
+  /**
+   * @return the size of the partitions into which a stream splits
+   * its output
+   */
+  long getPartitionSize() {
+    return buffer == SwiftOutputBuffer.DISK
+           ? diskPartitionSize
+           : memoryBlockSize;
+  }
+
+  /**
+   * @return the configured size of the segments of files buffered on disk
+   */
+  long getSegmentSize() {
+    return diskPartitionSize;
+  }
+
+  /**
+   * Create a block
+   * @param capacity capacity of the block
+   * @return the new block
+   * @throws IOException on a failure to create a temporary file
+   * @throws InterruptedIOException if interrupted waiting for memory
+   */
+  SwiftOutputBlock create(long capacity) throws IOException {
+    if (buffer != SwiftOutputBuffer.DISK && capacity <= Integer.MAX_VALUE) {
+      if (reserveMemory(capacity)) {
+        try {
+          return buffer == SwiftOutputBuffer.HEAP
+                 ? new SwiftOutputBlock.HeapBlock(this, (int) capacity)
+                 : new SwiftOutputBlock.DirectBlock(this, (int) capacity);
+        } catch (OutOfMemoryError e) {
+          releaseMemory(capacity);
+          throw e;
+        }
+      }
+      diskFallbacks.incrementAndGet();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Output memory limit of " + memoryLimit
+                  + " bytes reached; buffering on disk");
+      }
+    }
+    File file = LocalBufferDirAllocator.getInstance(conf)
+      .createTempFile("swift-output-", ".tmp", capacity);
+    return new SwiftOutputBlock.DiskBlock(file, capacity);
+  }
+
+  /**
+   * Reserve memory for a block
+   * @param bytes number of bytes
+   * @return true if it was reserved; false if the limit has been
+   * reached and the caller is to fall back to disk
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  private boolean reserveMemory(long bytes) throws InterruptedIOException {
+    synchronized (MEMORY_LOCK) {
+      while (memoryInUse + bytes > memoryLimit) {
+        if (fallbackToDisk || bytes > memoryLimit) {
+          return false;
+        }
+        try {
+          MEMORY_LOCK.wait();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException("Interrupted waiting for "
+                                           + bytes + " bytes of output"
+                                           + " buffer memory");
+        }
+      }
+      memoryInUse += bytes;
+      return true;
+    }
+  }
+
+  /**
+   * Return the memory of a block
+   * @param bytes number of bytes
+   */
+  void releaseMemory(long bytes) {
+    synchronized (MEMORY_LOCK) {
+      memoryInUse -= bytes;
+      MEMORY_LOCK.notifyAll();
+    }
+  }
+
+  /**
+   * @return the number of bytes reserved by memory blocks in this JVM
+   */
+  static long getMemoryInUse() {
+    synchronized (MEMORY_LOCK) {
+      return memoryInUse;
+    }
+  }
+
+  /**
+   * @return the number of blocks created on disk because the memory
+   * limit had been reached
+   */
+  long getDiskFallbacks() {
+    return diskFallbacks.get();
+  }
+
+  @Override
+  public String toString() {
+    return "SwiftOutputBlockFactory: buffer=" + buffer
+           + " block size=" + memoryBlockSize
+           + " segment size=" + diskPartitionSize
+           + " memory limit=" + memoryLimit
+           + " memory in use=" + getMemoryInUse()
+           + " disk fallbacks=" + getDiskFallbacks();
+  }
+}
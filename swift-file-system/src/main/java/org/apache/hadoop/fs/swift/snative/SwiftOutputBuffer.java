@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.hadoop.fs.swift.exceptions.SwiftConfigurationException;
+
+import java.util.Locale;
+
+/**
+ * Where an output stream buffers its data before uploading it.
+ */
+public enum SwiftOutputBuffer {
+
+  /**
+   * Temporary files on local disk. Blocks may be as large as a
+   * partition, so large files are uploaded in a few big segments.
+   */
+  DISK,
+
+  /**
+   * Byte arrays on the Java heap. Each block is uploaded as a segment
+   * as soon as it is full.
+   */
+  HEAP,
+
+  /**
+   * Direct byte buffers, outside the Java heap. Each block is uploaded
+   * as a segment as soon as it is full.
+   */
+  DIRECT;
+
+  /**
+   * Parse a buffer name, case-insensitively
+   * @param name buffer name
+   * @return the buffer type
+   * @throws SwiftConfigurationException if the name is not recognised
+   */
+  public static SwiftOutputBuffer fromString(String name) throws
+                                                    SwiftConfigurationException {
+    try {
+      return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      throw new SwiftConfigurationException("Unknown output buffer: " + name,
+                                            e);
+    }
+  }
+}
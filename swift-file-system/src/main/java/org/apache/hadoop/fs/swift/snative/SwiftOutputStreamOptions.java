@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The options of a {@link SwiftNativeOutputStream} or
+ * {@link SwiftStreamingOutputStream}, set up from the
+ * filesystem configuration. The setters return the instance
+ * so that calls can be chained.
+ */
+class SwiftOutputStreamOptions {
+
+  private SwiftOutputBlockFactory blockFactory;
+  private ExecutorService uploadExecutor;
+  private ExecutorService streamingExecutor;
+  private int activeUploads = 1;
+  private boolean staticManifest;
+  private boolean streaming;
+  private int uploadRetries;
+  private long uploadRetryInterval;
+
+  /**
+   * @return the factory of the blocks in which output is buffered
+   */
+  SwiftOutputBlockFactory getBlockFactory() {
+    return blockFactory;
+  }
+
+  SwiftOutputStreamOptions setBlockFactory(
+    SwiftOutputBlockFactory blockFactory) {
+    this.blockFactory = blockFactory;
+    return this;
+  }
+
+  /**
+   * @return executor for segment uploads; if null, segments are
+   * uploaded in the writing thread
+   */
+  ExecutorService getUploadExecutor() {
+    return uploadExecutor;
+  }
+
+  SwiftOutputStreamOptions setUploadExecutor(ExecutorService uploadExecutor) {
+    this.uploadExecutor = uploadExecutor;
+    return this;
+  }
+
+  /**
+   * @return executor for the uploads of streaming output, which must
+   * start every task at once; if null, each upload gets a new thread
+   */
+  ExecutorService getStreamingExecutor() {
+    return streamingExecutor;
+  }
+
+  SwiftOutputStreamOptions setStreamingExecutor(
+    ExecutorService streamingExecutor) {
+    this.streamingExecutor = streamingExecutor;
+    return this;
+  }
+
+  /**
+   * @return maximum number of segments of a stream being uploaded,
+   * or queued for upload, at any time
+   */
+  int getActiveUploads() {
+    return activeUploads;
+  }
+
+  SwiftOutputStreamOptions setActiveUploads(int activeUploads) {
+    this.activeUploads = activeUploads;
+    return this;
+  }
+
+  /**
+   * @return true if segmented uploads are completed with a Static
+   * Large Object manifest
+   */
+  boolean isStaticManifest() {
+    return staticManifest;
+  }
+
+  SwiftOutputStreamOptions setStaticManifest(boolean staticManifest) {
+    this.staticManifest = staticManifest;
+    return this;
+  }
+
+  /**
+   * @return true if output is streamed to Swift as it is written,
+   * rather than buffered
+   */
+  boolean isStreaming() {
+    return streaming;
+  }
+
+  SwiftOutputStreamOptions setStreaming(boolean streaming) {
+    this.streaming = streaming;
+    return this;
+  }
+
+  /**
+   * @return number of times the upload of a segment is retried
+   */
+  int getUploadRetries() {
+    return uploadRetries;
+  }
+
+  SwiftOutputStreamOptions setUploadRetries(int uploadRetries) {
+    this.uploadRetries = uploadRetries;
+    return this;
+  }
+
+  /**
+   * @return time in milliseconds before the first retry of a segment;
+   * it doubles for every further retry
+   */
+  long getUploadRetryInterval() {
+    return uploadRetryInterval;
+  }
+
+  SwiftOutputStreamOptions setUploadRetryInterval(long uploadRetryInterval) {
+    this.uploadRetryInterval = uploadRetryInterval;
+    return this;
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the prefetching of a stream, or of all the streams of
+ * a filesystem. The counters of a stream also add up into those of its
+ * filesystem, so that the effect of the prefetch settings on a whole
+ * job can be read from {@link SwiftNativeFileSystem#getPrefetchStatistics()}.
+ */
+public class SwiftPrefetchStatistics {
+
+  /**
+   * statistics these also add up into; null if there are none
+   */
+  private final SwiftPrefetchStatistics parent;
+
+  private final AtomicLong rangesFetched = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong resets = new AtomicLong();
+  private final AtomicLong bytesRead = new AtomicLong();
+  private final AtomicLong bytesWasted = new AtomicLong();
+
+  public SwiftPrefetchStatistics() {
+    this(null);
+  }
+
+  /**
+   * Create statistics which also add up into others
+   * @param parent statistics to add up into; may be null
+   */
+  SwiftPrefetchStatistics(SwiftPrefetchStatistics parent) {
+    this.parent = parent;
+  }
+
+  void rangeFetched() {
+    rangesFetched.incrementAndGet();
+    if (parent != null) {
+      parent.rangeFetched();
+    }
+  }
+
+  void hit() {
+    hits.incrementAndGet();
+    if (parent != null) {
+      parent.hit();
+    }
+  }
+
+  void miss() {
+    misses.incrementAndGet();
+    if (parent != null) {
+      parent.miss();
+    }
+  }
+
+  void reset() {
+    resets.incrementAndGet();
+    if (parent != null) {
+      parent.reset();
+    }
+  }
+
+  void bytesRead(long count) {
+    bytesRead.addAndGet(count);
+    if (parent != null) {
+      parent.bytesRead(count);
+    }
+  }
+
+  void bytesWasted(long count) {
+    bytesWasted.addAndGet(count);
+    if (parent != null) {
+      parent.bytesWasted(count);
+    }
+  }
+
+  /**
+   * @return number of ranges scheduled
+   */
+  public long getRangesFetched() {
+    return rangesFetched.get();
+  }
+
+  /**
+   * @return number of ranges whose data was ready when first read
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return number of ranges the reader had to wait for
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return number of times prefetching restarted after a read
+   * outside the queued ranges
+   */
+  public long getResets() {
+    return resets.get();
+  }
+
+  /**
+   * @return number of bytes served from prefetched ranges
+   */
+  public long getBytesRead() {
+    return bytesRead.get();
+  }
+
+  /**
+   * @return number of bytes prefetched but never read
+   */
+  public long getBytesWasted() {
+    return bytesWasted.get();
+  }
+
+  @Override
+  public String toString() {
+    return "ranges=" + getRangesFetched()
+           + " hits=" + getHits()
+           + " misses=" + getMisses()
+           + " resets=" + getResets()
+           + " bytes read=" + getBytesRead()
+           + " bytes wasted=" + getBytesWasted();
+  }
+}
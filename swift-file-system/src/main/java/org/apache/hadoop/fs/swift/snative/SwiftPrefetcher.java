@@ -0,0 +1,546 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.swift.util.SettableFuture;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Prefetches the ranges of an object ahead of a sequential reader.
+ *
+ * Up to {@code depth} consecutive ranges are fetched in parallel on a
+ * shared executor, each into a buffer from a pool of {@code depth}
+ * buffers owned by this prefetcher. Reads are served from the range at
+ * the head of the queue; once it is used up its buffer is recycled and
+ * the next range is scheduled.
+ *
+ * A read outside the prefetched window cancels all ranges in flight and
+ * restarts prefetching at the new position. Bytes fetched but never
+ * read are counted as waste. The counters are kept in a
+ * {@link SwiftPrefetchStatistics}, which adds up into that of the
+ * filesystem.
+ *
+ * If the object is a manifest and its segments are known, no range
+ * spans two segments and each is fetched directly from its segment,
+ * bypassing the proxy's concatenation of the segments.
+ *
+ * Not thread safe: the owning stream serializes calls.
+ */
+class SwiftPrefetcher {
+  private static final Log LOG = LogFactory.getLog(SwiftPrefetcher.class);
+
+  private final SwiftNativeFileSystemStore store;
+  private final Path path;
+  private final long fileLength;
+  private final int rangeSize;
+  private final int depth;
+  private final ExecutorService executor;
+
+  /**
+   * Paths of the segments of a manifest object; null if the
+   * object is read as a whole
+   */
+  private final Path[] segmentPaths;
+
+  /**
+   * Offsets in the object of the start of each segment
+   */
+  private final long[] segmentStarts;
+
+  /**
+   * Ranges in flight or completed, in order of offset
+   */
+  private final LinkedList<PrefetchRange> ranges =
+    new LinkedList<PrefetchRange>();
+
+  /**
+   * Buffers which are free for use
+   */
+  private final BlockingQueue<byte[]> freeBuffers;
+
+  /**
+   * Number of buffers allocated; never more than {@link #depth}
+   */
+  private int allocatedBuffers;
+
+  /**
+   * Offset of the next range to schedule
+   */
+  private long nextFetchOffset;
+
+  private final SwiftPrefetchStatistics statistics;
+
+  /**
+   * Create a prefetcher which reads an object as a whole
+   * @param store store
+   * @param path path of the object
+   * @param fileLength length of the object
+   * @param rangeSize maximum size of each range
+   * @param depth number of ranges to prefetch
+   * @param executor executor to fetch ranges on
+   * @param fsStatistics statistics of the filesystem to add the
+   * counters of this prefetcher to; may be null
+   */
+  SwiftPrefetcher(SwiftNativeFileSystemStore store,
+                  Path path,
+                  long fileLength,
+                  int rangeSize,
+                  int depth,
+                  ExecutorService executor,
+                  SwiftPrefetchStatistics fsStatistics) {
+    this.statistics = new SwiftPrefetchStatistics(fsStatistics);
+    this.store = store;
+    this.path = path;
+    this.fileLength = fileLength;
+    this.rangeSize = rangeSize;
+    this.depth = depth;
+    this.executor = executor;
+    this.freeBuffers = new ArrayBlockingQueue<byte[]>(depth);
+    this.segmentPaths = null;
+    this.segmentStarts = null;
+  }
+
+  /**
+   * Create a prefetcher which reads the segments of a manifest object
+   * @param store store
+   * @param path path of the manifest
+   * @param segments the segments, in order; their lengths must add up
+   * to the length of the object
+   * @param rangeSize maximum size of each range
+   * @param depth number of ranges to prefetch
+   * @param executor executor to fetch ranges on
+   * @param fsStatistics statistics of the filesystem to add the
+   * counters of this prefetcher to; may be null
+   */
+  SwiftPrefetcher(SwiftNativeFileSystemStore store,
+                  Path path,
+                  List<FileStatus> segments,
+                  int rangeSize,
+                  int depth,
+                  ExecutorService executor,
+                  SwiftPrefetchStatistics fsStatistics) {
+    this.statistics = new SwiftPrefetchStatistics(fsStatistics);
+    this.store = store;
+    this.path = path;
+    this.rangeSize = rangeSize;
+    this.depth = depth;
+    this.executor = executor;
+    this.freeBuffers = new ArrayBlockingQueue<byte[]>(depth);
+    this.segmentPaths = new Path[segments.size()];
+    this.segmentStarts = new long[segments.size()];
+    long offset = 0;
+    for (int i = 0; i < segmentPaths.length; i++) {
+      FileStatus segment = segments.get(i);
+      segmentPaths[i] = segment.getPath();
+      segmentStarts[i] = offset;
+      offset += segment.getLen();
+    }
+    this.fileLength = offset;
+  }
+
+  /**
+   * @return the number of segments read directly; 0 if the object
+   * is read as a whole
+   */
+  int getSegmentCount() {
+    return segmentPaths == null ? 0 : segmentPaths.length;
+  }
+
+  /**
+   * Find the segment holding an offset
+   * @param offset offset in the object, which must be below its length
+   * @return index of the last segment starting at or before the offset;
+   * as this skips empty segments, it is the one holding the offset
+   */
+  private int segmentIndex(long offset) {
+    int low = 0;
+    int high = segmentStarts.length - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (segmentStarts[mid] <= offset) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @param index segment index
+   * @return offset in the object of the end of the segment
+   */
+  private long segmentEnd(int index) {
+    return index + 1 < segmentStarts.length
+           ? segmentStarts[index + 1]
+           : fileLength;
+  }
+
+  /**
+   * @return the length of the file, as found when the stream was opened
+   */
+  long getFileLength() {
+    return fileLength;
+  }
+
+  /**
+   * Read prefetched data
+   * @param position position in the file
+   * @param buffer buffer to read into
+   * @param offset offset in the buffer
+   * @param length maximum number of bytes to read
+   * @return the number of bytes read, or -1 at the end of the file
+   * @throws IOException if the fetch of the range failed
+   */
+  int read(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    return read(position, null, buffer, offset, length);
+  }
+
+  /**
+   * Read prefetched data into a byte buffer, copying it straight
+   * from the range buffer
+   * @param position position in the file
+   * @param dest buffer to read into, up to its limit
+   * @return the number of bytes read, or -1 at the end of the file
+   * @throws IOException if the fetch of the range failed
+   */
+  int read(long position, ByteBuffer dest) throws IOException {
+    return read(position, dest, null, 0, dest.remaining());
+  }
+
+  /**
+   * Read prefetched data into either a byte buffer or an array
+   * @param position position in the file
+   * @param dest byte buffer to read into; null to read into the array
+   * @param buffer array to read into, if the byte buffer is null
+   * @param offset offset in the array
+   * @param length maximum number of bytes to read
+   * @return the number of bytes read, or -1 at the end of the file
+   * @throws IOException if the fetch of the range failed
+   */
+  private int read(long position, ByteBuffer dest,
+                   byte[] buffer, int offset, int length)
+      throws IOException {
+    if (position >= fileLength) {
+      return -1;
+    }
+    if (!ranges.isEmpty()
+        && (position < ranges.getFirst().offset
+            || position >= ranges.getLast().end())) {
+      statistics.reset();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Read at " + position + " outside prefetched ranges of "
+                  + path + "; restarting");
+      }
+      cancelAll();
+    }
+    //drop any ranges wholly before the position
+    while (!ranges.isEmpty() && ranges.getFirst().end() <= position) {
+      ranges.removeFirst().discard();
+    }
+    if (ranges.isEmpty()) {
+      nextFetchOffset = position;
+    }
+    fill();
+    PrefetchRange head = ranges.getFirst();
+    int fetched = head.await();
+    int start = (int) (position - head.offset);
+    int available = fetched - start;
+    if (available <= 0) {
+      //the object is shorter than it was when opened
+      return -1;
+    }
+    int read = Math.min(length, available);
+    if (dest != null) {
+      dest.put(head.buffer, start, read);
+    } else {
+      System.arraycopy(head.buffer, start, buffer, offset, read);
+    }
+    head.used += read;
+    statistics.bytesRead(read);
+    if (start + read >= fetched) {
+      ranges.removeFirst().discard();
+      fill();
+    }
+    return read;
+  }
+
+  /**
+   * Schedule ranges until {@link #depth} are queued, there are no
+   * free buffers, or the end of the file is reached.
+   * @throws InterruptedIOException if interrupted waiting for a buffer
+   */
+  private void fill() throws InterruptedIOException {
+    while (ranges.size() < depth && nextFetchOffset < fileLength) {
+      byte[] buffer = freeBuffers.poll();
+      if (buffer == null) {
+        if (allocatedBuffers < depth) {
+          buffer = new byte[rangeSize];
+          allocatedBuffers++;
+        } else if (ranges.isEmpty()) {
+          //all buffers are held by cancelled ranges still in flight;
+          //the reader needs a range, so wait for one to be recycled
+          try {
+            buffer = freeBuffers.take();
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted waiting for a"
+                                             + " prefetch buffer for "
+                                             + path);
+          }
+        } else {
+          return;
+        }
+      }
+      long limit = fileLength;
+      if (segmentPaths != null) {
+        limit = segmentEnd(segmentIndex(nextFetchOffset));
+      }
+      int length = (int) Math.min(rangeSize, limit - nextFetchOffset);
+      final PrefetchRange range =
+        new PrefetchRange(nextFetchOffset, length, buffer);
+      ranges.addLast(range);
+      nextFetchOffset += length;
+      statistics.rangeFetched();
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            range.fetch();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        range.finish(0, e);
+      }
+    }
+  }
+
+  /**
+   * Cancel and discard all ranges
+   */
+  void cancelAll() {
+    while (!ranges.isEmpty()) {
+      ranges.removeFirst().discard();
+    }
+  }
+
+  /**
+   * @return the counters of this prefetcher
+   */
+  SwiftPrefetchStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * @return number of ranges scheduled
+   */
+  long getRangesFetched() {
+    return statistics.getRangesFetched();
+  }
+
+  /**
+   * @return number of ranges whose data was ready when first read
+   */
+  long getHits() {
+    return statistics.getHits();
+  }
+
+  /**
+   * @return number of ranges the reader had to wait for
+   */
+  long getMisses() {
+    return statistics.getMisses();
+  }
+
+  /**
+   * @return number of times prefetching restarted after a read
+   * outside the queued ranges
+   */
+  long getResets() {
+    return statistics.getResets();
+  }
+
+  /**
+   * @return number of bytes served from prefetched ranges
+   */
+  long getBytesRead() {
+    return statistics.getBytesRead();
+  }
+
+  /**
+   * @return number of bytes prefetched but never read
+   */
+  long getBytesWasted() {
+    return statistics.getBytesWasted();
+  }
+
+  @Override
+  public String toString() {
+    return "prefetch: segments=" + getSegmentCount() + " " + statistics;
+  }
+
+  /**
+   * A range being prefetched
+   */
+  private final class PrefetchRange {
+    private final long offset;
+    private final int length;
+    private final byte[] buffer;
+    private final SettableFuture<Integer> result = new SettableFuture<Integer>();
+    /** bytes handed to the reader; only touched by the reader */
+    private int used;
+    /** first read of this range? only touched by the reader */
+    private boolean awaited;
+    private int fetched;
+    private boolean finished;
+    private volatile boolean discarded;
+
+    private PrefetchRange(long offset, int length, byte[] buffer) {
+      this.offset = offset;
+      this.length = length;
+      this.buffer = buffer;
+    }
+
+    private long end() {
+      return offset + length;
+    }
+
+    /**
+     * Fetch the range; runs in the executor
+     */
+    private void fetch() {
+      int total = 0;
+      Exception failure = null;
+      InputStream in = null;
+      try {
+        if (!discarded) {
+          if (segmentPaths == null) {
+            in = store.getObject(path, offset, length);
+          } else {
+            int segment = segmentIndex(offset);
+            in = store.getObject(segmentPaths[segment],
+                                 offset - segmentStarts[segment],
+                                 length);
+          }
+          while (total < length && !discarded) {
+            int read = in.read(buffer, total, length - total);
+            if (read < 0) {
+              break;
+            }
+            total += read;
+          }
+        }
+      } catch (EOFException e) {
+        //the object is shorter than expected
+      } catch (IOException e) {
+        failure = e;
+      } catch (RuntimeException e) {
+        failure = e;
+      } finally {
+        IOUtils.closeQuietly(in);
+      }
+      finish(total, failure);
+    }
+
+    private void finish(int total, Exception failure) {
+      boolean recycle;
+      synchronized (this) {
+        fetched = total;
+        finished = true;
+        recycle = discarded;
+      }
+      if (recycle) {
+        release();
+      } else if (failure != null) {
+        result.setException(failure);
+      } else {
+        result.set(total);
+      }
+    }
+
+    /**
+     * Wait for the range
+     * @return number of bytes fetched
+     * @throws IOException if the fetch failed or the wait was interrupted
+     */
+    private int await() throws IOException {
+      if (!awaited) {
+        awaited = true;
+        if (result.isDone()) {
+          statistics.hit();
+        } else {
+          statistics.miss();
+        }
+      }
+      try {
+        return result.get();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted waiting for prefetch"
+                                         + " of " + path + " at " + offset);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        throw new IOException("Prefetch of " + path + " at " + offset
+                              + " failed: " + cause, cause);
+      }
+    }
+
+    /**
+     * Discard the range; if still in flight the fetch is stopped and
+     * the buffer recycled when it finishes.
+     */
+    private void discard() {
+      boolean recycle;
+      synchronized (this) {
+        discarded = true;
+        recycle = finished;
+      }
+      if (recycle) {
+        release();
+      }
+    }
+
+    /**
+     * Count the waste and return the buffer to the pool
+     */
+    private void release() {
+      statistics.bytesWasted(Math.max(0, fetched - used));
+      freeBuffers.offer(buffer);
+    }
+  }
+}
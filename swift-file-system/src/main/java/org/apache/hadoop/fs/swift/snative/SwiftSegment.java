@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+/**
+ * Java mapping of a segment entry of a Static Large Object manifest
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class SwiftSegment {
+  /**
+   * Path of the segment: /container/object
+   */
+  private String path;
+
+  /**
+   * ETag -MD5 checksum- of the segment
+   */
+  private String etag;
+
+  /**
+   * Segment size in bytes
+   */
+  private long size_bytes;
+
+  public SwiftSegment() {
+  }
+
+  public SwiftSegment(String path, String etag, long size_bytes) {
+    this.path = path;
+    this.etag = etag;
+    this.size_bytes = size_bytes;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public void setPath(String path) {
+    this.path = path;
+  }
+
+  public String getEtag() {
+    return etag;
+  }
+
+  public void setEtag(String etag) {
+    this.etag = etag;
+  }
+
+  public long getSize_bytes() {
+    return size_bytes;
+  }
+
+  public void setSize_bytes(long size_bytes) {
+    this.size_bytes = size_bytes;
+  }
+
+  @Override
+  public String toString() {
+    return path + " (" + size_bytes + " bytes, etag " + etag + ")";
+  }
+}
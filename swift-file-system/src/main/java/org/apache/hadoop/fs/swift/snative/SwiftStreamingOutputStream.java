@@ -0,0 +1,408 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.swift.exceptions.SwiftException;
+import org.apache.hadoop.fs.swift.util.SwiftUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Output stream which sends data to Swift as it is written, in PUT
+ * requests with chunked transfer encoding, rather than buffering it
+ * locally until it can be uploaded with a known length.
+ *
+ * Each upload runs in a thread of the filesystem's streaming pool,
+ * reading the data through a small {@link SwiftUploadPipe}; the writer
+ * is only ever as far ahead of the network as the pipe holds. An upload
+ * lasts as long as its stream is open, so the pool starts a thread for
+ * every open stream rather than queueing any: a queued upload would
+ * never drain the pipe of its writer. The segment upload pool of the
+ * filesystem is not used.
+ *
+ * A new file is streamed straight to its path; Swift only stores a
+ * chunked upload once it is complete, so an upload which fails or is
+ * abandoned leaves nothing there. Should the file outgrow its first
+ * partition, that partition is copied -within Swift- to the first
+ * segment under the path, and the rest of the data is streamed as
+ * segments, given a manifest on close(). Between the copy and close(),
+ * the path holds the first partition of the file.
+ *
+ * A file which overwrites another is always streamed as segments, so
+ * that the file it replaces stays as it was until close(). A file of
+ * one segment is then copied to its path and the segment deleted: the
+ * close of such a stream costs a copy of up to a partition within
+ * Swift, and two requests more than the upload of a new file.
+ *
+ * As the data is not kept, a failed upload cannot be retried: the
+ * failure is raised by the next write, or by close(). The ETag Swift
+ * returns for every upload is checked against the MD5 checksum of
+ * the data written.
+ */
+class SwiftStreamingOutputStream extends OutputStream {
+  private static final Log LOG =
+    LogFactory.getLog(SwiftStreamingOutputStream.class);
+
+  /**
+   * Number of bytes buffered between the writer and an upload
+   */
+  static final int PIPE_CAPACITY = 1024 * 1024;
+
+  private final SwiftNativeFileSystemStore nativeStore;
+  private final String key;
+  private final boolean staticManifest;
+
+  /**
+   * Is the first partition streamed straight to the path of the file?
+   */
+  private final boolean direct;
+
+  /**
+   * Has the first partition been stored at the path of the file?
+   */
+  private boolean firstPartAtPath;
+  private long filePartSize;
+  private final MessageDigest fileMD5 = SwiftUtils.newMD5();
+  private final List<SwiftSegment> segments = new ArrayList<SwiftSegment>();
+  private MessageDigest partMD5;
+  private long partLength;
+
+  /**
+   * Number of the part being written
+   */
+  private int partNumber = 1;
+  private final ExecutorService uploadExecutor;
+  private SwiftUploadPipe pipe;
+  private FutureTask<SwiftSegment> upload;
+  private boolean closed;
+  private IOException failure;
+  private final byte[] singleByte = new byte[1];
+
+  /**
+   * Create a stream
+   * @param nativeStore store
+   * @param key path of the object
+   * @param options stream options
+   * @param overwriting does the stream replace an existing object?
+   */
+  SwiftStreamingOutputStream(SwiftNativeFileSystemStore nativeStore,
+                             String key,
+                             SwiftOutputStreamOptions options,
+                             boolean overwriting) {
+    this.nativeStore = nativeStore;
+    this.key = key;
+    this.direct = !overwriting;
+    this.staticManifest = options.isStaticManifest();
+    this.filePartSize = options.getBlockFactory().getSegmentSize();
+    this.uploadExecutor = options.getStreamingExecutor();
+  }
+
+  /**
+   * check that the output stream is open
+   * @throws SwiftException if it is not
+   */
+  private synchronized void verifyOpen() throws SwiftException {
+    if (closed) {
+      throw new SwiftException("Output stream is closed");
+    }
+  }
+
+  @Override
+  public synchronized void write(int b) throws IOException {
+    singleByte[0] = (byte) b;
+    write(singleByte, 0, 1);
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len)
+      throws IOException {
+    //validate args
+    if (off < 0 || len < 0 || (off + len) > b.length) {
+      throw new IndexOutOfBoundsException("Invalid offset/length for write");
+    }
+    verifyOpen();
+    if (failure != null) {
+      throw failure;
+    }
+    try {
+      while (len > 0) {
+        if (pipe == null) {
+          startUpload();
+        } else if (partLength == filePartSize) {
+          //more data than fits in a partition: finish it as a segment
+          nextPart();
+          continue;
+        }
+        int chunk = (int) Math.min(len, filePartSize - partLength);
+        try {
+          pipe.getOutputStream().write(b, off, chunk);
+        } catch (IOException e) {
+          throw uploadFailure(e);
+        }
+        fileMD5.update(b, off, chunk);
+        partMD5.update(b, off, chunk);
+        partLength += chunk;
+        off += chunk;
+        len -= chunk;
+      }
+    } catch (IOException e) {
+      failure = e;
+      abortUpload();
+      discardFirstPart();
+      throw e;
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (failure != null) {
+      throw new SwiftException("Upload of " + key + " failed: " + failure,
+                               failure);
+    }
+    try {
+      if (pipe == null) {
+        //nothing was written
+        nativeStore.uploadFile(new Path(key),
+                               new ByteArrayInputStream(new byte[0]),
+                               0,
+                               fileMD5Hex());
+        return;
+      }
+      SwiftSegment last = finishUpload();
+      if (segments.isEmpty()) {
+        if (!direct) {
+          //a single segment: make it the file
+          nativeStore.publishFilePart(new Path(key), partNumber);
+        }
+      } else {
+        segments.add(last);
+        nativeStore.deleteStaleFileParts(new Path(key), segments.size());
+        if (staticManifest) {
+          nativeStore.createStaticManifestForPartUpload(new Path(key),
+                                                        segments,
+                                                        fileMD5Hex());
+        } else {
+          nativeStore.createManifestForPartUpload(new Path(key),
+                                                  fileMD5Hex());
+        }
+      }
+    } catch (IOException e) {
+      discardFirstPart();
+      throw e;
+    } finally {
+      //if the upload is not complete, abandon it
+      abortUpload();
+    }
+  }
+
+  /**
+   * Abort the current upload, if there is one, so that Swift discards
+   * the partial data sent
+   */
+  private void abortUpload() {
+    if (pipe != null) {
+      pipe.abort();
+      pipe = null;
+    }
+  }
+
+  /**
+   * Delete the first partition of a new file from its path, if it has
+   * been stored there, as the upload of the file has failed. Failures
+   * to do so are only logged.
+   */
+  private void discardFirstPart() {
+    if (firstPartAtPath) {
+      firstPartAtPath = false;
+      try {
+        nativeStore.deleteObject(new Path(key));
+      } catch (IOException e) {
+        LOG.warn("Failed to delete the partial upload of " + key + ": " + e,
+                 e);
+      }
+    }
+  }
+
+  /**
+   * Start the upload of the next part on the streaming pool or,
+   * if there is none, in a thread of its own
+   */
+  private void startUpload() {
+    final SwiftUploadPipe newPipe = new SwiftUploadPipe(PIPE_CAPACITY);
+    final int number = partNumber;
+    //the first partition of a new file goes straight to its path
+    final boolean toPath = direct && segments.isEmpty();
+    upload = new FutureTask<SwiftSegment>(new Callable<SwiftSegment>() {
+      @Override
+      public SwiftSegment call() throws IOException {
+        InputStream in = newPipe.getInputStream();
+        try {
+          if (toPath) {
+            String etag = nativeStore.uploadFile(new Path(key), in, -1, null);
+            return new SwiftSegment(null, etag, -1);
+          }
+          return nativeStore.uploadFilePart(new Path(key), number, in, -1,
+                                            null);
+        } finally {
+          in.close();
+        }
+      }
+    });
+    boolean queued = false;
+    if (uploadExecutor != null) {
+      try {
+        uploadExecutor.execute(upload);
+        queued = true;
+      } catch (RejectedExecutionException e) {
+        //the pool has been shut down
+        LOG.debug("Upload executor rejected part; uploading in a new thread");
+      }
+    }
+    if (!queued) {
+      Thread thread = new Thread(upload, "swift-stream-upload");
+      thread.setDaemon(true);
+      thread.start();
+    }
+    pipe = newPipe;
+    partMD5 = SwiftUtils.newMD5();
+    partLength = 0;
+  }
+
+  /**
+   * End the data of the current part, and wait for Swift to
+   * acknowledge it
+   * @return the uploaded part, its ETag verified and its size set
+   * @throws IOException if the upload failed
+   */
+  private SwiftSegment finishUpload() throws IOException {
+    pipe.getOutputStream().close();
+    pipe = null;
+    SwiftSegment segment = result();
+    if (direct && segments.isEmpty()) {
+      firstPartAtPath = true;
+    }
+    SwiftUtils.verifyETag(key + " part " + partNumber,
+                          segment.getEtag(),
+                          SwiftUtils.toHex(partMD5.digest()));
+    segment.setSize_bytes(partLength);
+    return segment;
+  }
+
+  /**
+   * Finish the current part and move on to the next
+   * @throws IOException on a failure
+   */
+  private void nextPart() throws IOException {
+    SwiftSegment segment = finishUpload();
+    if (direct && segments.isEmpty()) {
+      //the new file outgrows its first partition, which is at its path
+      segment = nativeStore.copyToFilePart(new Path(key), partNumber,
+                                           segment.getEtag(),
+                                           segment.getSize_bytes());
+    }
+    segments.add(segment);
+    partNumber++;
+  }
+
+  /**
+   * Wait for the result of the current upload
+   * @return the uploaded part
+   * @throws IOException if the upload failed
+   */
+  private SwiftSegment result() throws IOException {
+    try {
+      return upload.get();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted waiting for the"
+                                       + " upload of " + key);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new SwiftException("Upload of " + key + " failed: " + cause,
+                               cause);
+    }
+  }
+
+  /**
+   * Get the failure of the current upload, which a write to its pipe
+   * failed because of. The pipe only fails once the upload has stopped
+   * reading it, so this does not wait long.
+   * @param e the failure of the write
+   * @return the failure of the upload, if it has failed; otherwise e
+   */
+  private IOException uploadFailure(IOException e) {
+    try {
+      result();
+    } catch (IOException failure) {
+      return failure;
+    }
+    return e;
+  }
+
+  /**
+   * Finish the checksum of the whole file
+   * @return the MD5 checksum in hex
+   */
+  private String fileMD5Hex() {
+    return SwiftUtils.toHex(fileMD5.digest());
+  }
+
+  /**
+   * Partition size can be set for testing purposes.
+   * @param filePartSize new partition size
+   */
+  @InterfaceAudience.Private
+  @InterfaceStability.Unstable
+  synchronized void setFilePartSize(long filePartSize) {
+    this.filePartSize = filePartSize;
+  }
+
+  /**
+   * Query the number of partitions written
+   * @return the of partitions already written to the remote FS
+   */
+  @InterfaceAudience.Private
+  @InterfaceStability.Unstable
+  synchronized int getPartitionsWritten() {
+    return segments.size();
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * A bounded buffer between the thread writing a file and the thread
+ * sending it to Swift in a streaming upload.
+ *
+ * The writer blocks while the buffer is full, the reader while it is
+ * empty. Closing the output is the end of the data; aborting it makes
+ * the reader fail, so that the upload is abandoned rather than completed
+ * with partial data. Closing the input -which the uploader does when
+ * its request finishes, successfully or not- makes further writes fail.
+ */
+class SwiftUploadPipe {
+
+  private final byte[] buffer;
+  private int head;
+  private int count;
+  private boolean writerClosed;
+  private boolean writerAborted;
+  private boolean readerClosed;
+
+  private final InputStream input = new InputStream() {
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return SwiftUploadPipe.this.read(b, off, len);
+    }
+
+    @Override
+    public int available() {
+      synchronized (SwiftUploadPipe.this) {
+        return count;
+      }
+    }
+
+    @Override
+    public void close() {
+      closeReader();
+    }
+  };
+
+  private final OutputStream output = new OutputStream() {
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      SwiftUploadPipe.this.write(b, off, len);
+    }
+
+    @Override
+    public void close() {
+      closeWriter(false);
+    }
+  };
+
+  /**
+   * Create a pipe
+   * @param capacity number of bytes buffered between the two sides
+   */
+  SwiftUploadPipe(int capacity) {
+    buffer = new byte[capacity];
+  }
+
+  /**
+   * @return the side read by the uploader
+   */
+  InputStream getInputStream() {
+    return input;
+  }
+
+  /**
+   * @return the side written by the writer
+   */
+  OutputStream getOutputStream() {
+    return output;
+  }
+
+  /**
+   * Abort the output: the reader fails instead of reaching the end
+   * of the data
+   */
+  void abort() {
+    closeWriter(true);
+  }
+
+  private synchronized int read(byte[] b, int off, int len)
+      throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    while (count == 0 && !writerClosed && !readerClosed) {
+      waitForOtherSide();
+    }
+    if (readerClosed) {
+      throw new IOException("Upload pipe closed");
+    }
+    if (writerAborted) {
+      throw new IOException("Upload aborted by the writer");
+    }
+    if (count == 0) {
+      return -1;
+    }
+    int read = 0;
+    while (read < len && count > 0) {
+      int chunk = Math.min(Math.min(len - read, count), buffer.length - head);
+      System.arraycopy(buffer, head, b, off + read, chunk);
+      head = (head + chunk) % buffer.length;
+      count -= chunk;
+      read += chunk;
+    }
+    notifyAll();
+    return read;
+  }
+
+  private synchronized void write(byte[] b, int off, int len)
+      throws IOException {
+    while (len > 0) {
+      while (count == buffer.length && !readerClosed && !writerClosed) {
+        waitForOtherSide();
+      }
+      if (writerClosed) {
+        throw new IOException("Upload pipe closed");
+      }
+      if (readerClosed) {
+        throw new IOException("Upload finished before all data was written");
+      }
+      int tail = (head + count) % buffer.length;
+      int chunk = Math.min(Math.min(len, buffer.length - count),
+                           buffer.length - tail);
+      System.arraycopy(b, off, buffer, tail, chunk);
+      count += chunk;
+      off += chunk;
+      len -= chunk;
+      notifyAll();
+    }
+  }
+
+  private void waitForOtherSide() throws InterruptedIOException {
+    try {
+      wait();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted waiting on upload pipe");
+    }
+  }
+
+  private synchronized void closeWriter(boolean abort) {
+    if (!writerClosed) {
+      writerClosed = true;
+      writerAborted = abort;
+    }
+    notifyAll();
+  }
+
+  private synchronized void closeReader() {
+    readerClosed = true;
+    notifyAll();
+  }
+}
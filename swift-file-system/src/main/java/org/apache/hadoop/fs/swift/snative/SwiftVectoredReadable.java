@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Streams which can read many ranges of a file in one call, merging
+ * ranges which are close together into single requests and
+ * fetching them in parallel.
+ */
+public interface SwiftVectoredReadable {
+
+  /**
+   * Start reading the ranges. The call returns once the reads have been
+   * queued; the data of each range is delivered through its future.
+   * The position of the stream is not changed.
+   * @param ranges ranges to read
+   * @throws IOException if the stream is closed or a range is invalid
+   */
+  void readVectored(List<SwiftFileRange> ranges) throws IOException;
+}
@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.swift.http.SwiftProtocolConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates the local files in which output is buffered before it is
+ * uploaded, spreading them across a list of directories -typically one
+ * on each disk of the host- in the manner of Hadoop's LocalDirAllocator.
+ *
+ * Directories are taken in turn. One without the usable space for the
+ * expected size of a file is passed over, as is one which cannot be
+ * created or written to; a directory which fails is then left out for
+ * a while before it is tried again. If no directory has room for the
+ * expected size, the one with the most usable space is taken.
+ */
+public class LocalBufferDirAllocator {
+  private static final Log LOG =
+    LogFactory.getLog(LocalBufferDirAllocator.class);
+
+  /**
+   * Time in milliseconds for which a failed directory is left out
+   */
+  static final long FAILED_DIR_RETRY_INTERVAL = 60 * 1000;
+
+  /**
+   * Allocators shared by all users of the same list of directories,
+   * so that their files are spread between them together
+   */
+  private static final Map<String, LocalBufferDirAllocator> ALLOCATORS =
+    new HashMap<String, LocalBufferDirAllocator>();
+
+  private final File[] dirs;
+
+  /**
+   * Time before which each directory is not tried, after a failure
+   */
+  private final long[] failedUntil;
+  private final AtomicInteger next = new AtomicInteger();
+  private final AtomicLong failures = new AtomicLong();
+
+  /**
+   * Create an allocator
+   * @param dirs directories to allocate files in; they are created
+   * when first used
+   */
+  public LocalBufferDirAllocator(File... dirs) {
+    if (dirs.length == 0) {
+      throw new IllegalArgumentException("No buffer directories");
+    }
+    this.dirs = dirs.clone();
+    this.failedUntil = new long[dirs.length];
+  }
+
+  /**
+   * Get the allocator for the buffer directories of a configuration:
+   * those of {@link SwiftProtocolConstants#SWIFT_BUFFER_DIR}, or
+   * hadoop.tmp.dir if that is unset
+   * @param conf configuration
+   * @return the allocator shared by every user of these directories
+   * @throws IOException if no directory is configured
+   */
+  public static LocalBufferDirAllocator getInstance(Configuration conf)
+    throws IOException {
+    String[] names =
+      conf.getTrimmedStrings(SwiftProtocolConstants.SWIFT_BUFFER_DIR);
+    if (names == null || names.length == 0) {
+      String tmp = conf.get("hadoop.tmp.dir");
+      if (tmp == null) {
+        throw new IOException("Neither "
+                              + SwiftProtocolConstants.SWIFT_BUFFER_DIR
+                              + " nor hadoop.tmp.dir is set");
+      }
+      names = new String[] {tmp};
+    }
+    String key = Arrays.toString(names);
+    synchronized (ALLOCATORS) {
+      LocalBufferDirAllocator allocator = ALLOCATORS.get(key);
+      if (allocator == null) {
+        File[] dirs = new File[names.length];
+        for (int i = 0; i < names.length; i++) {
+          dirs[i] = new File(names[i]);
+        }
+        allocator = new LocalBufferDirAllocator(dirs);
+        ALLOCATORS.put(key, allocator);
+      }
+      return allocator;
+    }
+  }
+
+  /**
+   * Create a temporary file, which is deleted on exit if it has not
+   * been already
+   * @param prefix prefix of the file name
+   * @param suffix suffix of the file name
+   * @param size expected size of the file; 0 if unknown
+   * @return the new file
+   * @throws IOException if no directory could hold it
+   */
+  public File createTempFile(String prefix, String suffix, long size)
+    throws IOException {
+    int start = (next.getAndIncrement() & Integer.MAX_VALUE) % dirs.length;
+    long now = System.currentTimeMillis();
+    int roomiest = -1;
+    long roomiestSpace = -1;
+    for (int i = 0; i < dirs.length; i++) {
+      int index = (start + i) % dirs.length;
+      if (!isUsable(index, now)) {
+        continue;
+      }
+      long space = dirs[index].getUsableSpace();
+      if (space >= size) {
+        File file = createTempFile(index, prefix, suffix);
+        if (file != null) {
+          return file;
+        }
+      } else if (space > roomiestSpace) {
+        roomiest = index;
+        roomiestSpace = space;
+      }
+    }
+    if (roomiest >= 0) {
+      //nowhere has room for all of it: the file may not grow that large
+      File file = createTempFile(roomiest, prefix, suffix);
+      if (file != null) {
+        return file;
+      }
+    }
+    throw new IOException("No usable buffer directory in "
+                          + Arrays.toString(dirs));
+  }
+
+  /**
+   * Check that a directory exists or can be created, and can be written
+   * to, unless it failed recently
+   * @param index index of the directory
+   * @param now current time
+   * @return true if it may be used
+   */
+  private boolean isUsable(int index, long now) {
+    synchronized (failedUntil) {
+      if (failedUntil[index] > now) {
+        return false;
+      }
+    }
+    File dir = dirs[index];
+    if ((dir.isDirectory() || dir.mkdirs() || dir.isDirectory())
+        && dir.canWrite()) {
+      return true;
+    }
+    failed(index, "cannot be created or written to");
+    return false;
+  }
+
+  /**
+   * Create a temporary file in a directory
+   * @param index index of the directory
+   * @param prefix prefix of the file name
+   * @param suffix suffix of the file name
+   * @return the file, or null if it could not be created
+   */
+  private File createTempFile(int index, String prefix, String suffix) {
+    try {
+      File file = File.createTempFile(prefix, suffix, dirs[index]);
+      file.deleteOnExit();
+      return file;
+    } catch (IOException e) {
+      failed(index, e.toString());
+      return null;
+    }
+  }
+
+  /**
+   * Leave a directory out for a while
+   * @param index index of the directory
+   * @param reason reason, for the log
+   */
+  private void failed(int index, String reason) {
+    failures.incrementAndGet();
+    LOG.warn("Buffer directory " + dirs[index] + " failed: " + reason
+             + "; not using it for " + FAILED_DIR_RETRY_INTERVAL + "ms");
+    synchronized (failedUntil) {
+      failedUntil[index] =
+        System.currentTimeMillis() + FAILED_DIR_RETRY_INTERVAL;
+    }
+  }
+
+  /**
+   * @return the number of times a directory has failed
+   */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  @Override
+  public String toString() {
+    return "LocalBufferDirAllocator: dirs=" + Arrays.toString(dirs)
+           + " failures=" + getFailures();
+  }
+}
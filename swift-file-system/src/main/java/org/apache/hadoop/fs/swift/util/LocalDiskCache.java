@@ -0,0 +1,359 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of byte arrays held as files in a local directory,
+ * evicting the least recently used entries when over capacity.
+ *
+ * The directory may be shared by any number of processes on the same
+ * host. Entries are written to a temporary file and renamed into
+ * place, so a reader never sees a partial entry; eviction is
+ * serialized between processes by a lock on a file in the directory.
+ * Recency is the modification time of an entry, which is updated
+ * on every hit.
+ *
+ * Entries are immutable: callers must put the version of whatever
+ * they are caching into the key.
+ */
+public class LocalDiskCache {
+  private static final Log LOG = LogFactory.getLog(LocalDiskCache.class);
+
+  private static final String LOCK_FILE = ".lock";
+  private static final String TEMP_PREFIX = ".tmp-";
+
+  /**
+   * Temporary files older than this are assumed to have been
+   * abandoned by a failed process and are deleted when evicting.
+   */
+  private static final long TEMP_FILE_LIFETIME = 60 * 60 * 1000;
+
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  private final File dir;
+  private final long capacity;
+
+  /**
+   * Estimate of the bytes in the cache; entries added by other
+   * processes are only picked up when the directory is rescanned
+   */
+  private final AtomicLong usage = new AtomicLong();
+  private final AtomicLong writtenSinceScan = new AtomicLong();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Create a cache, creating its directory if needed
+   * @param dir directory to hold the entries
+   * @param capacity maximum number of bytes to keep
+   * @throws IOException if the directory cannot be created
+   */
+  public LocalDiskCache(File dir, long capacity) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("Cannot create cache directory " + dir);
+    }
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Invalid cache capacity: " + capacity);
+    }
+    this.dir = dir;
+    this.capacity = capacity;
+    usage.set(scan().size);
+  }
+
+  /**
+   * Open a cached entry, marking it as recently used
+   * @param key entry key
+   * @return a stream of the entry's data, or null if it is not cached
+   */
+  public InputStream open(String key) {
+    File file = new File(dir, key);
+    try {
+      InputStream in = new FileInputStream(file);
+      hits.incrementAndGet();
+      file.setLastModified(System.currentTimeMillis());
+      return in;
+    } catch (FileNotFoundException e) {
+      misses.incrementAndGet();
+      return null;
+    }
+  }
+
+  /**
+   * Read a whole cached entry, marking it as recently used
+   * @param key entry key
+   * @return the entry's data, or null if it is not cached
+   * @throws IOException on a failure to read an entry that exists
+   */
+  public byte[] get(String key) throws IOException {
+    InputStream in = open(key);
+    if (in == null) {
+      return null;
+    }
+    try {
+      byte[] data = new byte[(int) new File(dir, key).length()];
+      int read = 0;
+      while (read < data.length) {
+        int count = in.read(data, read, data.length - read);
+        if (count < 0) {
+          //truncated by an eviction between the open and the length check
+          return Arrays.copyOf(data, read);
+        }
+        read += count;
+      }
+      return data;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Add an entry. If another process has added the same key in the
+   * meantime, its entry is kept.
+   * @param key entry key
+   * @param data buffer holding the data
+   * @param offset offset of the data in the buffer
+   * @param length length of the data
+   * @throws IOException on a failure to write the entry
+   */
+  public void put(String key, byte[] data, int offset, int length)
+    throws IOException {
+    put(key, new ByteArrayInputStream(data, offset, length));
+  }
+
+  /**
+   * Add an entry holding all the data of a stream. If another process
+   * has added the same key in the meantime, its entry is kept.
+   * @param key entry key
+   * @param data stream of the data; it is not closed
+   * @throws IOException on a failure to read the data or write the entry
+   */
+  public void put(String key, InputStream data) throws IOException {
+    File entry = new File(dir, key);
+    File temp = File.createTempFile(TEMP_PREFIX, null, dir);
+    boolean renamed = false;
+    long length = 0;
+    try {
+      FileOutputStream out = new FileOutputStream(temp);
+      try {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int count;
+        while ((count = data.read(buffer)) >= 0) {
+          out.write(buffer, 0, count);
+          length += count;
+        }
+      } finally {
+        out.close();
+      }
+      renamed = entry.exists() || temp.renameTo(entry);
+    } finally {
+      if (!renamed || temp.exists()) {
+        temp.delete();
+      }
+    }
+    usage.addAndGet(length);
+    //rescan now and then to learn of entries added by other processes
+    if (usage.get() > capacity
+        || writtenSinceScan.addAndGet(length) > capacity / 16) {
+      evict();
+    }
+  }
+
+  /**
+   * Remove an entry if it is present
+   * @param key entry key
+   */
+  public void remove(String key) {
+    File entry = new File(dir, key);
+    long length = entry.length();
+    if (entry.delete()) {
+      usage.addAndGet(-length);
+    }
+  }
+
+  /**
+   * Delete the least recently used entries until the cache is within
+   * its capacity. If another process is already evicting, this returns
+   * without doing anything.
+   * @throws IOException on a failure to lock the directory
+   */
+  public void evict() throws IOException {
+    RandomAccessFile lockFile =
+      new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+    try {
+      FileLock lock;
+      try {
+        lock = lockFile.getChannel().tryLock();
+      } catch (OverlappingFileLockException e) {
+        //another thread of this process holds it
+        lock = null;
+      }
+      if (lock == null) {
+        return;
+      }
+      try {
+        Scan scan = scan();
+        long size = scan.size;
+        File[] entries = scan.entries;
+        Arrays.sort(entries, new Comparator<File>() {
+          @Override
+          public int compare(File f1, File f2) {
+            long m1 = f1.lastModified();
+            long m2 = f2.lastModified();
+            return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+          }
+        });
+        for (int i = 0; i < entries.length && size > capacity; i++) {
+          long length = entries[i].length();
+          if (entries[i].delete()) {
+            size -= length;
+            evictions.incrementAndGet();
+          }
+        }
+        usage.set(size);
+        writtenSinceScan.set(0);
+      } finally {
+        lock.release();
+      }
+    } finally {
+      lockFile.close();
+    }
+  }
+
+  /**
+   * List the entries of the directory, deleting abandoned temporary files
+   * @return the entries and their total size
+   */
+  private Scan scan() {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return new Scan(new File[0], 0);
+    }
+    long now = System.currentTimeMillis();
+    File[] entries = new File[files.length];
+    int count = 0;
+    long size = 0;
+    for (File file : files) {
+      String name = file.getName();
+      if (name.startsWith(TEMP_PREFIX)) {
+        if (now - file.lastModified() > TEMP_FILE_LIFETIME) {
+          file.delete();
+        }
+      } else if (!name.equals(LOCK_FILE)) {
+        entries[count++] = file;
+        size += file.length();
+      }
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Cache " + dir + " holds " + count + " entries, "
+                + size + " bytes");
+    }
+    return new Scan(Arrays.copyOf(entries, count), size);
+  }
+
+  /**
+   * Build a key from a list of strings, by hashing them. The key is
+   * safe to use as a filename.
+   * @param parts the parts of the key
+   * @return the key
+   */
+  public static String toKey(String... parts) {
+    MessageDigest digest = SwiftUtils.newMD5();
+    try {
+      for (String part : parts) {
+        digest.update(part.getBytes("UTF-8"));
+        //a separator which cannot appear in the UTF-8 encoding of a string
+        digest.update((byte) 0xff);
+      }
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+    return SwiftUtils.toHex(digest.digest());
+  }
+
+  public File getDir() {
+    return dir;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the estimated number of bytes in the cache
+   */
+  public long getUsage() {
+    return usage.get();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  @Override
+  public String toString() {
+    return "LocalDiskCache " + dir
+           + " capacity=" + capacity
+           + " usage=" + getUsage()
+           + " hits=" + getHits()
+           + " misses=" + getMisses()
+           + " evictions=" + getEvictions();
+  }
+
+  /**
+   * Result of a directory scan
+   */
+  private static final class Scan {
+    private final File[] entries;
+    private final long size;
+
+    private Scan(File[] entries, long size) {
+      this.entries = entries;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A future whose value or failure is set by whatever code completes
+ * the work, rather than by running a task. Only the first completion
+ * takes effect.
+ * @param <V> type of the value
+ */
+public class SettableFuture<V> implements Future<V> {
+
+  private final CountDownLatch done = new CountDownLatch(1);
+  private V value;
+  private Throwable failure;
+  private boolean cancelled;
+
+  /**
+   * Complete the future with a value
+   * @param result the value
+   * @return true if this call completed the future
+   */
+  public boolean set(V result) {
+    synchronized (this) {
+      if (isDone()) {
+        return false;
+      }
+      value = result;
+      done.countDown();
+    }
+    return true;
+  }
+
+  /**
+   * Complete the future with a failure
+   * @param thrown the failure
+   * @return true if this call completed the future
+   */
+  public boolean setException(Throwable thrown) {
+    synchronized (this) {
+      if (isDone()) {
+        return false;
+      }
+      failure = thrown;
+      done.countDown();
+    }
+    return true;
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    synchronized (this) {
+      if (isDone()) {
+        return false;
+      }
+      cancelled = true;
+      done.countDown();
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  @Override
+  public boolean isDone() {
+    return done.getCount() == 0;
+  }
+
+  @Override
+  public V get() throws InterruptedException, ExecutionException {
+    done.await();
+    return result();
+  }
+
+  @Override
+  public V get(long timeout, TimeUnit unit) throws InterruptedException,
+                                                   ExecutionException,
+                                                   TimeoutException {
+    if (!done.await(timeout, unit)) {
+      throw new TimeoutException();
+    }
+    return result();
+  }
+
+  private synchronized V result() throws ExecutionException {
+    if (cancelled) {
+      throw new CancellationException();
+    }
+    if (failure != null) {
+      throw new ExecutionException(failure);
+    }
+    return value;
+  }
+}
@@ -18,7 +18,20 @@
 
 package org.apache.hadoop.fs.swift.util;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.swift.exceptions.SwiftChecksumMismatchException;
+import org.apache.hadoop.fs.swift.exceptions.SwiftConfigurationException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Various utility classes for SwiftFS support
@@ -88,4 +101,208 @@ public final class SwiftUtils {
                                   SwiftObjectPath possibleChild) {
     return possibleChild.getObject().startsWith(parent.getObject() + "/");
   }
+
+  /**
+   * Get a long option from the configuration, failing if the value
+   * is not a number or is below the minimum.
+   * @param conf configuration
+   * @param key key to look up
+   * @param defVal default value
+   * @param min minimum permitted value
+   * @return the value
+   * @throws SwiftConfigurationException if the value is invalid
+   */
+  public static long getLongOption(Configuration conf,
+                                   String key,
+                                   long defVal,
+                                   long min) throws
+                                                 SwiftConfigurationException {
+    long val;
+    try {
+      val = conf.getLong(key, defVal);
+    } catch (NumberFormatException e) {
+      throw new SwiftConfigurationException("Failed to parse (numeric) value"
+                                            + " of property " + key
+                                            + " : " + conf.get(key), e);
+    }
+    if (val < min) {
+      throw new SwiftConfigurationException("Value of property " + key
+                                            + " is below the minimum of "
+                                            + min + " : " + val);
+    }
+    return val;
+  }
+
+  /**
+   * Get an int option from the configuration, failing if the value
+   * is not a number or is below the minimum.
+   * @param conf configuration
+   * @param key key to look up
+   * @param defVal default value
+   * @param min minimum permitted value
+   * @return the value
+   * @throws SwiftConfigurationException if the value is invalid
+   */
+  public static int getIntOption(Configuration conf,
+                                 String key,
+                                 int defVal,
+                                 int min) throws SwiftConfigurationException {
+    long val = getLongOption(conf, key, defVal, min);
+    if (val > Integer.MAX_VALUE) {
+      throw new SwiftConfigurationException("Value of property " + key
+                                            + " is too large: " + val);
+    }
+    return (int) val;
+  }
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /**
+   * Create an MD5 digest
+   * @return a new digest
+   */
+  public static MessageDigest newMD5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      //every JVM is required to support MD5
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Convert bytes to lower case hex, the form of the ETags Swift uses
+   * @param bytes bytes
+   * @return the hex string
+   */
+  public static String toHex(byte[] bytes) {
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+      hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(hex);
+  }
+
+  /**
+   * Check the ETag returned by an upload against the checksum of the
+   * data sent
+   * @param name name of the object, for the message
+   * @param etag ETag returned; null if there was none
+   * @param md5 checksum of the data sent; null if unknown
+   * @throws SwiftChecksumMismatchException if they differ
+   */
+  public static void verifyETag(String name, String etag, String md5)
+    throws SwiftChecksumMismatchException {
+    if (etag == null || md5 == null) {
+      //nothing to check
+      return;
+    }
+    etag = unquoteETag(etag);
+    if (!etag.equalsIgnoreCase(md5)) {
+      throw new SwiftChecksumMismatchException("ETag " + etag + " of "
+                                               + name
+                                               + " does not match the MD5"
+                                               + " checksum " + md5
+                                               + " of the data sent");
+    }
+  }
+
+  /**
+   * Strip the quotes around an ETag, if it has them
+   * @param etag ETag
+   * @return the value
+   */
+  public static String unquoteETag(String etag) {
+    if (etag.length() > 1 && etag.startsWith("\"") && etag.endsWith("\"")) {
+      return etag.substring(1, etag.length() - 1);
+    }
+    return etag;
+  }
+
+  /**
+   * Build the name of a partition of a file uploaded in segments.
+   * The number is zero padded, so that the lexical order of the names
+   * -the order in which Swift concatenates the segments- matches
+   * the numeric order.
+   * @param partNumber partition number, starting at 1
+   * @return the name of the partition
+   */
+  public static String partitionFilenameFromNumber(int partNumber) {
+    return String.format("%06d", partNumber);
+  }
+
+  /**
+   * Is a name that of a partition which is not one of the first
+   * partCount partitions as {@link #partitionFilenameFromNumber(int)}
+   * names them? Partitions written under other names -such as the
+   * unpadded numbers of earlier versions- are all stale.
+   * @param name filename under the path of a file
+   * @param partCount number of partitions of the file
+   * @return true if the name is all digits, but not the name of one
+   * of the partitions of the file
+   */
+  public static boolean isStalePartitionFilename(String name, int partCount) {
+    if (name.length() == 0) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      if (!Character.isDigit(name.charAt(i))) {
+        return false;
+      }
+    }
+    int number;
+    try {
+      number = Integer.parseInt(name);
+    } catch (NumberFormatException e) {
+      //too large to be any partition
+      return true;
+    }
+    return number < 1 || number > partCount
+           || !name.equals(partitionFilenameFromNumber(number));
+  }
+
+  /**
+   * Create a thread pool of daemon threads, which time out when idle.
+   * Work queues up once all threads are busy.
+   * @param name prefix for the thread names
+   * @param threads maximum number of threads
+   * @return a new executor, which must be shut down when no longer needed
+   */
+  public static ExecutorService newDaemonThreadPool(String name,
+                                                    int threads) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(
+      threads, threads, 60, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(),
+      newDaemonThreadFactory(name));
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * Create a thread pool of daemon threads which never queues work:
+   * a task which finds no idle thread gets a new one. For tasks which
+   * may block until other work of the caller is done, and so must
+   * never wait for a thread.
+   * @param name prefix for the thread names
+   * @return a new executor, which must be shut down when no longer needed
+   */
+  public static ExecutorService newUnboundedDaemonThreadPool(String name) {
+    return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                                  new SynchronousQueue<Runnable>(),
+                                  newDaemonThreadFactory(name));
+  }
+
+  private static ThreadFactory newDaemonThreadFactory(final String name) {
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
 }
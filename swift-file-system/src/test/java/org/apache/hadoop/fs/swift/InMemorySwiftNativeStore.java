@@ -24,18 +24,33 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.swift.exceptions.SwiftChecksumMismatchException;
 import org.apache.hadoop.fs.swift.exceptions.SwiftOperationFailedException;
+import org.apache.hadoop.fs.swift.snative.SwiftFileChecksum;
+import org.apache.hadoop.fs.swift.snative.SwiftFileStatus;
 import org.apache.hadoop.fs.swift.snative.SwiftNativeFileSystemStore;
+import org.apache.hadoop.fs.swift.snative.SwiftSegment;
+import org.apache.hadoop.fs.swift.util.SwiftUtils;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * In-memory Swift emulator for tests.
@@ -47,6 +62,15 @@ public class InMemorySwiftNativeStore extends SwiftNativeFileSystemStore {
   private SortedMap<String, FileStatus> metadataMap =
           new TreeMap<String, FileStatus>();
   private SortedMap<String, byte[]> dataMap = new TreeMap<String, byte[]>();
+  private SortedMap<String, List<FileStatus>> manifestMap =
+          new TreeMap<String, List<FileStatus>>();
+  private final Set<String> staticManifests = new HashSet<String>();
+  private final Map<String, String> manifestChecksums =
+          new HashMap<String, String>();
+  private final AtomicInteger getCount = new AtomicInteger();
+  private final AtomicInteger copyCount = new AtomicInteger();
+  private final ConcurrentMap<String, AtomicInteger> pathGetCounts =
+          new ConcurrentHashMap<String, AtomicInteger>();
 
   @Override
   public void initialize(URI fsURI, Configuration conf) {
@@ -54,25 +78,188 @@ public class InMemorySwiftNativeStore extends SwiftNativeFileSystemStore {
   }
 
   @Override
-  public void uploadFile(Path path, InputStream inputStream, long length) {
+  public void uploadFile(Path path, InputStream inputStream, long length)
+          throws IOException {
+    store(path, readAll(inputStream));
+  }
+
+  /**
+   * Upload a file; like Swift, reject the data if its checksum does
+   * not match the one sent, and store nothing if the data cannot be
+   * read to its end.
+   */
+  @Override
+  public String uploadFile(Path path, InputStream inputStream, long length,
+                           String md5) throws IOException {
+    byte[] data = readAll(inputStream);
+    String etag = md5Hex(data);
+    if (md5 != null && !md5.equals(etag)) {
+      throw new SwiftChecksumMismatchException("Unprocessable entity: "
+              + path);
+    }
+    store(path, data);
+    return etag;
+  }
+
+  private static String md5Hex(byte[] data) {
+    return SwiftUtils.toHex(SwiftUtils.newMD5().digest(data));
+  }
+
+  private static byte[] readAll(InputStream inputStream) throws IOException {
     ByteArrayOutputStream out = new ByteArrayOutputStream();
     byte[] buf = new byte[8192];
     int numRead;
-    long size = 0;
     try {
       while ((numRead = inputStream.read(buf)) >= 0) {
         out.write(buf, 0, numRead);
-        size += numRead;
       }
-    } catch (IOException e) {
-      e.printStackTrace();
     } finally {
       IOUtils.closeQuietly(inputStream);
     }
-    metadataMap.put(path.toUri().toString(),
-            new FileStatus(size, false, 0, 0, System.currentTimeMillis(),
-                    path));
-    dataMap.put(path.toUri().toString(), out.toByteArray());
+    return out.toByteArray();
+  }
+
+  private synchronized void store(Path path, byte[] data) {
+    String key = path.toUri().toString();
+    metadataMap.put(key,
+            new FileStatus(data.length, false, 0, 0,
+                    System.currentTimeMillis(), path));
+    dataMap.put(key, data);
+    manifestMap.remove(key);
+    staticManifests.remove(key);
+    manifestChecksums.remove(key);
+  }
+
+  /**
+   * Store a partition under the path of its file, named as Swift does.
+   */
+  @Override
+  public SwiftSegment uploadFilePart(Path path, int partNumber,
+                                     InputStream inputStream, long length,
+                                     String md5) throws IOException {
+    Path part = new Path(path,
+                         SwiftUtils.partitionFilenameFromNumber(partNumber));
+    String etag = uploadFile(part, inputStream, length, md5);
+    return new SwiftSegment(part.toUri().toString(), etag,
+            dataMap.get(part.toUri().toString()).length);
+  }
+
+  /**
+   * Copy the object at a path to a partition under it.
+   */
+  @Override
+  public synchronized SwiftSegment copyToFilePart(Path path, int partNumber,
+                                                  String etag, long length)
+          throws IOException {
+    byte[] data = dataMap.get(path.toUri().toString());
+    if (data == null) {
+      throw new FileNotFoundException("Not found " + path.toUri());
+    }
+    copyCount.incrementAndGet();
+    Path part = new Path(path,
+                         SwiftUtils.partitionFilenameFromNumber(partNumber));
+    store(part, data);
+    return new SwiftSegment(part.toUri().toString(), etag, length);
+  }
+
+  /**
+   * Move the partition under the path of a file to the file's path.
+   */
+  @Override
+  public synchronized void publishFilePart(Path path, int partNumber)
+          throws IOException {
+    Path part = new Path(path,
+                         SwiftUtils.partitionFilenameFromNumber(partNumber));
+    byte[] data = dataMap.get(part.toUri().toString());
+    if (data == null) {
+      throw new FileNotFoundException("Not found " + part.toUri());
+    }
+    copyCount.incrementAndGet();
+    store(path, data);
+    deleteObject(part);
+  }
+
+  /**
+   * Get the number of objects copied within the store
+   * @return the number of copies
+   */
+  public int getCopyCount() {
+    return copyCount.get();
+  }
+
+  /**
+   * Delete the partitions directly under a path which are not among
+   * the given number of partitions.
+   */
+  @Override
+  public synchronized void deleteStaleFileParts(Path path, int partCount)
+          throws IOException {
+    String prefix = path.toUri().toString() + "/";
+    List<Path> stale = new ArrayList<Path>();
+    for (String key : dataMap.tailMap(prefix).keySet()) {
+      if (!key.startsWith(prefix)) {
+        break;
+      }
+      String name = key.substring(prefix.length());
+      if (SwiftUtils.isStalePartitionFilename(name, partCount)) {
+        stale.add(new Path(key));
+      }
+    }
+    for (Path part : stale) {
+      deleteObject(part);
+    }
+  }
+
+  /**
+   * Create the manifest of a partitioned upload from the partitions
+   * under its path, in their lexical order -as Swift does.
+   */
+  @Override
+  public synchronized void createManifestForPartUpload(Path path,
+          String md5) throws IOException {
+    String prefix = path.toUri().toString() + "/";
+    List<Path> segments = new ArrayList<Path>();
+    for (String key : dataMap.tailMap(prefix).keySet()) {
+      if (!key.startsWith(prefix)) {
+        break;
+      }
+      segments.add(new Path(key));
+    }
+    createManifest(path, segments.toArray(new Path[segments.size()]));
+    if (md5 != null) {
+      manifestChecksums.put(path.toUri().toString(), md5);
+    }
+  }
+
+  /**
+   * Create a static manifest from the listed segments; each must exist
+   * and match its listed size, as Swift requires.
+   */
+  @Override
+  public synchronized void createStaticManifestForPartUpload(Path path,
+          List<SwiftSegment> segments, String md5) throws IOException {
+    List<Path> paths = new ArrayList<Path>();
+    for (SwiftSegment segment : segments) {
+      Path segmentPath = new Path(segment.getPath());
+      if (getObjectMetadata(segmentPath).getLen() != segment.getSize_bytes()) {
+        throw new SwiftOperationFailedException("Size mismatch of segment "
+                + segment);
+      }
+      paths.add(segmentPath);
+    }
+    createManifest(path, paths.toArray(new Path[paths.size()]));
+    staticManifests.add(path.toUri().toString());
+    if (md5 != null) {
+      manifestChecksums.put(path.toUri().toString(), md5);
+    }
+  }
+
+  /**
+   * @param path path
+   * @return true if the path was created as a static large object
+   */
+  public synchronized boolean isStaticManifest(Path path) {
+    return staticManifests.contains(path.toUri().toString());
   }
 
   @Override
@@ -86,17 +273,84 @@ public class InMemorySwiftNativeStore extends SwiftNativeFileSystemStore {
 
   @Override
   public InputStream getObject(Path path) throws IOException {
-    return getObject(path, 0, 0);
+    return getObject(path, 0, Long.MAX_VALUE);
+  }
+
+  @Override
+  public InputStream getObject(Path path, long byteRangeStart) throws
+          IOException {
+    return getObject(path, byteRangeStart, Long.MAX_VALUE);
   }
 
+  /**
+   * Get a range of an object; like Swift, a range starting at or past the
+   * end of the data is rejected with an EOFException.
+   */
   @Override
   public InputStream getObject(Path path, long byteRangeStart, long length) throws
           IOException {
+    getCount.incrementAndGet();
+    AtomicInteger pathCount = new AtomicInteger();
+    AtomicInteger existing =
+            pathGetCounts.putIfAbsent(path.toUri().toString(), pathCount);
+    (existing != null ? existing : pathCount).incrementAndGet();
     byte[] data = dataMap.get(path.toUri().toString());
     if (data == null) {
       throw new FileNotFoundException("Not found" + path.toUri());
     }
-    return new ByteArrayInputStream(data);
+    if (byteRangeStart > 0 && byteRangeStart >= data.length) {
+      throw new EOFException("Range not satisfiable: " + byteRangeStart);
+    }
+    int start = (int) byteRangeStart;
+    return new ByteArrayInputStream(data, start,
+            (int) Math.min(length, data.length - start));
+  }
+
+  /**
+   * @return the number of GET requests made of this store
+   */
+  public int getGetCount() {
+    return getCount.get();
+  }
+
+  /**
+   * @param path object path
+   * @return the number of GET requests made of one object
+   */
+  public int getGetCount(Path path) {
+    AtomicInteger count = pathGetCounts.get(path.toUri().toString());
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * Create a manifest object whose data is the concatenation of
+   * existing objects, its segments
+   * @param path path of the manifest
+   * @param segments paths of the segments, in order
+   * @throws IOException if a segment is missing
+   */
+  public void createManifest(Path path, Path... segments) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    List<FileStatus> statuses = new ArrayList<FileStatus>();
+    for (Path segment : segments) {
+      statuses.add(getObjectMetadata(segment));
+      out.write(dataMap.get(segment.toUri().toString()));
+    }
+    metadataMap.put(path.toUri().toString(),
+            new SwiftFileStatus(out.size(), false, 0, 0,
+                    System.currentTimeMillis(), path,
+                    "container" + path.toUri().getPath()));
+    dataMap.put(path.toUri().toString(), out.toByteArray());
+    manifestMap.put(path.toUri().toString(), statuses);
+  }
+
+  @Override
+  public List<FileStatus> listManifestSegments(Path path, String manifest) {
+    List<FileStatus> segments = manifestMap.get(path.toUri().toString());
+    if (segments == null) {
+      return Collections.emptyList();
+    }
+    return segments;
   }
 
   @Override
@@ -112,12 +366,41 @@ public class InMemorySwiftNativeStore extends SwiftNativeFileSystemStore {
   }
 
   @Override
-  public boolean deleteObject(Path path) throws IOException {
+  public synchronized boolean deleteObject(Path path) throws IOException {
     boolean found = null != metadataMap.remove(path.toUri().toString());
     dataMap.remove(path.toUri().toString());
+    manifestMap.remove(path.toUri().toString());
+    staticManifests.remove(path.toUri().toString());
+    manifestChecksums.remove(path.toUri().toString());
     return found;
   }
 
+  /**
+   * The checksum of a plain object is the MD5 of its data -its ETag;
+   * that of a manifest is the one recorded when it was written.
+   * Directories, and empty objects, have none.
+   */
+  @Override
+  public synchronized SwiftFileChecksum getFileChecksum(Path path)
+          throws IOException {
+    String key = path.toUri().toString();
+    byte[] data = dataMap.get(key);
+    if (data == null) {
+      if (metadataMap.containsKey(key)) {
+        //a directory
+        return null;
+      }
+      throw new FileNotFoundException("Not found " + path.toUri());
+    }
+    if (data.length == 0) {
+      return null;
+    }
+    if (manifestMap.containsKey(key)) {
+      return SwiftFileChecksum.fromHex(manifestChecksums.get(key));
+    }
+    return SwiftFileChecksum.fromHex(md5Hex(data));
+  }
+
   @Override
   public boolean objectExists(Path path) {
     return metadataMap.containsKey(path.toUri().toString());
@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.swift.http.SwiftProtocolConstants;
+import org.apache.hadoop.fs.swift.util.LocalBufferDirAllocator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the allocator of local output buffer files
+ */
+public class TestLocalBufferDirAllocator {
+
+  private File root;
+
+  @Before
+  public void setUp() throws Exception {
+    root = File.createTempFile("swiftbuffer", "");
+    root.delete();
+    root.mkdirs();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    delete(root);
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static int count(File dir) {
+    String[] names = dir.list();
+    return names == null ? 0 : names.length;
+  }
+
+  @Test
+  public void testRoundRobin() throws Throwable {
+    File[] dirs = {
+      new File(root, "d1"), new File(root, "d2"), new File(root, "d3")
+    };
+    LocalBufferDirAllocator allocator = new LocalBufferDirAllocator(dirs);
+    for (int i = 0; i < 6; i++) {
+      File file = allocator.createTempFile("test-", ".tmp", 1024);
+      assertTrue(file.exists());
+    }
+    for (File dir : dirs) {
+      assertEquals(dir.toString(), 2, count(dir));
+    }
+    assertEquals(0, allocator.getFailures());
+  }
+
+  @Test
+  public void testFailedDirectorySkipped() throws Throwable {
+    File bad = new File(root, "bad");
+    assertTrue(bad.createNewFile());
+    File good = new File(root, "good");
+    LocalBufferDirAllocator allocator =
+      new LocalBufferDirAllocator(bad, good);
+    for (int i = 0; i < 4; i++) {
+      assertEquals(good,
+                   allocator.createTempFile("test-", ".tmp", 0).getParentFile());
+    }
+    //the failed directory is not retried straight away
+    assertEquals(1, allocator.getFailures());
+  }
+
+  @Test(expected = IOException.class)
+  public void testNoUsableDirectory() throws Throwable {
+    File bad = new File(root, "bad");
+    assertTrue(bad.createNewFile());
+    new LocalBufferDirAllocator(bad).createTempFile("test-", ".tmp", 0);
+  }
+
+  @Test
+  public void testFileLargerThanFreeSpace() throws Throwable {
+    File dir = new File(root, "d1");
+    LocalBufferDirAllocator allocator = new LocalBufferDirAllocator(dir);
+    File file = allocator.createTempFile("test-", ".tmp", Long.MAX_VALUE);
+    assertEquals(dir, file.getParentFile());
+  }
+
+  @Test
+  public void testSharedInstance() throws Throwable {
+    Configuration conf = new Configuration();
+    conf.set("hadoop.tmp.dir", root.getPath());
+    LocalBufferDirAllocator tmp = LocalBufferDirAllocator.getInstance(conf);
+    assertSame(tmp, LocalBufferDirAllocator.getInstance(conf));
+    assertEquals(root,
+                 tmp.createTempFile("test-", ".tmp", 0).getParentFile());
+    conf.set(SwiftProtocolConstants.SWIFT_BUFFER_DIR,
+             new File(root, "d1") + "," + new File(root, "d2"));
+    assertNotSame(tmp, LocalBufferDirAllocator.getInstance(conf));
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift;
+
+import org.apache.hadoop.fs.swift.util.LocalDiskCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the local disk cache used to cache object data
+ */
+public class TestLocalDiskCache {
+
+  private File dir;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = File.createTempFile("swiftcache", "");
+    dir.delete();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  private static byte[] data(int length, int seed) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (seed + i);
+    }
+    return data;
+  }
+
+  @Test
+  public void testPutGet() throws Throwable {
+    LocalDiskCache cache = new LocalDiskCache(dir, 1024);
+    byte[] data = data(100, 3);
+    assertNull(cache.get("k1"));
+    cache.put("k1", data, 0, data.length);
+    assertArrayEquals(data, cache.get("k1"));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertEquals(100, cache.getUsage());
+  }
+
+  @Test
+  public void testOpen() throws Throwable {
+    LocalDiskCache cache = new LocalDiskCache(dir, 1024);
+    byte[] data = data(10, 0);
+    cache.put("k1", data, 2, 5);
+    InputStream in = cache.open("k1");
+    assertNotNull(in);
+    try {
+      assertEquals(2, in.read());
+      assertEquals(2, in.skip(2));
+      assertEquals(5, in.read());
+      assertEquals(6, in.read());
+      assertEquals(-1, in.read());
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testExistingEntryKept() throws Throwable {
+    LocalDiskCache cache = new LocalDiskCache(dir, 1024);
+    cache.put("k1", data(10, 0), 0, 10);
+    cache.put("k1", data(10, 1), 0, 10);
+    assertArrayEquals(data(10, 0), cache.get("k1"));
+    assertEquals("temporary files left behind", 1, dir.list().length);
+  }
+
+  @Test
+  public void testRemove() throws Throwable {
+    LocalDiskCache cache = new LocalDiskCache(dir, 1024);
+    cache.put("k1", data(10, 0), 0, 10);
+    cache.remove("k1");
+    assertNull(cache.get("k1"));
+    assertEquals(0, cache.getUsage());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEvicted() throws Throwable {
+    LocalDiskCache cache = new LocalDiskCache(dir, 300);
+    cache.put("k1", data(100, 1), 0, 100);
+    cache.put("k2", data(100, 2), 0, 100);
+    cache.put("k3", data(100, 3), 0, 100);
+    //make k1 the oldest entry, then touch it so that k2 is
+    new File(dir, "k1").setLastModified(System.currentTimeMillis() - 30000);
+    new File(dir, "k2").setLastModified(System.currentTimeMillis() - 20000);
+    new File(dir, "k3").setLastModified(System.currentTimeMillis() - 10000);
+    assertNotNull(cache.get("k1"));
+    cache.put("k4", data(100, 4), 0, 100);
+    assertFalse(new File(dir, "k2").exists());
+    assertTrue(new File(dir, "k1").exists());
+    assertTrue(new File(dir, "k3").exists());
+    assertTrue(new File(dir, "k4").exists());
+    assertEquals(1, cache.getEvictions());
+    assertEquals(300, cache.getUsage());
+  }
+
+  @Test
+  public void testUsageOfExistingEntriesCounted() throws Throwable {
+    LocalDiskCache cache = new LocalDiskCache(dir, 1024);
+    cache.put("k1", data(100, 1), 0, 100);
+    LocalDiskCache cache2 = new LocalDiskCache(dir, 1024);
+    assertEquals(100, cache2.getUsage());
+    assertArrayEquals(data(100, 1), cache2.get("k1"));
+  }
+
+  @Test
+  public void testKeys() throws Throwable {
+    String key = LocalDiskCache.toKey("swift://c.s", "/a/b", "etag", "0");
+    assertEquals(32, key.length());
+    assertEquals(key, LocalDiskCache.toKey("swift://c.s", "/a/b", "etag", "0"));
+    assertFalse(key.equals(LocalDiskCache.toKey("swift://c.s", "/a/b",
+                                                  "etag", "1")));
+    //the separator between parts is part of the key
+    assertFalse(LocalDiskCache.toKey("ab", "c").equals(
+      LocalDiskCache.toKey("a", "bc")));
+  }
+
+  @Test(expected = IOException.class)
+  public void testUncreatableDirectory() throws Throwable {
+    File file = File.createTempFile("swiftcache", "");
+    try {
+      new LocalDiskCache(file, 1024);
+    } finally {
+      file.delete();
+    }
+  }
+}
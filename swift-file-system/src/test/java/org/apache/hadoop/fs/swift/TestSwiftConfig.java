@@ -93,6 +93,29 @@ public class TestSwiftConfig {
     mkInstance(configuration);
   }
 
+  @Test
+  public void testGoodConnectionPoolOptions() throws Exception {
+    final Configuration configuration = createCoreConfig();
+    set(configuration, DOT_MAX_CONNECTIONS_PER_HOST, "4");
+    set(configuration, DOT_MAX_TOTAL_CONNECTIONS, "8");
+    set(configuration, DOT_CONNECTION_IDLE_TIMEOUT, "0");
+    mkInstance(configuration).close();
+  }
+
+  @Test(expected = org.apache.hadoop.fs.swift.exceptions.SwiftConfigurationException.class)
+  public void testBadMaxConnections() throws Exception {
+    final Configuration configuration = createCoreConfig();
+    set(configuration, DOT_MAX_TOTAL_CONNECTIONS, "eight");
+    mkInstance(configuration);
+  }
+
+  @Test(expected = org.apache.hadoop.fs.swift.exceptions.SwiftConfigurationException.class)
+  public void testZeroConnectionsPerHost() throws Exception {
+    final Configuration configuration = createCoreConfig();
+    set(configuration, DOT_MAX_CONNECTIONS_PER_HOST, "0");
+    mkInstance(configuration);
+  }
+
   private Configuration createCoreConfig() {
     final Configuration configuration = new Configuration();
     set(configuration, DOT_AUTH_URL, "http://localhost:8080");
@@ -106,10 +129,10 @@ public class TestSwiftConfig {
     configuration.set(SWIFT_SERVICE_PREFIX + SERVICE + field, value);
   }
 
-  private void mkInstance(Configuration configuration) throws
+  private SwiftRestClient mkInstance(Configuration configuration) throws
                                                        IOException,
                                                        URISyntaxException {
     URI uri = new URI("swift://container.openstack/");
-    SwiftRestClient.getInstance(uri, configuration);
+    return SwiftRestClient.getInstance(uri, configuration);
   }
 }
@@ -93,17 +93,18 @@ public class TestSwiftFileSystemPartitionedUploads extends SwiftFileSystemBaseTe
                                        1024);
     assertEquals("wrong number of partitons written",
                  0, swiftFS.getPartitionsWritten(out));
-    //write first half
+    //write first half: one full partition is uploaded, the second is
+    //held until more data arrives
     out.write(src, 0, len / 2);
     assertEquals("wrong number of partitons written",
                  1, swiftFS.getPartitionsWritten(out));
     //write second half
     out.write(src, len / 2, len / 2);
     assertEquals("wrong number of partitons written",
-                 2, swiftFS.getPartitionsWritten(out));
+                 3, swiftFS.getPartitionsWritten(out));
     out.close();
     assertEquals("wrong number of partitons written",
-                 3, swiftFS.getPartitionsWritten(out));
+                 4, swiftFS.getPartitionsWritten(out));
 
     assertTrue("Exists", fs.exists(path));
     assertEquals("Length", len, fs.getFileStatus(path).getLen());
@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.block;
+
+import org.apache.hadoop.fs.swift.util.LocalDiskCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the two-tier cache of the block filesystem
+ */
+public class TestSwiftBlockCache {
+
+  private File dir;
+  private File source;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = File.createTempFile("swiftblockcache", "");
+    dir.delete();
+    source = File.createTempFile("swiftblock", ".tmp");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+    source.delete();
+  }
+
+  private File block(int length, int seed) throws IOException {
+    FileOutputStream out = new FileOutputStream(source);
+    try {
+      out.write(data(length, seed));
+    } finally {
+      out.close();
+    }
+    return source;
+  }
+
+  private static byte[] data(int length, int seed) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (seed + i);
+    }
+    return data;
+  }
+
+  private static byte[] read(InputStream in, int length) throws IOException {
+    try {
+      byte[] data = new byte[length];
+      int read = 0;
+      while (read < length) {
+        int count = in.read(data, read, length - read);
+        if (count < 0) {
+          break;
+        }
+        read += count;
+      }
+      assertEquals(-1, in.read());
+      return data;
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testMemoryTierEvictsLeastRecentlyUsed() throws Throwable {
+    SwiftBlockCache cache = new SwiftBlockCache(null, 250);
+    cache.put("a", block(100, 1));
+    cache.put("b", block(100, 2));
+    assertNotNull(cache.open("a"));
+    cache.put("c", block(100, 3));
+    assertEquals(200, cache.getMemoryUsage());
+    assertArrayEquals(data(100, 1), read(cache.open("a"), 100));
+    assertNull(cache.open("b"));
+    assertArrayEquals(data(100, 3), read(cache.open("c"), 100));
+  }
+
+  @Test
+  public void testDiskTierPromotesToMemory() throws Throwable {
+    LocalDiskCache disk = new LocalDiskCache(dir, 1024);
+    SwiftBlockCache cache = new SwiftBlockCache(disk, 150);
+    cache.put("a", block(100, 1));
+    cache.put("b", block(100, 2));
+    //a has been dropped from memory, but is still on disk
+    assertArrayEquals(data(100, 1), read(cache.open("a"), 100));
+    assertEquals(1, disk.getHits());
+    assertArrayEquals(data(100, 1), read(cache.open("a"), 100));
+    assertEquals(1, disk.getHits());
+    assertEquals(1, cache.getMemoryHits());
+  }
+
+  @Test
+  public void testLargeBlocksOnlyOnDisk() throws Throwable {
+    LocalDiskCache disk = new LocalDiskCache(dir, 1024);
+    SwiftBlockCache cache = new SwiftBlockCache(disk, 50);
+    cache.put("a", block(100, 1));
+    assertEquals(0, cache.getMemoryUsage());
+    assertArrayEquals(data(100, 1), read(cache.open("a"), 100));
+    assertEquals(1, disk.getHits());
+  }
+
+  @Test
+  public void testRemove() throws Throwable {
+    SwiftBlockCache cache =
+      new SwiftBlockCache(new LocalDiskCache(dir, 1024), 1024);
+    cache.put("a", block(100, 1));
+    cache.remove("a");
+    assertNull(cache.open("a"));
+    assertEquals(0, cache.getMemoryUsage());
+  }
+
+  @Test
+  public void testStreamedBlockIsCached() throws Throwable {
+    SwiftBlockCache cache = new SwiftBlockCache(null, 1024);
+    File copy = File.createTempFile("swiftblock", ".copy");
+    InputStream in = new SwiftCachingBlockStream(
+            new ByteArrayInputStream(data(100, 1)), cache, "a", copy, 100);
+    assertEquals(data(100, 1)[0], (byte) in.read());
+    assertEquals(10, in.skip(10));
+    //the block is only cached once it has all been read
+    assertNull(cache.open("a"));
+    read(in, 89);
+    assertArrayEquals(data(100, 1), read(cache.open("a"), 100));
+    assertFalse(copy.exists());
+  }
+
+  @Test
+  public void testPartlyStreamedBlockIsNotCached() throws Throwable {
+    SwiftBlockCache cache = new SwiftBlockCache(null, 1024);
+    File copy = File.createTempFile("swiftblock", ".copy");
+    InputStream in = new SwiftCachingBlockStream(
+            new ByteArrayInputStream(data(100, 1)), cache, "a", copy, 100);
+    assertTrue(in.read(new byte[50]) > 0);
+    in.close();
+    assertNull(cache.open("a"));
+    assertFalse(copy.exists());
+  }
+
+  @Test
+  public void testKeysDistinguishFilesystems() throws Throwable {
+    String k1 = SwiftBlockCache.toKey("bswift://c1.s", 1);
+    String k2 = SwiftBlockCache.toKey("bswift://c2.s", 1);
+    assertEquals(k1, SwiftBlockCache.toKey("bswift://c1.s", 1));
+    assertFalse(k1.equals(k2));
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.block;
+
+import org.apache.hadoop.fs.swift.exceptions.SwiftException;
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests of the generation of block IDs
+ */
+public class TestSwiftBlockIdGenerator {
+
+  private static final long SEQUENCE_MASK =
+    (1L << SwiftBlockIdGenerator.SEQUENCE_BITS) - 1;
+
+  /**
+   * Claimer which records the ranges it is asked for, rejecting
+   * the first few of them
+   */
+  private static class RecordingClaimer
+    implements SwiftBlockIdGenerator.RangeClaimer {
+    private final List<Long> claims = new ArrayList<Long>();
+    private int rejections;
+
+    private RecordingClaimer(int rejections) {
+      this.rejections = rejections;
+    }
+
+    @Override
+    public boolean claim(long firstId) {
+      claims.add(firstId);
+      if (rejections > 0) {
+        rejections--;
+        return false;
+      }
+      return true;
+    }
+  }
+
+  @Test
+  public void testIdsUniqueWithOneClaim() throws Throwable {
+    RecordingClaimer claimer = new RecordingClaimer(0);
+    SwiftBlockIdGenerator generator =
+      new SwiftBlockIdGenerator(new SecureRandom(), claimer);
+    Set<Long> ids = new HashSet<Long>();
+    for (int i = 0; i < 10000; i++) {
+      long id = generator.next();
+      assertTrue(ids.add(id));
+      //every ID lies in the claimed range, after its marker
+      assertEquals(claimer.claims.get(0).longValue(), id & ~SEQUENCE_MASK);
+      assertTrue((id & SEQUENCE_MASK) != 0);
+    }
+    assertEquals(1, claimer.claims.size());
+    assertTrue(claimer.claims.get(0) != 0);
+  }
+
+  @Test
+  public void testRejectedRangeNotUsed() throws Throwable {
+    RecordingClaimer claimer = new RecordingClaimer(2);
+    SwiftBlockIdGenerator generator =
+      new SwiftBlockIdGenerator(new SecureRandom(), claimer);
+    long id = generator.next();
+    assertEquals(3, claimer.claims.size());
+    assertEquals(claimer.claims.get(2).longValue(), id & ~SEQUENCE_MASK);
+  }
+
+  @Test
+  public void testNoRangeClaimable() throws Throwable {
+    SwiftBlockIdGenerator generator =
+      new SwiftBlockIdGenerator(new SecureRandom(),
+                                new RecordingClaimer(Integer.MAX_VALUE));
+    try {
+      generator.next();
+      fail("expected a failure to claim a range");
+    } catch (SwiftException expected) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testNewRangeClaimedWhenExhausted() throws Throwable {
+    RecordingClaimer claimer = new RecordingClaimer(0);
+    SwiftBlockIdGenerator generator =
+      new SwiftBlockIdGenerator(new SecureRandom(), claimer);
+    long last = 0;
+    for (long i = 1; i <= SEQUENCE_MASK; i++) {
+      last = generator.next();
+    }
+    assertEquals(SEQUENCE_MASK, last & SEQUENCE_MASK);
+    assertEquals(1, claimer.claims.size());
+    long id = generator.next();
+    assertEquals(2, claimer.claims.size());
+    assertEquals(claimer.claims.get(1).longValue(), id & ~SEQUENCE_MASK);
+    assertEquals(1, id & SEQUENCE_MASK);
+  }
+}
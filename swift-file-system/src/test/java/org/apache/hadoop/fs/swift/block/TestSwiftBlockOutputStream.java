@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.block;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.s3.Block;
+import org.apache.hadoop.fs.s3.INode;
+import org.apache.hadoop.fs.swift.http.SwiftProtocolConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of how the block output stream stores files
+ */
+public class TestSwiftBlockOutputStream {
+
+  private static final Path PATH = new Path("/test/file");
+
+  private File dir;
+  private Configuration conf;
+  private RecordingStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = File.createTempFile("swiftblockout", "");
+    dir.delete();
+    dir.mkdirs();
+    conf = new Configuration();
+    conf.set(SwiftProtocolConstants.SWIFT_BUFFER_DIR, dir.getPath());
+    store = new RecordingStore();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  private void write(byte[] data) throws IOException {
+    OutputStream out =
+      new SwiftBlockOutputStream(conf, store, PATH, 1024, 64);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+  }
+
+  @Test
+  public void testEmptyFileStoredAsBlockByDefault() throws Throwable {
+    write(new byte[0]);
+    INode inode = store.inodes.get(PATH);
+    assertFalse(inode instanceof SwiftInlineINode);
+    assertEquals(1, inode.getBlocks().length);
+    assertEquals(0, inode.getBlocks()[0].getLength());
+    assertEquals(1, store.blocks.size());
+  }
+
+  @Test
+  public void testSmallFileInlined() throws Throwable {
+    conf.setLong(SwiftProtocolConstants.SWIFT_BLOCK_INLINE_THRESHOLD, 100);
+    byte[] data = "small file".getBytes("UTF-8");
+    write(data);
+    INode inode = store.inodes.get(PATH);
+    assertTrue(inode instanceof SwiftInlineINode);
+    assertArrayEquals(data, ((SwiftInlineINode) inode).getData());
+    assertEquals(0, store.blocks.size());
+  }
+
+  @Test
+  public void testFileOverThresholdStoredAsBlock() throws Throwable {
+    conf.setLong(SwiftProtocolConstants.SWIFT_BLOCK_INLINE_THRESHOLD, 4);
+    write("small file".getBytes("UTF-8"));
+    assertFalse(store.inodes.get(PATH) instanceof SwiftInlineINode);
+    assertEquals(1, store.blocks.size());
+  }
+
+  /**
+   * Store recording the INodes and blocks written to it
+   */
+  private static class RecordingStore extends SwiftBlockFileSystemStore {
+    private final Map<Path, INode> inodes = new HashMap<Path, INode>();
+    private final List<Block> blocks = new ArrayList<Block>();
+    private final SwiftBlockIdGenerator ids =
+      new SwiftBlockIdGenerator(new SecureRandom(),
+        new SwiftBlockIdGenerator.RangeClaimer() {
+          @Override
+          public boolean claim(long firstId) {
+            return true;
+          }
+        });
+
+    @Override
+    public long newBlockId() throws IOException {
+      return ids.next();
+    }
+
+    @Override
+    public void storeINode(Path path, INode inode, String md5) {
+      inodes.put(path, inode);
+    }
+
+    @Override
+    public void storeBlock(Block block, File file, String md5) {
+      blocks.add(block);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.block;
+
+import org.apache.hadoop.fs.s3.Block;
+import org.apache.hadoop.fs.s3.INode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests of the cache of INodes
+ */
+public class TestSwiftINodeCache {
+
+  private static INode file(long blockId) {
+    return new INode(INode.FileType.FILE, new Block[] {new Block(blockId, 1)});
+  }
+
+  @Test
+  public void testPutGetRemove() throws Throwable {
+    SwiftINodeCache cache = new SwiftINodeCache(10, 60000);
+    INode inode = file(1);
+    assertNull(cache.get("/a"));
+    cache.put("/a", inode);
+    assertSame(inode, cache.get("/a"));
+    cache.remove("/a");
+    assertNull(cache.get("/a"));
+  }
+
+  @Test
+  public void testReplace() throws Throwable {
+    SwiftINodeCache cache = new SwiftINodeCache(10, 60000);
+    cache.put("/a", file(1));
+    INode inode = file(2);
+    cache.put("/a", inode);
+    assertSame(inode, cache.get("/a"));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testExpiry() throws Throwable {
+    SwiftINodeCache cache = new SwiftINodeCache(10, 20);
+    cache.put("/a", file(1));
+    Thread.sleep(100);
+    assertNull(cache.get("/a"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedDropped() throws Throwable {
+    SwiftINodeCache cache = new SwiftINodeCache(2, 60000);
+    INode a = file(1);
+    cache.put("/a", a);
+    cache.put("/b", file(2));
+    cache.get("/a");
+    cache.put("/c", file(3));
+    assertSame(a, cache.get("/a"));
+    assertNull(cache.get("/b"));
+    assertEquals(2, cache.size());
+  }
+}
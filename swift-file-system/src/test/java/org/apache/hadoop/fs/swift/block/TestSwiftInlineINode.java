@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.block;
+
+import org.apache.hadoop.fs.s3.Block;
+import org.apache.hadoop.fs.s3.INode;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests of the serialization of inline INodes, and of the
+ * reading of the INodes of earlier versions
+ */
+public class TestSwiftInlineINode {
+
+  private static byte[] toBytes(InputStream in, long length)
+    throws IOException {
+    byte[] bytes = new byte[(int) length];
+    int read = 0;
+    while (read < bytes.length) {
+      int count = in.read(bytes, read, bytes.length - read);
+      if (count < 0) {
+        fail("serialized INode shorter than " + length);
+      }
+      read += count;
+    }
+    assertEquals(-1, in.read());
+    return bytes;
+  }
+
+  private static INode roundTrip(INode inode) throws IOException {
+    byte[] bytes = toBytes(inode.serialize(), inode.getSerializedLength());
+    return SwiftInlineINode.deserialize(new ByteArrayInputStream(bytes));
+  }
+
+  @Test
+  public void testInlineRoundTrip() throws Throwable {
+    byte[] data = "small file".getBytes("UTF-8");
+    INode inode = roundTrip(new SwiftInlineINode(data));
+    assertTrue(inode instanceof SwiftInlineINode);
+    assertTrue(inode.isFile());
+    assertArrayEquals(data, ((SwiftInlineINode) inode).getData());
+    assertEquals(1, inode.getBlocks().length);
+    assertEquals(data.length, inode.getBlocks()[0].getLength());
+  }
+
+  @Test
+  public void testEmptyInlineRoundTrip() throws Throwable {
+    INode inode = roundTrip(new SwiftInlineINode(new byte[0]));
+    assertEquals(0, ((SwiftInlineINode) inode).getData().length);
+  }
+
+  @Test
+  public void testBlockINodeRead() throws Throwable {
+    INode inode = roundTrip(new INode(INode.FileType.FILE, new Block[] {
+      new Block(-12, 100), new Block(34, 50)
+    }));
+    assertFalse(inode instanceof SwiftInlineINode);
+    assertEquals(2, inode.getBlocks().length);
+    assertEquals(-12, inode.getBlocks()[0].getId());
+    assertEquals(50, inode.getBlocks()[1].getLength());
+  }
+
+  @Test
+  public void testDirectoryINodeRead() throws Throwable {
+    assertTrue(roundTrip(INode.DIRECTORY_INODE).isDirectory());
+  }
+
+  @Test
+  public void testNullStream() throws Throwable {
+    assertNull(SwiftInlineINode.deserialize(null));
+  }
+
+  @Test
+  public void testUnknownVersionRejected() throws Throwable {
+    byte[] bytes = {SwiftInlineINode.INLINE_FILE_TYPE, 99, 0, 0, 0, 0};
+    try {
+      SwiftInlineINode.deserialize(new ByteArrayInputStream(bytes));
+      fail("read an INode of an unknown version");
+    } catch (IOException expected) {
+      //expected
+    }
+  }
+}
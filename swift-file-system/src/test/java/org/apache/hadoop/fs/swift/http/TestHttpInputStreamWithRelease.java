@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.http;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the choice between draining and aborting
+ * a response stream which is closed early.
+ */
+public class TestHttpInputStreamWithRelease {
+
+  private static final int LENGTH = 10000;
+  private static final int THRESHOLD = 1000;
+
+  private SwiftConnectionManager connectionManager;
+  private boolean aborted;
+  private boolean released;
+
+  @Before
+  public void setup() {
+    connectionManager = new SwiftConnectionManager(1, 1, 1000, 0);
+    aborted = false;
+    released = false;
+  }
+
+  /**
+   * Create a method whose response is a byte array
+   * @param contentLength value of the content length header; -1 for none
+   * @return the method
+   */
+  private HttpMethod method(final long contentLength) {
+    final ByteArrayInputStream body =
+      new ByteArrayInputStream(new byte[LENGTH]);
+    return (HttpMethod) Proxy.newProxyInstance(
+      getClass().getClassLoader(),
+      new Class[]{HttpMethod.class},
+      new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          String name = method.getName();
+          if (name.equals("getResponseBodyAsStream")) {
+            return body;
+          } else if (name.equals("getResponseHeader")) {
+            return contentLength < 0 ? null
+                   : new Header((String) args[0], Long.toString(contentLength));
+          } else if (name.equals("abort")) {
+            aborted = true;
+          } else if (name.equals("releaseConnection")) {
+            released = true;
+          }
+          return null;
+        }
+      });
+  }
+
+  private HttpInputStreamWithRelease open(long contentLength) throws Exception {
+    return new HttpInputStreamWithRelease(new URI("http://localhost/x"),
+                                          method(contentLength),
+                                          THRESHOLD,
+                                          connectionManager);
+  }
+
+  private static void skip(HttpInputStreamWithRelease in, int bytes)
+    throws Exception {
+    byte[] buffer = new byte[bytes];
+    int read = 0;
+    while (read < bytes) {
+      read += in.read(buffer, read, bytes - read);
+    }
+  }
+
+  @Test
+  public void testCloseNearEndDrains() throws Throwable {
+    HttpInputStreamWithRelease in = open(LENGTH);
+    skip(in, LENGTH - 100);
+    in.close();
+    assertFalse("aborted", aborted);
+    assertTrue("not released", released);
+    assertEquals(1, connectionManager.getStreamsDrained());
+    assertEquals(100, connectionManager.getBytesDrained());
+    assertEquals(0, connectionManager.getStreamsAborted());
+  }
+
+  @Test
+  public void testCloseAtEndDrains() throws Throwable {
+    HttpInputStreamWithRelease in = open(LENGTH);
+    skip(in, LENGTH);
+    in.close();
+    assertFalse("aborted", aborted);
+    assertEquals(1, connectionManager.getStreamsDrained());
+    assertEquals(0, connectionManager.getBytesDrained());
+  }
+
+  @Test
+  public void testEarlyCloseAborts() throws Throwable {
+    HttpInputStreamWithRelease in = open(LENGTH);
+    skip(in, 100);
+    in.close();
+    assertTrue("not aborted", aborted);
+    assertTrue("not released", released);
+    assertEquals(0, connectionManager.getStreamsDrained());
+    assertEquals(1, connectionManager.getStreamsAborted());
+    assertEquals(LENGTH - 100, connectionManager.getBytesAbandoned());
+  }
+
+  @Test
+  public void testUnknownLengthAborts() throws Throwable {
+    HttpInputStreamWithRelease in = open(-1);
+    skip(in, LENGTH - 1);
+    in.close();
+    assertTrue("not aborted", aborted);
+    assertEquals(1, connectionManager.getStreamsAborted());
+    assertEquals(0, connectionManager.getBytesAbandoned());
+  }
+
+  @Test
+  public void testReadToEndIsNotCounted() throws Throwable {
+    HttpInputStreamWithRelease in = open(LENGTH);
+    skip(in, LENGTH);
+    assertEquals(-1, in.read());
+    in.close();
+    assertFalse("aborted", aborted);
+    assertEquals(0, connectionManager.getStreamsDrained());
+    assertEquals(0, connectionManager.getStreamsAborted());
+  }
+}
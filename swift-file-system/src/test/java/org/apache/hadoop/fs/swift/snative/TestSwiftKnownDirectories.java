@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the set of directories known to exist
+ */
+public class TestSwiftKnownDirectories {
+
+  @Test
+  public void testAddContains() throws Throwable {
+    SwiftKnownDirectories dirs = new SwiftKnownDirectories(10);
+    dirs.add(new Path("/a/b"));
+    assertTrue(dirs.contains(new Path("/a/b")));
+    assertTrue(dirs.contains(new Path("swift://c.s/a/b")));
+    assertFalse(dirs.contains(new Path("/a")));
+  }
+
+  @Test
+  public void testRemoveTree() throws Throwable {
+    SwiftKnownDirectories dirs = new SwiftKnownDirectories(10);
+    dirs.add(new Path("/a"));
+    dirs.add(new Path("/a/b"));
+    dirs.add(new Path("/a/b/c"));
+    dirs.add(new Path("/a/bc"));
+    dirs.removeTree(new Path("/a/b"));
+    assertTrue(dirs.contains(new Path("/a")));
+    assertFalse(dirs.contains(new Path("/a/b")));
+    assertFalse(dirs.contains(new Path("/a/b/c")));
+    assertTrue(dirs.contains(new Path("/a/bc")));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedDropped() throws Throwable {
+    SwiftKnownDirectories dirs = new SwiftKnownDirectories(2);
+    dirs.add(new Path("/a"));
+    dirs.add(new Path("/b"));
+    assertTrue(dirs.contains(new Path("/a")));
+    dirs.add(new Path("/c"));
+    assertEquals(2, dirs.size());
+    assertTrue(dirs.contains(new Path("/a")));
+    assertFalse(dirs.contains(new Path("/b")));
+    assertTrue(dirs.contains(new Path("/c")));
+  }
+}
@@ -0,0 +1,551 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.swift.InMemorySwiftNativeStore;
+import org.apache.hadoop.fs.swift.util.SwiftUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests of the seek logic of the native input stream, run against
+ * the in-memory store so that the GET requests can be counted.
+ */
+public class TestSwiftNativeInputStream {
+
+  private static final int DATA_LEN = 16 * 1024;
+  private static final int RANDOM_RANGE = 1024;
+  private static final int MERGE_GAP = 256;
+  private static final int MAX_MERGED_SIZE = 4096;
+
+  private InMemorySwiftNativeStore store;
+  private Path path;
+  private byte[] data;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() throws Exception {
+    store = new InMemorySwiftNativeStore();
+    path = new Path("/test/seekfile");
+    data = new byte[DATA_LEN];
+    for (int i = 0; i < DATA_LEN; i++) {
+      data[i] = (byte) (i % 251);
+    }
+    store.uploadFile(path, new ByteArrayInputStream(data), DATA_LEN);
+    executor = SwiftUtils.newDaemonThreadPool("test-read", 4);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private SwiftNativeInputStream open(long forwardSkip) throws IOException {
+    return open(forwardSkip, SwiftInputPolicy.SEQUENTIAL);
+  }
+
+  private SwiftNativeInputStream open(long forwardSkip,
+                                      SwiftInputPolicy policy)
+      throws IOException {
+    return new SwiftNativeInputStream(store, null, path,
+                                      options(forwardSkip, policy));
+  }
+
+  private SwiftInputStreamOptions options(long forwardSkip,
+                                          SwiftInputPolicy policy) {
+    return new SwiftInputStreamOptions()
+      .setForwardSkip(forwardSkip)
+      .setInputPolicy(policy)
+      .setRandomRange(RANDOM_RANGE)
+      .setVectoredMergeGap(MERGE_GAP)
+      .setVectoredMaxMergedSize(MAX_MERGED_SIZE)
+      .setExecutor(executor);
+  }
+
+  private static void readFully(InputStream in, byte[] buf)
+      throws IOException {
+    int off = 0;
+    while (off < buf.length) {
+      int read = in.read(buf, off, buf.length - off);
+      if (read < 0) {
+        throw new EOFException("Unexpected end of stream at " + off);
+      }
+      off += read;
+    }
+  }
+
+  @Test
+  public void testSeekIsLazy() throws Throwable {
+    SwiftNativeInputStream in = open(0);
+    int gets = store.getGetCount();
+    in.seek(100);
+    in.seek(2000);
+    in.seek(300);
+    assertEquals("GETs issued by seek()", gets, store.getGetCount());
+    assertEquals(300, in.getPos());
+    assertEquals(data[300], (byte) in.read());
+    assertEquals(gets + 1, store.getGetCount());
+    in.close();
+  }
+
+  @Test
+  public void testShortForwardSeekReusesStream() throws Throwable {
+    SwiftNativeInputStream in = open(4096);
+    assertEquals(data[0], (byte) in.read());
+    int gets = store.getGetCount();
+    in.seek(1000);
+    assertEquals(data[1000], (byte) in.read());
+    byte[] buf = new byte[16];
+    in.seek(5000);
+    assertEquals(16, in.read(buf, 0, 16));
+    assertEquals(data[5000], buf[0]);
+    assertEquals("GETs issued by short forward seeks",
+                 gets, store.getGetCount());
+    in.close();
+  }
+
+  @Test
+  public void testLongForwardSeekReopens() throws Throwable {
+    SwiftNativeInputStream in = open(16);
+    assertEquals(data[0], (byte) in.read());
+    int gets = store.getGetCount();
+    in.seek(1000);
+    assertEquals(data[1000], (byte) in.read());
+    assertEquals(gets + 1, store.getGetCount());
+    in.close();
+  }
+
+  @Test
+  public void testBackwardSeekReopens() throws Throwable {
+    SwiftNativeInputStream in = open(4096);
+    in.seek(1000);
+    assertEquals(data[1000], (byte) in.read());
+    int gets = store.getGetCount();
+    in.seek(10);
+    assertEquals(data[10], (byte) in.read());
+    assertEquals(gets + 1, store.getGetCount());
+    in.close();
+  }
+
+  @Test
+  public void testSeekPastEndOfFile() throws Throwable {
+    SwiftNativeInputStream in = open(0);
+    in.seek(DATA_LEN + 10);
+    assertEquals(-1, in.read());
+    in.seek(DATA_LEN - 1);
+    assertEquals(data[DATA_LEN - 1], (byte) in.read());
+    assertEquals(-1, in.read());
+    in.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void testReadAfterClose() throws Throwable {
+    SwiftNativeInputStream in = open(0);
+    in.close();
+    in.read();
+  }
+
+  @Test
+  public void testRandomPolicyReadsRanges() throws Throwable {
+    SwiftNativeInputStream in = open(0, SwiftInputPolicy.RANDOM);
+    int gets = store.getGetCount();
+    byte[] buf = new byte[RANDOM_RANGE];
+    //reading across the end of a range transparently opens the next one
+    for (int i = 0; i < 3; i++) {
+      readFully(in, buf);
+    }
+    assertEquals(data[3 * RANDOM_RANGE - 1], buf[RANDOM_RANGE - 1]);
+    assertEquals(gets + 2, store.getGetCount());
+    assertTrue(in.isRandomAccess());
+    in.close();
+  }
+
+  @Test
+  public void testAdaptivePolicySwitches() throws Throwable {
+    SwiftNativeInputStream in = open(DATA_LEN, SwiftInputPolicy.ADAPTIVE);
+    assertFalse(in.isRandomAccess());
+    in.seek(8000);
+    assertEquals(data[8000], (byte) in.read());
+    assertFalse("skipped within the forward skip limit",
+                in.isRandomAccess());
+    in.seek(100);
+    assertEquals(data[100], (byte) in.read());
+    assertTrue("backward seek", in.isRandomAccess());
+    byte[] buf = new byte[RANDOM_RANGE];
+    readFully(in, buf);
+    assertEquals(data[100 + RANDOM_RANGE], buf[RANDOM_RANGE - 1]);
+    assertFalse("read to the end of a range", in.isRandomAccess());
+    in.close();
+  }
+
+  @Test
+  public void testPositionedReadLeavesStreamAlone() throws Throwable {
+    SwiftNativeInputStream in = open(0);
+    in.seek(100);
+    assertEquals(data[100], (byte) in.read());
+    byte[] buf = new byte[64];
+    in.readFully(8000, buf, 0, buf.length);
+    assertEquals(data[8000], buf[0]);
+    assertEquals(data[8063], buf[63]);
+    assertEquals(101, in.getPos());
+    assertEquals(data[101], (byte) in.read());
+    in.close();
+  }
+
+  @Test
+  public void testPositionedReadPastEndOfFile() throws Throwable {
+    SwiftNativeInputStream in = open(0);
+    byte[] buf = new byte[64];
+    assertEquals(-1, in.read(DATA_LEN, buf, 0, buf.length));
+    assertEquals(32, in.read(DATA_LEN - 32, buf, 0, buf.length));
+    try {
+      in.readFully(DATA_LEN - 32, buf, 0, buf.length);
+      fail("expected an EOFException");
+    } catch (EOFException expected) {
+      //expected
+    }
+    in.close();
+  }
+
+  @Test
+  public void testConcurrentPositionedReads() throws Throwable {
+    final SwiftNativeInputStream in = open(0);
+    final int threads = 8;
+    final Throwable[] failures = new Throwable[threads];
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      workers[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            byte[] buf = new byte[DATA_LEN / threads];
+            long position = (long) id * buf.length;
+            in.readFully(position, buf, 0, buf.length);
+            for (int i = 0; i < buf.length; i++) {
+              assertEquals(data[(int) position + i], buf[i]);
+            }
+          } catch (Throwable e) {
+            failures[id] = e;
+          }
+        }
+      });
+      workers[t].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    for (Throwable failure : failures) {
+      if (failure != null) {
+        throw failure;
+      }
+    }
+    assertEquals(0, in.getPos());
+    in.close();
+  }
+
+  private static SwiftFileRange range(long offset, int length) {
+    return new SwiftFileRange(offset, length);
+  }
+
+  @Test
+  public void testMergeRanges() throws Throwable {
+    List<SwiftFileRange> ranges = new ArrayList<SwiftFileRange>();
+    ranges.add(range(1000, 100));
+    //out of order, within the gap of the first range
+    ranges.add(range(1200, 100));
+    ranges.add(range(0, 100));
+    //beyond the merge gap
+    ranges.add(range(2000, 100));
+    //would make the merged range too large
+    ranges.add(range(2100, MAX_MERGED_SIZE));
+    List<SwiftCombinedFileRange> combined =
+      SwiftCombinedFileRange.merge(ranges, MERGE_GAP, MAX_MERGED_SIZE);
+    assertEquals(4, combined.size());
+    assertEquals(0, combined.get(0).getOffset());
+    assertEquals(1000, combined.get(1).getOffset());
+    assertEquals(1300, combined.get(1).getEnd());
+    assertEquals(2, combined.get(1).getRanges().size());
+    assertEquals(2000, combined.get(2).getOffset());
+    assertEquals(2100, combined.get(3).getOffset());
+  }
+
+  @Test
+  public void testVectoredRead() throws Throwable {
+    SwiftNativeInputStream in = open(0);
+    int gets = store.getGetCount();
+    List<SwiftFileRange> ranges = new ArrayList<SwiftFileRange>();
+    ranges.add(range(5000, 10));
+    ranges.add(range(100, 50));
+    ranges.add(range(200, 50));
+    ranges.add(range(DATA_LEN - 20, 20));
+    in.readVectored(ranges);
+    for (SwiftFileRange range : ranges) {
+      ByteBuffer buffer = range.getData().get();
+      assertEquals(range.getLength(), buffer.remaining());
+      for (int i = 0; i < range.getLength(); i++) {
+        assertEquals(data[(int) range.getOffset() + i], buffer.get());
+      }
+    }
+    assertEquals("GETs", gets + 3, store.getGetCount());
+    assertEquals(0, in.getPos());
+    in.close();
+  }
+
+  @Test
+  public void testVectoredReadPastEndOfFile() throws Throwable {
+    SwiftNativeInputStream in = open(0);
+    List<SwiftFileRange> ranges = new ArrayList<SwiftFileRange>();
+    SwiftFileRange inFile = range(DATA_LEN - 100, 50);
+    SwiftFileRange overEnd = range(DATA_LEN - 10, 20);
+    SwiftFileRange pastEnd = range(DATA_LEN + 1000, 20);
+    ranges.add(inFile);
+    ranges.add(overEnd);
+    ranges.add(pastEnd);
+    in.readVectored(ranges);
+    assertEquals(50, inFile.getData().get().remaining());
+    assertFailsWithEOF(overEnd);
+    assertFailsWithEOF(pastEnd);
+    in.close();
+  }
+
+  private static void assertFailsWithEOF(SwiftFileRange range)
+      throws Exception {
+    try {
+      range.getData().get();
+      fail("expected a failure reading " + range);
+    } catch (ExecutionException e) {
+      if (!(e.getCause() instanceof EOFException)) {
+        throw e;
+      }
+    }
+  }
+
+  private SwiftNativeInputStream openPrefetching(int depth)
+      throws IOException {
+    SwiftInputStreamOptions options = options(0, SwiftInputPolicy.SEQUENTIAL)
+      .setPrefetchDepth(depth)
+      .setPrefetchRangeSize(RANDOM_RANGE);
+    return new SwiftNativeInputStream(store, null, path, options);
+  }
+
+  @Test
+  public void testPrefetchingSequentialRead() throws Throwable {
+    SwiftNativeInputStream in = openPrefetching(3);
+    SwiftPrefetcher prefetcher = in.getPrefetcher();
+    byte[] buf = new byte[DATA_LEN];
+    readFully(in, buf);
+    assertArrayEquals(data, buf);
+    assertEquals(-1, in.read());
+    assertEquals(DATA_LEN / RANDOM_RANGE, prefetcher.getRangesFetched());
+    assertEquals(DATA_LEN, prefetcher.getBytesRead());
+    assertEquals(0, prefetcher.getBytesWasted());
+    in.close();
+  }
+
+  @Test
+  public void testPrefetchingRestartsAfterSeek() throws Throwable {
+    SwiftNativeInputStream in = openPrefetching(4);
+    SwiftPrefetcher prefetcher = in.getPrefetcher();
+    assertEquals(data[0], (byte) in.read());
+    //a forward seek within the prefetched ranges needs no new requests
+    in.seek(2 * RANDOM_RANGE + 10);
+    assertEquals(data[2 * RANDOM_RANGE + 10], (byte) in.read());
+    assertEquals(0, prefetcher.getResets());
+    //a backward seek breaks the sequential pattern
+    in.seek(5);
+    assertEquals(data[5], (byte) in.read());
+    assertEquals(1, prefetcher.getResets());
+    //as does a read beyond all the queued ranges
+    in.seek(DATA_LEN - 1);
+    assertEquals(data[DATA_LEN - 1], (byte) in.read());
+    assertEquals(2, prefetcher.getResets());
+    assertEquals(-1, in.read());
+    in.close();
+    assertTrue("no waste counted: " + prefetcher,
+               prefetcher.getBytesWasted() > 0);
+  }
+
+  @Test
+  public void testPrefetchStatisticsAddUp() throws Throwable {
+    SwiftPrefetchStatistics fsStatistics = new SwiftPrefetchStatistics();
+    SwiftInputStreamOptions options = options(0, SwiftInputPolicy.SEQUENTIAL)
+      .setPrefetchDepth(2)
+      .setPrefetchRangeSize(RANDOM_RANGE)
+      .setPrefetchStatistics(fsStatistics);
+    for (int i = 0; i < 2; i++) {
+      SwiftNativeInputStream in =
+        new SwiftNativeInputStream(store, null, path, options);
+      byte[] buf = new byte[DATA_LEN];
+      readFully(in, buf);
+      in.close();
+      assertEquals(DATA_LEN, in.getPrefetchStatistics().getBytesRead());
+    }
+    assertEquals(2 * DATA_LEN, fsStatistics.getBytesRead());
+    assertEquals(2 * DATA_LEN / RANDOM_RANGE, fsStatistics.getRangesFetched());
+    assertEquals(fsStatistics.getRangesFetched(),
+                 fsStatistics.getHits() + fsStatistics.getMisses());
+  }
+
+  @Test
+  public void testParallelSegmentReads() throws Throwable {
+    //segments of uneven sizes, one of them empty
+    int[] sizes = {5000, 0, 3 * RANDOM_RANGE, DATA_LEN - 5000 - 3 * RANDOM_RANGE};
+    Path[] segments = new Path[sizes.length];
+    int offset = 0;
+    for (int i = 0; i < sizes.length; i++) {
+      segments[i] = new Path(path + "_segments/" + i);
+      store.uploadFile(segments[i],
+                       new ByteArrayInputStream(data, offset, sizes[i]),
+                       sizes[i]);
+      offset += sizes[i];
+    }
+    Path manifest = new Path(path + "_manifest");
+    store.createManifest(manifest, segments);
+
+    SwiftInputStreamOptions options = options(0, SwiftInputPolicy.SEQUENTIAL)
+      .setSegmentParallelism(3)
+      .setPrefetchRangeSize(RANDOM_RANGE);
+    SwiftNativeInputStream in =
+      new SwiftNativeInputStream(store, null, manifest, options);
+    SwiftPrefetcher prefetcher = in.getPrefetcher();
+    assertEquals(sizes.length, prefetcher.getSegmentCount());
+    byte[] buf = new byte[DATA_LEN];
+    readFully(in, buf);
+    assertArrayEquals(data, buf);
+    assertEquals(-1, in.read());
+    in.close();
+    assertEquals("manifest was read through the proxy",
+                 0, store.getGetCount(manifest));
+    //no range spans two segments
+    assertEquals(5, store.getGetCount(segments[0]));
+    assertEquals(0, store.getGetCount(segments[1]));
+    assertEquals(3, store.getGetCount(segments[2]));
+    assertEquals(9, store.getGetCount(segments[3]));
+  }
+
+  @Test
+  public void testSegmentReadsOfPlainObject() throws Throwable {
+    SwiftInputStreamOptions options = options(0, SwiftInputPolicy.SEQUENTIAL)
+      .setSegmentParallelism(3);
+    SwiftNativeInputStream in =
+      new SwiftNativeInputStream(store, null, path, options);
+    assertNull(in.getPrefetcher());
+    byte[] buf = new byte[DATA_LEN];
+    readFully(in, buf);
+    assertArrayEquals(data, buf);
+    in.close();
+  }
+
+  /**
+   * Read a stream to the end through byte buffers
+   * @param in stream
+   * @param dest buffer to read into
+   * @param chunk maximum size of each read
+   */
+  private static void readFully(SwiftNativeInputStream in,
+                                ByteBuffer dest,
+                                int chunk) throws IOException {
+    while (dest.hasRemaining()) {
+      dest.limit(Math.min(dest.capacity(), dest.position() + chunk));
+      int read = in.read(dest);
+      assertTrue("unexpected end of file at " + dest.position(), read > 0);
+      dest.limit(dest.capacity());
+    }
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    buffer.flip();
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void testByteBufferReadHeap() throws Throwable {
+    SwiftNativeInputStream in = open(0);
+    //a slice, so that the array offset is not zero
+    ByteBuffer backing = ByteBuffer.allocate(DATA_LEN + 10);
+    backing.position(10);
+    ByteBuffer dest = backing.slice();
+    readFully(in, dest, 1000);
+    assertArrayEquals(data, toArray(dest));
+    assertEquals(-1, in.read(ByteBuffer.allocate(1)));
+    assertEquals(DATA_LEN, in.getPos());
+    in.close();
+  }
+
+  @Test
+  public void testByteBufferReadDirect() throws Throwable {
+    SwiftNativeInputStream in = open(0);
+    in.seek(100);
+    ByteBuffer dest = ByteBuffer.allocateDirect(DATA_LEN - 100);
+    readFully(in, dest, 3000);
+    byte[] expected = new byte[DATA_LEN - 100];
+    System.arraycopy(data, 100, expected, 0, expected.length);
+    assertArrayEquals(expected, toArray(dest));
+    assertEquals(-1, in.read(ByteBuffer.allocateDirect(1)));
+    in.close();
+  }
+
+  @Test
+  public void testByteBufferReadPrefetched() throws Throwable {
+    SwiftNativeInputStream in = openPrefetching(2);
+    ByteBuffer dest = ByteBuffer.allocateDirect(DATA_LEN);
+    readFully(in, dest, 700);
+    assertArrayEquals(data, toArray(dest));
+    assertEquals(DATA_LEN, in.getPrefetcher().getBytesRead());
+    in.close();
+  }
+
+  @Test
+  public void testByteBufferReadBuffered() throws Throwable {
+    SwiftBufferedInputStream in = new SwiftBufferedInputStream(open(0), 512);
+    //fill the buffer, then drain it into the byte buffer
+    assertEquals(data[0], (byte) in.read());
+    ByteBuffer dest = ByteBuffer.allocateDirect(DATA_LEN);
+    dest.put(data[0]);
+    while (dest.hasRemaining()) {
+      assertTrue(in.read(dest) > 0);
+    }
+    assertArrayEquals(data, toArray(dest));
+    assertEquals(-1, in.read(ByteBuffer.allocateDirect(1)));
+    in.close();
+  }
+}
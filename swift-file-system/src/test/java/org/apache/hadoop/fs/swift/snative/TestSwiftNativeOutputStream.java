@@ -0,0 +1,654 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.swift.InMemorySwiftNativeStore;
+import org.apache.hadoop.fs.swift.exceptions.SwiftConfigurationException;
+import org.apache.hadoop.fs.swift.util.SwiftUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests of the buffering and partitioning of the native output
+ * stream, run against the in-memory store.
+ */
+public class TestSwiftNativeOutputStream {
+
+  private static final int BLOCK_SIZE = 1024;
+
+  private InMemorySwiftNativeStore store;
+  private Configuration conf;
+  private Path path;
+  private ExecutorService executor;
+
+  /**
+   * Store whose partition uploads are slow, tracking how many
+   * run at once; one partition may be set to fail, or to have
+   * its data corrupted in transit. Every stream uploaded is recorded,
+   * and left open for its uploader to close, as the REST client does.
+   */
+  private static class SlowUploadStore extends InMemorySwiftNativeStore {
+    private final List<InputStream> uploadStreams =
+      Collections.synchronizedList(new ArrayList<InputStream>());
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private volatile int failingPart = -1;
+    private final AtomicInteger failures = new AtomicInteger(Integer.MAX_VALUE);
+    private final AtomicInteger corruptions = new AtomicInteger();
+
+    private InputStream recordUploadStream(InputStream inputStream) {
+      if (inputStream instanceof UnclosedStream) {
+        //a partition, already recorded
+        return inputStream;
+      }
+      uploadStreams.add(inputStream);
+      return new UnclosedStream(inputStream);
+    }
+
+    @Override
+    public String uploadFile(Path path, InputStream inputStream, long length,
+                             String md5) throws IOException {
+      return super.uploadFile(path, recordUploadStream(inputStream), length,
+                              md5);
+    }
+
+    @Override
+    public SwiftSegment uploadFilePart(Path path, int partNumber,
+                                       InputStream inputStream, long length,
+                                       String md5) throws IOException {
+      inputStream = recordUploadStream(inputStream);
+      int now = active.incrementAndGet();
+      synchronized (maxActive) {
+        if (now > maxActive.get()) {
+          maxActive.set(now);
+        }
+      }
+      try {
+        Thread.sleep(50);
+        if (partNumber == failingPart && failures.getAndDecrement() > 0) {
+          throw new IOException("failing partition " + partNumber);
+        }
+        if (partNumber == failingPart && corruptions.getAndDecrement() > 0) {
+          inputStream = corrupt(inputStream);
+        }
+        return super.uploadFilePart(path, partNumber, inputStream, length,
+                                    md5);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("interrupted");
+      } finally {
+        active.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Stream which leaves the stream it wraps open
+   */
+  private static class UnclosedStream extends FilterInputStream {
+    private UnclosedStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /**
+   * Flip the bits of the first byte of a stream
+   */
+  private static InputStream corrupt(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[512];
+    int read;
+    while ((read = in.read(buf)) >= 0) {
+      out.write(buf, 0, read);
+    }
+    byte[] data = out.toByteArray();
+    data[0] = (byte) ~data[0];
+    return new ByteArrayInputStream(data);
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    store = new InMemorySwiftNativeStore();
+    conf = new Configuration();
+    conf.set("hadoop.tmp.dir", System.getProperty("java.io.tmpdir"));
+    path = new Path("/test/outputfile");
+    executor = SwiftUtils.newDaemonThreadPool("test-upload", 8);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    assertEquals("output buffer memory leaked",
+                 0, SwiftOutputBlockFactory.getMemoryInUse());
+  }
+
+  private SwiftOutputBlockFactory factory(SwiftOutputBuffer buffer,
+                                          long memoryLimit,
+                                          boolean fallback)
+      throws SwiftConfigurationException {
+    return new SwiftOutputBlockFactory(conf, buffer, BLOCK_SIZE, BLOCK_SIZE,
+                                       memoryLimit, fallback);
+  }
+
+  private SwiftOutputStreamOptions options(SwiftOutputBlockFactory factory,
+                                           int activeUploads) {
+    return new SwiftOutputStreamOptions()
+      .setBlockFactory(factory)
+      .setUploadExecutor(executor)
+      .setActiveUploads(activeUploads);
+  }
+
+  private SwiftNativeOutputStream create(SwiftOutputBlockFactory factory,
+                                         Path dest) {
+    return new SwiftNativeOutputStream(store, dest.toUri().toString(),
+                                       factory);
+  }
+
+  private static byte[] dataset(int len) {
+    byte[] data = new byte[len];
+    for (int i = 0; i < len; i++) {
+      data[i] = (byte) (i % 251);
+    }
+    return data;
+  }
+
+  /**
+   * Write data in uneven chunks, so that writes straddle blocks
+   */
+  private static void writeInChunks(SwiftNativeOutputStream out, byte[] data)
+      throws IOException {
+    int off = 0;
+    int chunk = 1;
+    while (off < data.length) {
+      int len = Math.min(chunk, data.length - off);
+      out.write(data, off, len);
+      off += len;
+      chunk = chunk * 3 + 1;
+    }
+  }
+
+  private byte[] readBack(Path src) throws IOException {
+    InputStream in = store.getObject(src);
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[512];
+      int read;
+      while ((read = in.read(buf)) >= 0) {
+        out.write(buf, 0, read);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private void assertSinglePut(SwiftOutputBuffer buffer, int len)
+      throws IOException {
+    byte[] data = dataset(len);
+    SwiftNativeOutputStream out =
+      create(factory(buffer, 4 * BLOCK_SIZE, true), path);
+    writeInChunks(out, data);
+    out.close();
+    assertEquals(0, out.getPartitionsWritten());
+    assertFalse(store.objectExists(new Path(path, "000001")));
+    assertArrayEquals(data, readBack(path));
+  }
+
+  @Test
+  public void testSmallFileHeap() throws Throwable {
+    assertSinglePut(SwiftOutputBuffer.HEAP, 100);
+  }
+
+  @Test
+  public void testSmallFileDirect() throws Throwable {
+    assertSinglePut(SwiftOutputBuffer.DIRECT, 100);
+  }
+
+  @Test
+  public void testSmallFileDisk() throws Throwable {
+    assertSinglePut(SwiftOutputBuffer.DISK, 100);
+  }
+
+  @Test
+  public void testFileOfOneBlockIsSinglePut() throws Throwable {
+    assertSinglePut(SwiftOutputBuffer.HEAP, BLOCK_SIZE);
+  }
+
+  @Test
+  public void testEmptyFile() throws Throwable {
+    assertSinglePut(SwiftOutputBuffer.HEAP, 0);
+  }
+
+  @Test
+  public void testSingleByteWrites() throws Throwable {
+    byte[] data = dataset(BLOCK_SIZE + 10);
+    SwiftNativeOutputStream out =
+      create(factory(SwiftOutputBuffer.HEAP, 4 * BLOCK_SIZE, true), path);
+    for (byte b : data) {
+      out.write(b);
+    }
+    out.close();
+    assertEquals(2, out.getPartitionsWritten());
+    assertArrayEquals(data, readBack(path));
+  }
+
+  /**
+   * More than ten partitions, so that their names must sort numerically
+   * for the data to be reassembled in order
+   */
+  private void assertMultipartUpload(SwiftOutputBuffer buffer)
+      throws IOException {
+    int parts = 12;
+    byte[] data = dataset(parts * BLOCK_SIZE - 100);
+    SwiftNativeOutputStream out =
+      create(factory(buffer, 4 * BLOCK_SIZE, true), path);
+    writeInChunks(out, data);
+    assertEquals("partitions uploaded before close",
+                 parts - 1, out.getPartitionsWritten());
+    out.close();
+    assertEquals(parts, out.getPartitionsWritten());
+    assertTrue(store.objectExists(new Path(path, "000012")));
+    assertEquals(data.length, store.getObjectMetadata(path).getLen());
+    assertArrayEquals(data, readBack(path));
+  }
+
+  @Test
+  public void testMultipartUploadHeap() throws Throwable {
+    assertMultipartUpload(SwiftOutputBuffer.HEAP);
+  }
+
+  @Test
+  public void testMultipartUploadDirect() throws Throwable {
+    assertMultipartUpload(SwiftOutputBuffer.DIRECT);
+  }
+
+  @Test
+  public void testMultipartUploadDisk() throws Throwable {
+    assertMultipartUpload(SwiftOutputBuffer.DISK);
+  }
+
+  @Test
+  public void testOverwriteWithFewerPartitions() throws Throwable {
+    SwiftOutputBlockFactory factory =
+      factory(SwiftOutputBuffer.HEAP, 4 * BLOCK_SIZE, true);
+    SwiftNativeOutputStream out = create(factory, path);
+    writeInChunks(out, dataset(5 * BLOCK_SIZE));
+    out.close();
+    byte[] data = dataset(2 * BLOCK_SIZE + 1);
+    out = create(factory, path);
+    writeInChunks(out, data);
+    out.close();
+    assertEquals(3, out.getPartitionsWritten());
+    assertFalse(store.objectExists(new Path(path, "000004")));
+    assertFalse(store.objectExists(new Path(path, "000005")));
+    assertArrayEquals(data, readBack(path));
+  }
+
+  @Test
+  public void testOverwriteWithUnpaddedPartitions() throws Throwable {
+    //partitions named the way of earlier versions
+    byte[] old = dataset(BLOCK_SIZE);
+    for (int i = 1; i <= 3; i++) {
+      store.uploadFile(new Path(path, Integer.toString(i)),
+                       new ByteArrayInputStream(old), old.length);
+    }
+    store.createManifestForPartUpload(path);
+    byte[] data = dataset(3 * BLOCK_SIZE + 1);
+    SwiftNativeOutputStream out =
+      create(factory(SwiftOutputBuffer.HEAP, 4 * BLOCK_SIZE, true), path);
+    writeInChunks(out, data);
+    out.close();
+    assertEquals(4, out.getPartitionsWritten());
+    for (int i = 1; i <= 3; i++) {
+      assertFalse(store.objectExists(new Path(path, Integer.toString(i))));
+    }
+    assertArrayEquals(data, readBack(path));
+  }
+
+  @Test
+  public void testStalePartitionFilenames() throws Throwable {
+    assertFalse(SwiftUtils.isStalePartitionFilename("000001", 2));
+    assertFalse(SwiftUtils.isStalePartitionFilename("000002", 2));
+    assertTrue(SwiftUtils.isStalePartitionFilename("000003", 2));
+    assertTrue(SwiftUtils.isStalePartitionFilename("1", 2));
+    assertTrue(SwiftUtils.isStalePartitionFilename("000000", 2));
+    assertTrue(SwiftUtils.isStalePartitionFilename("99999999999", 2));
+    assertFalse(SwiftUtils.isStalePartitionFilename("data", 2));
+  }
+
+  @Test
+  public void testWriteAfterClose() throws Throwable {
+    SwiftNativeOutputStream out =
+      create(factory(SwiftOutputBuffer.HEAP, 4 * BLOCK_SIZE, true), path);
+    out.close();
+    try {
+      out.write(1);
+      fail("expected a failure");
+    } catch (IOException expected) {
+      //expected
+    }
+  }
+
+  @Test(expected = SwiftConfigurationException.class)
+  public void testBlockLargerThanLimit() throws Throwable {
+    factory(SwiftOutputBuffer.HEAP, BLOCK_SIZE - 1, true);
+  }
+
+  @Test(expected = SwiftConfigurationException.class)
+  public void testSegmentLargerThanSwiftLimit() throws Throwable {
+    new SwiftOutputBlockFactory(conf, SwiftOutputBuffer.DISK, BLOCK_SIZE,
+                                SwiftOutputBlockFactory.MAX_PARTITION_SIZE + 1,
+                                4 * BLOCK_SIZE, true);
+  }
+
+  @Test
+  public void testMemoryLimitFallsBackToDisk() throws Throwable {
+    SwiftOutputBlockFactory factory =
+      factory(SwiftOutputBuffer.HEAP, 2 * BLOCK_SIZE, true);
+    byte[] data = dataset(10);
+    SwiftNativeOutputStream[] outs = new SwiftNativeOutputStream[3];
+    for (int i = 0; i < outs.length; i++) {
+      outs[i] = create(factory, new Path(path, "file" + i));
+      outs[i].write(data);
+    }
+    assertEquals(2 * BLOCK_SIZE, SwiftOutputBlockFactory.getMemoryInUse());
+    assertEquals(1, factory.getDiskFallbacks());
+    for (int i = 0; i < outs.length; i++) {
+      outs[i].close();
+      assertArrayEquals(data, readBack(new Path(path, "file" + i)));
+    }
+  }
+
+  @Test
+  public void testMemoryLimitBlocksWriter() throws Throwable {
+    SwiftOutputBlockFactory factory =
+      factory(SwiftOutputBuffer.DIRECT, BLOCK_SIZE, false);
+    final byte[] data = dataset(10);
+    SwiftNativeOutputStream first = create(factory, new Path(path, "first"));
+    first.write(data);
+    final SwiftNativeOutputStream second =
+      create(factory, new Path(path, "second"));
+    final AtomicReference<Throwable> failure =
+      new AtomicReference<Throwable>();
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          second.write(data);
+          second.close();
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    });
+    writer.start();
+    writer.join(500);
+    assertTrue("second writer did not wait for memory", writer.isAlive());
+    first.close();
+    writer.join(10000);
+    assertFalse("second writer still blocked", writer.isAlive());
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    assertEquals(0, factory.getDiskFallbacks());
+    assertArrayEquals(data, readBack(new Path(path, "second")));
+  }
+
+  @Test
+  public void testParallelUploadsAreBounded() throws Throwable {
+    SlowUploadStore slowStore = new SlowUploadStore();
+    store = slowStore;
+    int parts = 10;
+    byte[] data = dataset(parts * BLOCK_SIZE);
+    SwiftNativeOutputStream out = new SwiftNativeOutputStream(store,
+      path.toUri().toString(),
+      options(factory(SwiftOutputBuffer.HEAP, 8 * BLOCK_SIZE, false), 3));
+    writeInChunks(out, data);
+    out.close();
+    assertEquals(parts, out.getPartitionsWritten());
+    assertArrayEquals(data, readBack(path));
+    int maxActive = slowStore.maxActive.get();
+    assertTrue("uploads were not parallel: " + maxActive, maxActive > 1);
+    assertTrue("too many active uploads: " + maxActive, maxActive <= 3);
+  }
+
+  @Test
+  public void testUploadFailureFailsClose() throws Throwable {
+    SlowUploadStore slowStore = new SlowUploadStore();
+    slowStore.failingPart = 2;
+    store = slowStore;
+    SwiftNativeOutputStream out = new SwiftNativeOutputStream(store,
+      path.toUri().toString(),
+      options(factory(SwiftOutputBuffer.HEAP, 8 * BLOCK_SIZE, true), 4));
+    byte[] data = dataset(4 * BLOCK_SIZE);
+    try {
+      writeInChunks(out, data);
+      out.close();
+      fail("expected a failure");
+    } catch (Exception expected) {
+      //expected, either from a later write or from close
+    }
+    out.close();
+    assertFalse("manifest written after a failed upload",
+                store.objectExists(path));
+  }
+
+  @Test
+  public void testStaticLargeObjectUpload() throws Throwable {
+    int parts = 11;
+    byte[] data = dataset(parts * BLOCK_SIZE - 1);
+    SwiftNativeOutputStream out = new SwiftNativeOutputStream(store,
+      path.toUri().toString(),
+      options(factory(SwiftOutputBuffer.HEAP, 8 * BLOCK_SIZE, true), 4)
+        .setStaticManifest(true));
+    writeInChunks(out, data);
+    out.close();
+    assertEquals(parts, out.getPartitionsWritten());
+    assertTrue("not a static manifest", store.isStaticManifest(path));
+    assertEquals(data.length, store.getObjectMetadata(path).getLen());
+    assertArrayEquals(data, readBack(path));
+  }
+
+  @Test
+  public void testSmallFileIsNotStaticLargeObject() throws Throwable {
+    SwiftNativeOutputStream out = new SwiftNativeOutputStream(store,
+      path.toUri().toString(),
+      options(factory(SwiftOutputBuffer.HEAP, 8 * BLOCK_SIZE, true), 4)
+        .setStaticManifest(true));
+    out.write(dataset(10));
+    out.close();
+    assertFalse(store.isStaticManifest(path));
+    assertEquals(10, store.getObjectMetadata(path).getLen());
+  }
+
+  @Test
+  public void testFailedSegmentIsRetried() throws Throwable {
+    SlowUploadStore slowStore = new SlowUploadStore();
+    slowStore.failingPart = 2;
+    slowStore.failures.set(2);
+    store = slowStore;
+    SwiftNativeOutputStream out = new SwiftNativeOutputStream(store,
+      path.toUri().toString(),
+      options(factory(SwiftOutputBuffer.HEAP, 8 * BLOCK_SIZE, true), 4)
+        .setUploadRetries(2)
+        .setUploadRetryInterval(1));
+    byte[] data = dataset(4 * BLOCK_SIZE);
+    writeInChunks(out, data);
+    out.close();
+    assertEquals(2, out.getSegmentRetries());
+    assertArrayEquals(data, readBack(path));
+  }
+
+  /**
+   * Assert that every stream of the data of a disk block which
+   * was uploaded has been closed
+   */
+  private static void assertUploadStreamsClosed(SlowUploadStore slowStore) {
+    assertFalse(slowStore.uploadStreams.isEmpty());
+    for (InputStream in : slowStore.uploadStreams) {
+      try {
+        in.read();
+        fail("upload stream not closed");
+      } catch (IOException expected) {
+        //expected
+      }
+    }
+  }
+
+  @Test
+  public void testRetriedUploadsCloseStreams() throws Throwable {
+    SlowUploadStore slowStore = new SlowUploadStore();
+    slowStore.failingPart = 2;
+    slowStore.failures.set(2);
+    store = slowStore;
+    SwiftNativeOutputStream out = new SwiftNativeOutputStream(store,
+      path.toUri().toString(),
+      options(factory(SwiftOutputBuffer.DISK, 8 * BLOCK_SIZE, true), 4)
+        .setUploadRetries(2)
+        .setUploadRetryInterval(1));
+    writeInChunks(out, dataset(4 * BLOCK_SIZE));
+    out.close();
+    //four partitions, two of them failed attempts
+    assertEquals(6, slowStore.uploadStreams.size());
+    assertUploadStreamsClosed(slowStore);
+  }
+
+  @Test
+  public void testSinglePutClosesStream() throws Throwable {
+    SlowUploadStore slowStore = new SlowUploadStore();
+    store = slowStore;
+    SwiftNativeOutputStream out =
+      create(factory(SwiftOutputBuffer.DISK, 4 * BLOCK_SIZE, true), path);
+    out.write(dataset(100));
+    out.close();
+    assertEquals(1, slowStore.uploadStreams.size());
+    assertUploadStreamsClosed(slowStore);
+  }
+
+  @Test
+  public void testRetriesExhausted() throws Throwable {
+    SlowUploadStore slowStore = new SlowUploadStore();
+    slowStore.failingPart = 1;
+    slowStore.failures.set(3);
+    store = slowStore;
+    SwiftNativeOutputStream out = new SwiftNativeOutputStream(store,
+      path.toUri().toString(),
+      options(factory(SwiftOutputBuffer.HEAP, 8 * BLOCK_SIZE, true), 4)
+        .setUploadRetries(2)
+        .setUploadRetryInterval(1));
+    try {
+      writeInChunks(out, dataset(4 * BLOCK_SIZE));
+      out.close();
+      fail("expected a failure");
+    } catch (IOException expected) {
+      //expected
+    }
+    out.close();
+    assertEquals(2, out.getSegmentRetries());
+    assertFalse(store.objectExists(path));
+  }
+
+  @Test
+  public void testETagMismatchIsRetried() throws Throwable {
+    SlowUploadStore slowStore = new SlowUploadStore();
+    slowStore.failingPart = 3;
+    slowStore.failures.set(0);
+    slowStore.corruptions.set(1);
+    store = slowStore;
+    SwiftNativeOutputStream out = new SwiftNativeOutputStream(store,
+      path.toUri().toString(),
+      options(factory(SwiftOutputBuffer.DIRECT, 8 * BLOCK_SIZE, true), 4)
+        .setUploadRetries(1)
+        .setUploadRetryInterval(1));
+    byte[] data = dataset(4 * BLOCK_SIZE);
+    writeInChunks(out, data);
+    out.close();
+    assertEquals(1, out.getSegmentRetries());
+    assertArrayEquals(data, readBack(path));
+  }
+
+  @Test
+  public void testChecksumOfSinglePut() throws Throwable {
+    byte[] data = dataset(100);
+    SwiftNativeOutputStream out =
+      create(factory(SwiftOutputBuffer.HEAP, 4 * BLOCK_SIZE, true), path);
+    out.write(data);
+    out.close();
+    assertEquals(SwiftFileChecksum.fromHex(
+                   SwiftUtils.toHex(SwiftUtils.newMD5().digest(data))),
+                 store.getFileChecksum(path));
+  }
+
+  @Test
+  public void testChecksumIndependentOfSegmentation() throws Throwable {
+    byte[] data = dataset(5 * BLOCK_SIZE + 7);
+    SwiftNativeOutputStream out =
+      create(factory(SwiftOutputBuffer.HEAP, 4 * BLOCK_SIZE, true), path);
+    writeInChunks(out, data);
+    out.close();
+    Path other = new Path("/test/other");
+    out = create(factory(SwiftOutputBuffer.DISK, 4 * BLOCK_SIZE, true),
+                 other);
+    out.setFilePartSize(2 * BLOCK_SIZE);
+    writeInChunks(out, data);
+    out.close();
+    SwiftFileChecksum checksum = store.getFileChecksum(path);
+    assertEquals("MD5", checksum.getAlgorithmName());
+    assertEquals(checksum, store.getFileChecksum(other));
+    assertEquals(SwiftFileChecksum.fromHex(
+                   SwiftUtils.toHex(SwiftUtils.newMD5().digest(data))),
+                 checksum);
+  }
+
+  @Test
+  public void testChecksumFromHex() throws Throwable {
+    assertEquals(null, SwiftFileChecksum.fromHex(null));
+    assertEquals(null, SwiftFileChecksum.fromHex("d41d8cd9"));
+    assertEquals(null,
+                 SwiftFileChecksum.fromHex("z41d8cd98f00b204e9800998ecf8427e"));
+    SwiftFileChecksum empty =
+      SwiftFileChecksum.fromHex("D41D8CD98F00B204E9800998ECF8427E");
+    assertEquals("MD5:d41d8cd98f00b204e9800998ecf8427e", empty.toString());
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.hadoop.fs.swift.http.SwiftProtocolConstants;
+import org.apache.hadoop.fs.swift.util.LocalDiskCache;
+import org.apache.hadoop.fs.swift.util.SwiftObjectPath;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests of the read cache of the native filesystem, against
+ * a single object held in memory
+ */
+public class TestSwiftObjectCache {
+  private static final int BLOCK_SIZE = 64;
+
+  private File dir;
+  private final SwiftObjectPath path = new SwiftObjectPath("container",
+                                                           "/file");
+
+  /**
+   * Cache of an object held in memory, counting its requests
+   */
+  private static class InMemoryObjectCache extends SwiftObjectCache {
+    private byte[] data;
+    private String etag;
+    private int heads;
+    private int gets;
+
+    private InMemoryObjectCache(LocalDiskCache cache, boolean validate) {
+      super(cache, null, "swift://container.service", BLOCK_SIZE, validate);
+    }
+
+    private void setObject(byte[] data, String etag) {
+      this.data = data;
+      this.etag = etag;
+    }
+
+    @Override
+    Header[] head(SwiftObjectPath path) {
+      heads++;
+      return new Header[]{
+        new Header(SwiftProtocolConstants.HEADER_ETAG, etag),
+        new Header(SwiftProtocolConstants.HEADER_CONTENT_LENGTH,
+                   Integer.toString(data.length))
+      };
+    }
+
+    @Override
+    InputStream get(SwiftObjectPath path, long start, long length)
+      throws IOException {
+      gets++;
+      if (start >= data.length) {
+        throw new EOFException("Range starts past the end of " + path);
+      }
+      long end = length < 0 ? data.length
+                            : Math.min(data.length, start + length);
+      return new ByteArrayInputStream(data, (int) start, (int) (end - start));
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    dir = File.createTempFile("swiftobjectcache", "");
+    dir.delete();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  private static byte[] data(int length, int seed) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (seed + i);
+    }
+    return data;
+  }
+
+  private static byte[] read(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[100];
+      int read;
+      while ((read = in.read(buf)) >= 0) {
+        out.write(buf, 0, read);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private InMemoryObjectCache cache(boolean validate) throws IOException {
+    return new InMemoryObjectCache(new LocalDiskCache(dir, 64 * 1024),
+                                   validate);
+  }
+
+  @Test
+  public void testHitMakesNoRequests() throws Throwable {
+    InMemoryObjectCache cache = cache(false);
+    byte[] data = data(200, 1);
+    cache.setObject(data, "v1");
+    assertArrayEquals(data, read(cache.open(path, 0, -1)));
+    assertEquals(1, cache.heads);
+    assertEquals(4, cache.gets);
+    assertArrayEquals(data, read(cache.open(path, 0, -1)));
+    assertEquals(1, cache.heads);
+    assertEquals(4, cache.gets);
+  }
+
+  @Test
+  public void testNewVersionMissesOldBlocks() throws Throwable {
+    InMemoryObjectCache cache = cache(true);
+    cache.setObject(data(200, 1), "v1");
+    read(cache.open(path, 0, -1));
+    //same length, new ETag: the blocks of v1 must not be served
+    byte[] changed = data(200, 7);
+    cache.setObject(changed, "v2");
+    assertArrayEquals(changed, read(cache.open(path, 0, -1)));
+    //and the blocks of v1 are not served once v1 is back either
+    byte[] reverted = data(200, 1);
+    cache.setObject(reverted, "v1");
+    assertArrayEquals(reverted, read(cache.open(path, 0, -1)));
+  }
+
+  @Test
+  public void testInvalidatePicksUpChange() throws Throwable {
+    InMemoryObjectCache cache = cache(false);
+    byte[] data = data(200, 1);
+    cache.setObject(data, "v1");
+    read(cache.open(path, 0, -1));
+    byte[] changed = data(100, 9);
+    cache.setObject(changed, "v2");
+    //without validation, the cached version is still used
+    assertArrayEquals(data, read(cache.open(path, 0, -1)));
+    cache.invalidate(path);
+    assertArrayEquals(changed, read(cache.open(path, 0, -1)));
+    assertEquals(2, cache.heads);
+  }
+
+  @Test
+  public void testShrunkObjectServesWhatThereIs() throws Throwable {
+    InMemoryObjectCache cache = cache(false);
+    cache.setObject(data(200, 1), "v1");
+    //cache the version only, from a read of the first block
+    read(cache.open(path, 0, BLOCK_SIZE));
+    byte[] shrunk = data(100, 5);
+    cache.setObject(shrunk, "v2");
+    //the second block comes back short, the third not at all
+    byte[] read = read(cache.open(path, BLOCK_SIZE, -1));
+    byte[] expected = new byte[100 - BLOCK_SIZE];
+    System.arraycopy(shrunk, BLOCK_SIZE, expected, 0, expected.length);
+    assertArrayEquals(expected, read);
+    //the version has been dropped, so the next open sees the new length
+    assertArrayEquals(shrunk, read(cache.open(path, 0, -1)));
+    assertEquals(2, cache.heads);
+  }
+}
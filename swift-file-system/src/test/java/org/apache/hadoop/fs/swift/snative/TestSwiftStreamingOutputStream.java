@@ -0,0 +1,426 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.swift.snative;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.swift.InMemorySwiftNativeStore;
+import org.apache.hadoop.fs.swift.util.SwiftUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests of the streaming output stream and its pipe, run against
+ * the in-memory store.
+ */
+public class TestSwiftStreamingOutputStream {
+
+  private static final int PART_SIZE = 1000;
+
+  private InMemorySwiftNativeStore store;
+  private Path path;
+
+  /**
+   * Store whose streamed uploads of parts -and, optionally, of whole
+   * files- fail once they have read some data
+   */
+  private static class FailingUploadStore extends InMemorySwiftNativeStore {
+    private final boolean failFileUploads;
+
+    private FailingUploadStore(boolean failFileUploads) {
+      this.failFileUploads = failFileUploads;
+    }
+
+    @Override
+    public String uploadFile(Path path, InputStream inputStream, long length,
+                             String md5) throws IOException {
+      if (failFileUploads && length < 0) {
+        inputStream.read(new byte[10]);
+        inputStream.close();
+        throw new IOException("failing upload of " + path);
+      }
+      return super.uploadFile(path, inputStream, length, md5);
+    }
+
+    @Override
+    public SwiftSegment uploadFilePart(Path path, int partNumber,
+                                       InputStream inputStream, long length,
+                                       String md5) throws IOException {
+      if (length < 0) {
+        inputStream.read(new byte[10]);
+        inputStream.close();
+        throw new IOException("failing upload of " + path);
+      }
+      return super.uploadFilePart(path, partNumber, inputStream, length, md5);
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    store = new InMemorySwiftNativeStore();
+    path = new Path("/test/outputfile");
+  }
+
+  private SwiftOutputStreamOptions options(boolean staticManifest)
+      throws IOException {
+    Configuration conf = new Configuration();
+    conf.set("hadoop.tmp.dir", System.getProperty("java.io.tmpdir"));
+    return new SwiftOutputStreamOptions()
+      .setBlockFactory(new SwiftOutputBlockFactory(conf,
+                                                   SwiftOutputBuffer.DISK,
+                                                   PART_SIZE, PART_SIZE,
+                                                   PART_SIZE, true))
+      .setStaticManifest(staticManifest)
+      .setStreaming(true);
+  }
+
+  /**
+   * Create a stream, overwriting the file if it exists, as the
+   * filesystem does
+   */
+  private SwiftStreamingOutputStream create(boolean staticManifest)
+      throws IOException {
+    return new SwiftStreamingOutputStream(store, path.toUri().toString(),
+                                          options(staticManifest),
+                                          store.objectExists(path));
+  }
+
+  private static byte[] dataset(int len) {
+    byte[] data = new byte[len];
+    for (int i = 0; i < len; i++) {
+      data[i] = (byte) (i % 251);
+    }
+    return data;
+  }
+
+  /**
+   * Write data in uneven chunks, so that writes straddle partitions
+   */
+  private static void writeInChunks(SwiftStreamingOutputStream out,
+                                    byte[] data) throws IOException {
+    int off = 0;
+    int chunk = 1;
+    while (off < data.length) {
+      int len = Math.min(chunk, data.length - off);
+      out.write(data, off, len);
+      off += len;
+      chunk = chunk * 3 + 1;
+    }
+  }
+
+  private byte[] readBack(Path src) throws IOException {
+    InputStream in = store.getObject(src);
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[512];
+      int read;
+      while ((read = in.read(buf)) >= 0) {
+        out.write(buf, 0, read);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private void assertChecksum(byte[] data) throws IOException {
+    assertEquals(SwiftFileChecksum.fromHex(
+                   SwiftUtils.toHex(SwiftUtils.newMD5().digest(data))),
+                 store.getFileChecksum(path));
+  }
+
+  @Test
+  public void testSmallFileStreamed() throws Throwable {
+    byte[] data = dataset(PART_SIZE - 1);
+    SwiftStreamingOutputStream out = create(false);
+    writeInChunks(out, data);
+    out.close();
+    assertEquals(0, out.getPartitionsWritten());
+    assertFalse(store.objectExists(new Path(path, "000001")));
+    //a new file is streamed straight to its path
+    assertEquals(0, store.getCopyCount());
+    assertArrayEquals(data, readBack(path));
+    assertChecksum(data);
+  }
+
+  @Test
+  public void testExactlyOnePart() throws Throwable {
+    byte[] data = dataset(PART_SIZE);
+    SwiftStreamingOutputStream out = create(false);
+    out.write(data);
+    out.close();
+    assertEquals(0, out.getPartitionsWritten());
+    assertArrayEquals(data, readBack(path));
+  }
+
+  @Test
+  public void testEmptyFile() throws Throwable {
+    SwiftStreamingOutputStream out = create(false);
+    out.close();
+    assertArrayEquals(new byte[0], readBack(path));
+    //an empty object is taken for a directory marker: no checksum
+    assertNull(store.getFileChecksum(path));
+  }
+
+  @Test
+  public void testDirectoryHasNoChecksum() throws Throwable {
+    store.createDirectory(path);
+    assertNull(store.getFileChecksum(path));
+  }
+
+  @Test
+  public void testLargeFileSegmented() throws Throwable {
+    byte[] data = dataset(3 * PART_SIZE + 17);
+    SwiftStreamingOutputStream out = create(false);
+    writeInChunks(out, data);
+    out.close();
+    assertEquals(4, out.getPartitionsWritten());
+    assertTrue(store.objectExists(new Path(path, "000004")));
+    //only the first partition was copied, to its segment
+    assertEquals(1, store.getCopyCount());
+    assertArrayEquals(data, readBack(path));
+    assertChecksum(data);
+  }
+
+  @Test
+  public void testNewFileHoldsFirstPartWhileWritten() throws Throwable {
+    byte[] data = dataset(2 * PART_SIZE + 1);
+    SwiftStreamingOutputStream out = create(false);
+    writeInChunks(out, data);
+    assertEquals(2, out.getPartitionsWritten());
+    byte[] first = new byte[PART_SIZE];
+    System.arraycopy(data, 0, first, 0, PART_SIZE);
+    assertArrayEquals(first, readBack(path));
+    assertArrayEquals(first, readBack(new Path(path, "000001")));
+    out.close();
+    assertArrayEquals(data, readBack(path));
+  }
+
+  @Test
+  public void testFailedUploadDeletesFirstPart() throws Throwable {
+    store = new FailingUploadStore(false);
+    SwiftStreamingOutputStream out = create(false);
+    byte[] data = dataset(100);
+    try {
+      for (int i = 0; i < 100; i++) {
+        out.write(data);
+      }
+      out.close();
+      fail("expected the upload to fail");
+    } catch (IOException expected) {
+      //expected
+    }
+    assertFalse(store.objectExists(path));
+  }
+
+  @Test
+  public void testOverwriteWithFewerPartitions() throws Throwable {
+    SwiftStreamingOutputStream out = create(false);
+    writeInChunks(out, dataset(4 * PART_SIZE + 1));
+    out.close();
+    byte[] data = dataset(PART_SIZE + 1);
+    out = create(false);
+    writeInChunks(out, data);
+    out.close();
+    assertEquals(2, out.getPartitionsWritten());
+    assertFalse(store.objectExists(new Path(path, "000003")));
+    assertArrayEquals(data, readBack(path));
+  }
+
+  @Test
+  public void testLargeFileStaticManifest() throws Throwable {
+    byte[] data = dataset(2 * PART_SIZE + 1);
+    SwiftStreamingOutputStream out = create(true);
+    writeInChunks(out, data);
+    out.close();
+    assertEquals(3, out.getPartitionsWritten());
+    assertTrue("not a static manifest", store.isStaticManifest(path));
+    assertArrayEquals(data, readBack(path));
+    assertChecksum(data);
+  }
+
+  /**
+   * Keep more streams open at once than there are upload threads, as
+   * the filesystem sets them up: no upload may wait for a thread.
+   */
+  @Test(timeout = 30000)
+  public void testMoreOpenStreamsThanUploadThreads() throws Throwable {
+    ExecutorService uploadPool = SwiftUtils.newDaemonThreadPool("upload", 2);
+    ExecutorService streamingPool =
+      SwiftUtils.newUnboundedDaemonThreadPool("stream");
+    try {
+      SwiftOutputStreamOptions options = options(false)
+        .setUploadExecutor(uploadPool)
+        .setStreamingExecutor(streamingPool);
+      byte[] data = dataset(2 * PART_SIZE + 1);
+      SwiftStreamingOutputStream[] outs = new SwiftStreamingOutputStream[5];
+      for (int i = 0; i < outs.length; i++) {
+        outs[i] = new SwiftStreamingOutputStream(store, path + "-" + i,
+                                                 options, false);
+      }
+      //interleave the writes, so that every upload is in flight at once;
+      //the streams opened last are the first to finish a part
+      for (int off = 0; off < data.length; off += 100) {
+        for (int i = outs.length - 1; i >= 0; i--) {
+          outs[i].write(data, off, Math.min(100, data.length - off));
+        }
+      }
+      for (int i = 0; i < outs.length; i++) {
+        outs[i].close();
+        assertArrayEquals(data, readBack(new Path(path + "-" + i)));
+      }
+    } finally {
+      uploadPool.shutdownNow();
+      streamingPool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testNothingPublishedBeforeClose() throws Throwable {
+    byte[] old = dataset(10);
+    store.uploadFile(path, new ByteArrayInputStream(old), old.length);
+    byte[] data = dataset(2 * PART_SIZE + 1);
+    SwiftStreamingOutputStream out = create(false);
+    writeInChunks(out, data);
+    //the first part has been completed
+    assertEquals(2, out.getPartitionsWritten());
+    assertArrayEquals(old, readBack(path));
+    out.close();
+    assertArrayEquals(data, readBack(path));
+  }
+
+  @Test
+  public void testSinglePartPublishedOnClose() throws Throwable {
+    byte[] old = dataset(10);
+    store.uploadFile(path, new ByteArrayInputStream(old), old.length);
+    byte[] data = dataset(PART_SIZE / 2);
+    SwiftStreamingOutputStream out = create(false);
+    out.write(data);
+    out.flush();
+    assertArrayEquals(old, readBack(path));
+    out.close();
+    assertArrayEquals(data, readBack(path));
+    assertFalse(store.objectExists(new Path(path, "000001")));
+    assertEquals(1, store.getCopyCount());
+  }
+
+  @Test
+  public void testFailedUploadLeavesExistingFile() throws Throwable {
+    store = new FailingUploadStore(true);
+    byte[] old = dataset(10);
+    store.uploadFile(path, new ByteArrayInputStream(old), old.length);
+    SwiftStreamingOutputStream out = create(false);
+    byte[] data = dataset(100);
+    try {
+      for (int i = 0; i < 100; i++) {
+        out.write(data);
+      }
+      out.close();
+      fail("expected the upload to fail");
+    } catch (IOException expected) {
+      //expected
+    }
+    assertArrayEquals(old, readBack(path));
+  }
+
+  @Test
+  public void testFailedUploadReported() throws Throwable {
+    store = new FailingUploadStore(true);
+    SwiftStreamingOutputStream out = create(false);
+    byte[] data = dataset(100);
+    try {
+      //the pipe takes the first writes; a later one, or close, fails
+      for (int i = 0; i < 100; i++) {
+        out.write(data);
+      }
+      out.close();
+      fail("expected the upload to fail");
+    } catch (IOException expected) {
+      assertTrue(expected.toString(),
+                 expected.toString().contains("failing upload"));
+    }
+    assertFalse(store.objectExists(path));
+  }
+
+  @Test
+  public void testPipe() throws Throwable {
+    final SwiftUploadPipe pipe = new SwiftUploadPipe(7);
+    final byte[] data = dataset(1000);
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int off = 0; off < data.length; off += 100) {
+            pipe.getOutputStream().write(data, off, 100);
+          }
+          pipe.getOutputStream().close();
+        } catch (IOException e) {
+          pipe.abort();
+        }
+      }
+    };
+    writer.start();
+    ByteArrayOutputStream read = new ByteArrayOutputStream();
+    byte[] buf = new byte[13];
+    int count;
+    while ((count = pipe.getInputStream().read(buf)) >= 0) {
+      read.write(buf, 0, count);
+    }
+    writer.join();
+    assertArrayEquals(data, read.toByteArray());
+  }
+
+  @Test
+  public void testAbortedPipeFailsReader() throws Throwable {
+    SwiftUploadPipe pipe = new SwiftUploadPipe(16);
+    pipe.getOutputStream().write(dataset(10));
+    pipe.abort();
+    try {
+      pipe.getInputStream().read(new byte[16]);
+      fail("expected the read to fail");
+    } catch (IOException expected) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testClosedPipeFailsWriter() throws Throwable {
+    SwiftUploadPipe pipe = new SwiftUploadPipe(16);
+    pipe.getInputStream().close();
+    try {
+      pipe.getOutputStream().write(dataset(10));
+      fail("expected the write to fail");
+    } catch (IOException expected) {
+      //expected
+    }
+  }
+}